@@ -0,0 +1,36 @@
+#!/bin/bash
+
+# Builds the class-data-sharing archive used by the fast-startup launch mode (deploy.sh FAST_STARTUP=1).
+# The fat jar is unpacked into a plain classpath (CDS cannot map classes out of nested jars), then a
+# training run starts the context, exits right after refresh and dumps every loaded class into app.jsa.
+
+APP_PATH=${1:-"./server-0.0.1-SNAPSHOT.jar"}
+CDS_DIR=${2:-"./cds"}
+
+set -e
+
+if [ ! -f "$APP_PATH" ]; then
+    echo "Error: JAR file not found at $APP_PATH"
+    exit 1
+fi
+
+echo "Unpacking $APP_PATH into $CDS_DIR..."
+rm -rf "$CDS_DIR"
+mkdir -p "$CDS_DIR"
+unzip -q "$APP_PATH" -d "$CDS_DIR"
+
+# Absolute, fixed-order classpath: the archive is only used when the runtime classpath matches
+CDS_ABS=$(cd "$CDS_DIR" && pwd)
+CLASSPATH="$CDS_ABS/BOOT-INF/classes"
+for lib in $(ls "$CDS_ABS"/BOOT-INF/lib/*.jar | sort); do
+    CLASSPATH="$CLASSPATH:$lib"
+done
+echo "$CLASSPATH" > "$CDS_DIR/classpath.txt"
+
+echo "Training run..."
+# Default profile on purpose: eager beans load more classes into the archive
+java -XX:ArchiveClassesAtExit="$CDS_ABS/app.jsa" \
+     -Dspring.context.exit=onRefresh \
+     -cp "$CLASSPATH" com.music.server.MusicApplication
+
+echo "CDS archive written to $CDS_DIR/app.jsa"
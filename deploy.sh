@@ -1,54 +1,134 @@
 #!/bin/bash
 
+# Redeploy without refused connections. The new instance starts on a control port, warms up, then binds the
+# public port next to the running instance (SO_REUSEPORT, see PortHandoff). Only then is the old instance
+# sent SIGTERM: it stops accepting, lets in-flight streams and uploads finish and flushes its state (see
+# ShutdownDrain). Reads are served throughout, but writes are not: the new instance answers them with a 503
+# and Retry-After until the old one has exited and it has reloaded the data files (see WriterLease).
+# Linux >= 5.14: sysctl net.ipv4.tcp_migrate_req=1 also hands over connections still queued on the old
+# listener when it closes.
+
 # Configuration
 SERVER_PORT=31275
+# Two control ports, the new instance takes whichever the old one isn't using
+CONTROL_PORTS="31276 31277"
 APP_NAME="server-0.0.1-SNAPSHOT.jar"
 APP_PATH="./server-0.0.1-SNAPSHOT.jar"
 LOG_FILE="app.log"
+# FAST_STARTUP=1: CDS archive from cds-train.sh + fast-startup profile
+FAST_STARTUP=${FAST_STARTUP:-0}
+CDS_DIR="./cds"
+READY_TIMEOUT=180
+# Wait for the new instance to share the public port before stopping the old one
+HANDOFF_TIMEOUT=10
+# spring.lifecycle.timeout-per-shutdown-phase plus drain grace and some slack
+DRAIN_TIMEOUT=75
 
 echo "=================================================="
 echo "Starting deployment script for port $SERVER_PORT"
 echo "=================================================="
 
-# 1. Check if port is in use and kill the process
-echo "Checking port $SERVER_PORT..."
-PID=$(lsof -t -i:$SERVER_PORT)
-
-if [ -n "$PID" ]; then
-    echo "Port $SERVER_PORT is in use by PID $PID. Killing process..."
-    kill -9 $PID
-    if [ $? -eq 0 ]; then
-        echo "Process $PID killed successfully."
-    else
-        echo "Failed to kill process $PID."
-        exit 1
-    fi
+if [ ! -f "$APP_PATH" ]; then
+    echo "Error: JAR file not found at $APP_PATH"
+    exit 1
+fi
+
+# 1. Find the running instance (listening sockets only, not clients of the port)
+OLD_PID=$(lsof -t -sTCP:LISTEN -i:$SERVER_PORT | head -n 1)
+if [ -n "$OLD_PID" ]; then
+    echo "Port $SERVER_PORT is served by PID $OLD_PID, it keeps serving until the new instance is up."
 else
     echo "Port $SERVER_PORT is free."
 fi
-# 3. Run the application
-echo "Starting application..."
-if [ -f "$APP_PATH" ]; then
-    # Run in background with nohup
-    nohup java -jar $APP_PATH > $LOG_FILE 2>&1 &
-    
-    NEW_PID=$!
-    echo "Application started with PID $NEW_PID"
-    echo "Logs are being written to $LOG_FILE"
-    
-    # Wait a moment to check if it crashes immediately
-    sleep 3
-    if ps -p $NEW_PID > /dev/null; then
-        echo "Application is running successfully."
-    else
-        echo "Application failed to start. Check $LOG_FILE for details."
-        cat $LOG_FILE
+
+CONTROL_PORT=""
+for port in $CONTROL_PORTS; do
+    if [ -z "$(lsof -t -sTCP:LISTEN -i:$port)" ]; then
+        CONTROL_PORT=$port
+        break
     fi
-else
-    echo "Error: JAR file not found at $APP_PATH"
+done
+if [ -z "$CONTROL_PORT" ]; then
+    echo "Error: control ports $CONTROL_PORTS are all in use, is a deployment already running?"
     exit 1
 fi
+READY_URL="http://localhost:$CONTROL_PORT/api/v1/health/ready"
+
+# 2. Start the new instance on the control port
+echo "Starting application on control port $CONTROL_PORT..."
+if [ -f "$LOG_FILE" ]; then
+    mv "$LOG_FILE" "$LOG_FILE.prev"
+fi
+PORT_ARGS="--server.port=$CONTROL_PORT --app.lifecycle.public-port=$SERVER_PORT"
+if [ "$FAST_STARTUP" = "1" ] && [ -f "$CDS_DIR/app.jsa" ]; then
+    echo "Fast startup mode with CDS archive $CDS_DIR/app.jsa"
+    nohup java -XX:SharedArchiveFile=$CDS_DIR/app.jsa -Xshare:auto \
+        -cp "$(cat $CDS_DIR/classpath.txt)" com.music.server.MusicApplication \
+        --spring.profiles.active=fast-startup $PORT_ARGS > $LOG_FILE 2>&1 &
+else
+    nohup java -jar $APP_PATH $PORT_ARGS > $LOG_FILE 2>&1 &
+fi
+NEW_PID=$!
+echo "Application started with PID $NEW_PID"
+echo "Logs are being written to $LOG_FILE"
+
+# 3. Wait until it reports ready (context up, catalogs loaded, JIT warm-up done)
+START_TIME=$(date +%s)
+while true; do
+    if ! ps -p $NEW_PID > /dev/null; then
+        echo "Application failed to start, the old instance keeps serving. Check $LOG_FILE for details."
+        cat $LOG_FILE
+        exit 1
+    fi
+    if curl -sf -o /dev/null "$READY_URL"; then
+        echo "Application is ready after $(( $(date +%s) - START_TIME ))s."
+        break
+    fi
+    if [ $(( $(date +%s) - START_TIME )) -ge $READY_TIMEOUT ]; then
+        echo "Application not ready after ${READY_TIMEOUT}s, stopping it. The old instance keeps serving."
+        kill -TERM $NEW_PID
+        exit 1
+    fi
+    sleep 1
+done
+
+# 4. Wait for it to bind the public port too. An old instance from before SO_REUSEPORT holds the port
+#    exclusively, then the new one only gets it once the old one is stopped below.
+START_TIME=$(date +%s)
+until curl -s "$READY_URL" | grep -q '"public_port_bound":true'; do
+    if [ $(( $(date +%s) - START_TIME )) -ge $HANDOFF_TIMEOUT ]; then
+        echo "Public port not shared after ${HANDOFF_TIMEOUT}s, the new instance takes it over once the old one stops."
+        break
+    fi
+    sleep 0.2
+done
+
+# 5. Drain the old instance
+if [ -n "$OLD_PID" ]; then
+    echo "Draining PID $OLD_PID..."
+    kill -TERM $OLD_PID
+    START_TIME=$(date +%s)
+    while ps -p $OLD_PID > /dev/null; do
+        if [ $(( $(date +%s) - START_TIME )) -ge $DRAIN_TIMEOUT ]; then
+            echo "PID $OLD_PID still running after ${DRAIN_TIMEOUT}s, killing it."
+            kill -9 $OLD_PID
+            break
+        fi
+        sleep 1
+    done
+    echo "Old instance stopped after $(( $(date +%s) - START_TIME ))s."
+fi
+
+# 6. The public port must be served by the new instance now, and it must have taken over writing
+START_TIME=$(date +%s)
+until curl -sf "http://localhost:$SERVER_PORT/api/v1/health/ready" | grep -q '"writer":true'; do
+    if [ $(( $(date +%s) - START_TIME )) -ge 10 ]; then
+        echo "Port $SERVER_PORT not answering ready with writes enabled. Check $LOG_FILE for details."
+        exit 1
+    fi
+    sleep 0.2
+done
 
 echo "=================================================="
-echo "Deployment finished."
+echo "Deployment finished, PID $NEW_PID serves port $SERVER_PORT (control port $CONTROL_PORT)."
 echo "=================================================="
@@ -0,0 +1,250 @@
+package com.music.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * Runs several server instances on localhost against one Redis stand-in and checks file ownership:
+ * uploads to one node stream byte-identical from every node, every track keeps its replica count
+ * after a node leaves, and a node that joins receives the catalog and the files it now owns.
+ * <p>
+ * Usage: {@code java -cp loadtest/target/loadtest-0.0.1-SNAPSHOT.jar com.music.loadtest.ClusterCheck
+ * --jar=target/server-0.0.1-SNAPSHOT.jar --nodes=3 --tracks=24}
+ */
+public class ClusterCheck {
+
+    private static final String SECRET = "cluster-check";
+
+    private final Path jar;
+    private final Path work;
+    private final RedisStandIn redis;
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    private final Map<String, ServerUnderTest> nodes = new LinkedHashMap<>();
+    private int failures;
+
+    private ClusterCheck(Path jar, Path work, RedisStandIn redis) {
+        this.jar = jar;
+        this.work = work;
+        this.redis = redis;
+    }
+
+    public static void main(String[] argv) throws Exception {
+        Map<String, String> args = new LinkedHashMap<>();
+        args.put("jar", "target/server-0.0.1-SNAPSHOT.jar");
+        args.put("nodes", "3");
+        args.put("tracks", "24");
+        args.put("upload-kb", "256");
+        for (String arg : argv) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                System.err.println("Unknown argument " + arg + ", expected --key=value. Keys: " + args.keySet());
+                System.exit(2);
+            }
+            args.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        int nodeCount = Integer.parseInt(args.get("nodes"));
+        if (nodeCount < 3) {
+            throw new IllegalArgumentException("Needs at least 3 nodes to lose one and keep 2 replicas");
+        }
+        Path work = Files.createTempDirectory("music-cluster");
+        System.out.println("Cluster check in " + work);
+
+        try (RedisStandIn redis = new RedisStandIn(0)) {
+            ClusterCheck check = new ClusterCheck(Path.of(args.get("jar")), work, redis);
+            try {
+                check.run(nodeCount, Integer.parseInt(args.get("tracks")), Integer.parseInt(args.get("upload-kb")));
+            } finally {
+                check.nodes.values().forEach(ServerUnderTest::close);
+            }
+            System.out.println(check.failures == 0 ? "Cluster check passed" : "Cluster check FAILED: " + check.failures);
+            System.exit(check.failures == 0 ? 0 : 1);
+        }
+    }
+
+    private void run(int nodeCount, int tracks, int uploadKb) throws Exception {
+        for (int i = 0; i < nodeCount; i++) {
+            startNode("node-" + i);
+        }
+        awaitMembers(nodeCount);
+        ServerUnderTest first = nodes.values().iterator().next();
+        String token = Scenarios.login(client, first.baseUrl(), first.usernames().get(0));
+
+        Random random = new Random(42);
+        Map<String, byte[]> uploaded = new LinkedHashMap<>();
+        for (int i = 0; i < tracks; i++) {
+            byte[] audio = new byte[uploadKb * 1024];
+            random.nextBytes(audio);
+            uploaded.put(upload(first, token, audio), audio);
+        }
+        System.out.printf("Uploaded %d tracks to %s%n", tracks, first.baseUrl());
+
+        // Replication is asynchronous, the owners should have it within a few heartbeats
+        awaitReplicas(uploaded.keySet(), 2, Duration.ofSeconds(30));
+        for (Map.Entry<String, ServerUnderTest> node : nodes.entrySet()) {
+            check(listed(node.getValue(), token) == tracks, node.getKey() + " lists every track");
+            for (Map.Entry<String, byte[]> track : uploaded.entrySet()) {
+                byte[] body = stream(node.getValue(), token, track.getKey(), false);
+                check(Arrays.equals(body, track.getValue()), node.getKey() + " streams " + track.getKey());
+            }
+        }
+
+        String leaving = new ArrayList<>(nodes.keySet()).get(nodeCount - 1);
+        System.out.println("Stopping " + leaving);
+        nodes.remove(leaving).close();
+        awaitMembers(nodeCount - 1);
+        awaitReplicas(uploaded.keySet(), 2, Duration.ofSeconds(60));
+
+        String joining = "node-" + nodeCount;
+        startNode(joining);
+        awaitMembers(nodeCount);
+        awaitReplicas(uploaded.keySet(), 2, Duration.ofSeconds(60));
+        ServerUnderTest joined = nodes.get(joining);
+        long deadline = System.nanoTime() + Duration.ofSeconds(30).toNanos();
+        while (listed(joined, token) < tracks && System.nanoTime() < deadline) {
+            Thread.sleep(500);
+        }
+        check(listed(joined, token) == tracks, joining + " received the catalog");
+        int local = 0;
+        for (Map.Entry<String, byte[]> track : uploaded.entrySet()) {
+            byte[] body = stream(joined, token, track.getKey(), false);
+            check(Arrays.equals(body, track.getValue()), joining + " streams " + track.getKey());
+            if (stream(joined, token, track.getKey(), true) != null) {
+                local++;
+            }
+        }
+        System.out.printf("%s holds %d of %d files%n", joining, local, tracks);
+        check(local > 0 && local < tracks, joining + " took over part of the files");
+    }
+
+    private void startNode(String name) throws IOException, InterruptedException {
+        int port = freePort();
+        ServerUnderTest node = new ServerUnderTest(work.resolve(name), port);
+        node.writeCatalog(0, 4, 0, 0, 42);
+        node.start(jar, redis.getPort(), List.of(
+                "-Xmx256m",
+                "-Dapp.cluster.enabled=true",
+                "-Dapp.cluster.node-id=" + name,
+                "-Dapp.cluster.secret=" + SECRET,
+                "-Dapp.cluster.heartbeat-interval-ms=500",
+                "-Dapp.cluster.node-ttl-ms=3000",
+                "-Dapp.cluster.rebalance-delay-ms=1000",
+                "-Dapp.auth.password.iterations=1000"), work.resolve(name + ".log"));
+        node.awaitReady(Duration.ofMinutes(2));
+        nodes.put(name, node);
+        System.out.println("Started " + name + " at " + node.baseUrl());
+    }
+
+    // Redis has the right count, then give every node a few heartbeats to pick it up
+    private void awaitMembers(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(30).toNanos();
+        while (redis.hashSize("cluster:nodes") != count && System.nanoTime() < deadline) {
+            Thread.sleep(250);
+        }
+        check(redis.hashSize("cluster:nodes") == count, count + " nodes registered");
+        Thread.sleep(1500);
+    }
+
+    private void awaitReplicas(Collection<String> ids, int replicas, Duration timeout) throws Exception {
+        ServerUnderTest any = nodes.values().iterator().next();
+        String token = Scenarios.login(client, any.baseUrl(), any.usernames().get(0));
+        long deadline = System.nanoTime() + timeout.toNanos();
+        int missing;
+        do {
+            missing = 0;
+            for (String id : ids) {
+                int copies = 0;
+                for (ServerUnderTest node : nodes.values()) {
+                    if (stream(node, token, id, true) != null) {
+                        copies++;
+                    }
+                }
+                if (copies < replicas) {
+                    missing++;
+                }
+            }
+            if (missing > 0) {
+                Thread.sleep(500);
+            }
+        } while (missing > 0 && System.nanoTime() < deadline);
+        check(missing == 0, "every track on at least " + replicas + " of " + nodes.keySet());
+    }
+
+    private String upload(ServerUnderTest node, String token, byte[] audio) throws IOException, InterruptedException {
+        String boundary = "----clustercheck" + UUID.randomUUID();
+        ByteArrayOutputStream body = new ByteArrayOutputStream(audio.length + 512);
+        ServerUnderTest.writeBytes(body, "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"cluster.mp3\"\r\n"
+                + "Content-Type: audio/mpeg\r\n\r\n");
+        body.write(audio);
+        ServerUnderTest.writeBytes(body, "\r\n--" + boundary + "--\r\n");
+        HttpResponse<String> response = client.send(authorized(node.baseUrl() + "/music/upload", token)
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        String text = response.body();
+        int at = text.indexOf("\"id\":\"");
+        if (at < 0) {
+            throw new IOException("Upload failed: " + text);
+        }
+        return text.substring(at + 6, text.indexOf('"', at + 6));
+    }
+
+    /**
+     * @param localOnly mark the request as forwarded, so the node answers from its own disk
+     * @return null unless 200
+     */
+    private byte[] stream(ServerUnderTest node, String token, String id, boolean localOnly) throws IOException, InterruptedException {
+        HttpRequest.Builder request = authorized(node.baseUrl() + "/music/stream/" + id, token);
+        if (localOnly) {
+            request.header("X-Cluster-Hop", "cluster-check");
+        }
+        HttpResponse<byte[]> response = client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+        return response.statusCode() == 200 ? response.body() : null;
+    }
+
+    private int listed(ServerUnderTest node, String token) throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(authorized(node.baseUrl() + "/music/list?size=1", token).build(),
+                HttpResponse.BodyHandlers.ofString());
+        String body = response.body();
+        int at = body.indexOf("\"total\":");
+        if (at < 0) {
+            return -1;
+        }
+        int start = at + 8;
+        int end = start;
+        while (end < body.length() && Character.isDigit(body.charAt(end))) {
+            end++;
+        }
+        return Integer.parseInt(body.substring(start, end));
+    }
+
+    private void check(boolean ok, String what) {
+        if (!ok) {
+            failures++;
+            System.out.println("  FAIL " + what);
+        }
+    }
+
+    private static HttpRequest.Builder authorized(String url, String token) {
+        return HttpRequest.newBuilder(URI.create(url))
+                .header("Authorization", "Bearer " + token)
+                .timeout(Duration.ofSeconds(60));
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.music.loadtest;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-worker latency samples. Each worker owns one, they are merged once the scenario ends,
+ * so recording never contends.
+ */
+public class LatencyRecorder {
+
+    private long[] samples = new long[1 << 14];
+    private int count;
+    private long errors;
+    private long bytes;
+
+    public void record(long nanos, boolean ok, long bytesTransferred) {
+        if (!ok) {
+            errors++;
+        }
+        bytes += bytesTransferred;
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, samples.length * 2);
+        }
+        samples[count++] = nanos;
+    }
+
+    public static Map<String, Object> summarize(String scenario, Iterable<LatencyRecorder> recorders, double seconds,
+                                                int concurrency) {
+        int total = 0;
+        long errors = 0;
+        long bytes = 0;
+        for (LatencyRecorder r : recorders) {
+            total += r.count;
+            errors += r.errors;
+            bytes += r.bytes;
+        }
+        long[] all = new long[total];
+        int offset = 0;
+        for (LatencyRecorder r : recorders) {
+            System.arraycopy(r.samples, 0, all, offset, r.count);
+            offset += r.count;
+        }
+        Arrays.sort(all);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("scenario", scenario);
+        result.put("concurrency", concurrency);
+        result.put("duration_s", round(seconds));
+        result.put("requests", total);
+        result.put("errors", errors);
+        result.put("throughput_rps", round(total / seconds));
+        result.put("throughput_mb_s", round(bytes / seconds / (1024 * 1024)));
+        result.put("p50_ms", percentile(all, 0.50));
+        result.put("p99_ms", percentile(all, 0.99));
+        result.put("p999_ms", percentile(all, 0.999));
+        result.put("max_ms", all.length == 0 ? 0 : round(all[all.length - 1] / 1e6));
+        return result;
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+        return round(sorted[Math.max(0, index)] / 1e6);
+    }
+
+    private static double round(double v) {
+        return Math.round(v * 1000) / 1000.0;
+    }
+}
@@ -0,0 +1,160 @@
+package com.music.loadtest;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Boots the server jar against a synthetic catalog and the Redis stand-in, runs the chosen scenarios
+ * one after another and writes throughput and latency percentiles per scenario as JSON.
+ * <p>
+ * Usage: {@code java -jar loadtest/target/loadtest-0.0.1-SNAPSHOT.jar --jar=target/server-0.0.1-SNAPSHOT.jar
+ * --scenarios=login-storm,browse,stream,upload-burst --duration=30 --concurrency=32}
+ */
+public class LoadTest {
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("jar", "target/server-0.0.1-SNAPSHOT.jar");
+        DEFAULTS.put("scenarios", "login-storm,browse,stream,upload-burst");
+        DEFAULTS.put("duration", "30");
+        DEFAULTS.put("warmup", "10");
+        DEFAULTS.put("concurrency", "32");
+        DEFAULTS.put("upload-concurrency", "4");
+        DEFAULTS.put("tracks", "20000");
+        DEFAULTS.put("users", "200");
+        DEFAULTS.put("files", "64");
+        DEFAULTS.put("file-kb", "4096");
+        DEFAULTS.put("range-kb", "256");
+        DEFAULTS.put("upload-kb", "8192");
+        DEFAULTS.put("seed", "42");
+        DEFAULTS.put("jvm-args", "-Xmx1g");
+        DEFAULTS.put("out", "loadtest/results/result-" + System.currentTimeMillis() + ".json");
+    }
+
+    public static void main(String[] argv) throws Exception {
+        Map<String, String> args = new LinkedHashMap<>(DEFAULTS);
+        for (String arg : argv) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                System.err.println("Unknown argument " + arg + ", expected --key=value. Keys: " + DEFAULTS.keySet());
+                System.exit(2);
+            }
+            args.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        int fileKb = Integer.parseInt(args.get("file-kb"));
+        Path work = Files.createTempDirectory("music-loadtest");
+
+        try (RedisStandIn redis = new RedisStandIn(0);
+             ServerUnderTest server = new ServerUnderTest(work.resolve("base"), freePort())) {
+            System.out.println("Writing synthetic catalog to " + work);
+            server.writeCatalog(Integer.parseInt(args.get("tracks")), Integer.parseInt(args.get("users")),
+                    Integer.parseInt(args.get("files")), fileKb, Long.parseLong(args.get("seed")));
+            List<String> jvmArgs = args.get("jvm-args").isBlank() ? List.of() : List.of(args.get("jvm-args").split("\\s+"));
+            server.start(Path.of(args.get("jar")), redis.getPort(), jvmArgs, work.resolve("server.log"));
+            long bootStart = System.nanoTime();
+            server.awaitReady(Duration.ofMinutes(3));
+            double bootSeconds = (System.nanoTime() - bootStart) / 1e9;
+            System.out.printf("Server ready in %.1fs (log: %s)%n", bootSeconds, work.resolve("server.log"));
+
+            HttpClient client = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(Duration.ofSeconds(10))
+                    .build();
+            List<String> tokens = new ArrayList<>();
+            for (String username : server.usernames().subList(0, Math.min(50, server.usernames().size()))) {
+                tokens.add(Scenarios.login(client, server.baseUrl(), username));
+            }
+            Scenarios.Context ctx = new Scenarios.Context(client, server.baseUrl(), server.trackIds(), server.usernames(),
+                    tokens, fileKb, Integer.parseInt(args.get("range-kb")), Integer.parseInt(args.get("upload-kb")));
+
+            List<Map<String, Object>> results = new ArrayList<>();
+            for (String name : args.get("scenarios").split(",")) {
+                Scenarios.Scenario scenario = Scenarios.all().get(name.trim());
+                if (scenario == null) {
+                    throw new IllegalArgumentException("Unknown scenario " + name + ", known: " + Scenarios.all().keySet());
+                }
+                int concurrency = Integer.parseInt(args.get(name.startsWith("upload") ? "upload-concurrency" : "concurrency"));
+                Map<String, Object> result = run(scenario, ctx, concurrency, Integer.parseInt(args.get("warmup")),
+                        Integer.parseInt(args.get("duration")), Long.parseLong(args.get("seed")));
+                System.out.println(Json.write(result));
+                results.add(result);
+            }
+
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("timestamp", System.currentTimeMillis());
+            report.put("git_commit", gitCommit());
+            report.put("java_version", System.getProperty("java.version"));
+            report.put("boot_seconds", Math.round(bootSeconds * 1000) / 1000.0);
+            report.put("config", args);
+            report.put("scenarios", results);
+            Path out = Path.of(args.get("out"));
+            if (out.getParent() != null) {
+                Files.createDirectories(out.getParent());
+            }
+            Files.writeString(out, Json.write(report) + "\n", StandardCharsets.UTF_8);
+            System.out.println("Results written to " + out);
+        }
+    }
+
+    private static Map<String, Object> run(Scenarios.Scenario scenario, Scenarios.Context ctx, int concurrency,
+                                           int warmupSeconds, int durationSeconds, long seed) throws Exception {
+        System.out.printf("Running %s: %d workers, %ds warm-up, %ds measured%n", scenario.name(), concurrency,
+                warmupSeconds, durationSeconds);
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+        long warmupEnd = System.nanoTime() + warmupSeconds * 1_000_000_000L;
+        long end = warmupEnd + durationSeconds * 1_000_000_000L;
+        List<LatencyRecorder> recorders = new ArrayList<>();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < concurrency; i++) {
+            LatencyRecorder recorder = new LatencyRecorder();
+            recorders.add(recorder);
+            Scenarios.Operation op = scenario.newWorker(ctx, new Random(seed + i));
+            futures.add(pool.submit(() -> {
+                long now;
+                while ((now = System.nanoTime()) < end) {
+                    long bytes;
+                    try {
+                        bytes = op.call();
+                    } catch (Exception e) {
+                        bytes = -1;
+                    }
+                    long done = System.nanoTime();
+                    if (now >= warmupEnd) {
+                        recorder.record(done - now, bytes >= 0, Math.max(0, bytes));
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        pool.shutdown();
+        return LatencyRecorder.summarize(scenario.name(), recorders, durationSeconds, concurrency);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static String gitCommit() {
+        try {
+            Process git = new ProcessBuilder("git", "rev-parse", "HEAD").redirectErrorStream(true).start();
+            String out = new String(git.getInputStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+            return git.waitFor() == 0 ? out : null;
+        } catch (IOException | InterruptedException e) {
+            return null;
+        }
+    }
+}
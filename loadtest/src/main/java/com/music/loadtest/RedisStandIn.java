@@ -0,0 +1,432 @@
+package com.music.loadtest;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Minimal in-process server speaking the Redis protocol (RESP2), covering the commands the music
+ * server issues. All commands run under one lock, like Redis' single thread. Not a Redis replacement,
+ * just enough to take the network hop to a real instance out of load tests.
+ */
+public class RedisStandIn implements Closeable {
+
+    private final ServerSocket serverSocket;
+    private final Map<String, Object> data = new HashMap<>();
+    private final Map<String, Long> expiry = new HashMap<>();
+    private volatile boolean running = true;
+
+    public RedisStandIn(int port) throws IOException {
+        this.serverSocket = new ServerSocket(port);
+        Thread acceptor = new Thread(this::acceptLoop, "redis-standin-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Fields in a hash, for harnesses that look at server state directly.
+     */
+    public int hashSize(String key) {
+        synchronized (this) {
+            Map<String, String> hash = hash(key, false);
+            return hash == null ? 0 : hash.size();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Thread handler = new Thread(() -> handle(socket), "redis-standin-conn");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Redis stand-in accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (socket;
+             InputStream in = new BufferedInputStream(socket.getInputStream());
+             OutputStream out = new BufferedOutputStream(socket.getOutputStream())) {
+            while (running) {
+                List<String> command = readCommand(in);
+                if (command == null) {
+                    return;
+                }
+                if (command.isEmpty()) {
+                    continue;
+                }
+                Object reply;
+                synchronized (this) {
+                    reply = execute(command);
+                }
+                writeReply(out, reply);
+                // Pipelined commands are flushed together
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // client went away
+        }
+    }
+
+    private Object execute(List<String> cmd) {
+        String name = cmd.get(0).toUpperCase(Locale.ROOT);
+        List<String> args = cmd.subList(1, cmd.size());
+        switch (name) {
+            case "PING":
+                return new Status("PONG");
+            case "AUTH":
+            case "SELECT":
+            case "CLIENT":
+            case "QUIT":
+                return Status.OK;
+            case "HELLO":
+                // Makes the client fall back to RESP2
+                return new Error("ERR unknown command 'HELLO'");
+            case "GET":
+                return string(args.get(0));
+            case "SET":
+                return set(args);
+            case "SETEX":
+                data.put(args.get(0), args.get(2));
+                expireIn(args.get(0), Long.parseLong(args.get(1)) * 1000);
+                return Status.OK;
+            case "DEL": {
+                long n = 0;
+                for (String key : args) {
+                    if (live(key) != null) {
+                        n++;
+                    }
+                    data.remove(key);
+                    expiry.remove(key);
+                }
+                return n;
+            }
+            case "EXISTS": {
+                long n = 0;
+                for (String key : args) {
+                    n += live(key) != null ? 1 : 0;
+                }
+                return n;
+            }
+            case "EXPIRE":
+            case "PEXPIRE": {
+                if (live(args.get(0)) == null) {
+                    return 0L;
+                }
+                long amount = Long.parseLong(args.get(1));
+                expireIn(args.get(0), "EXPIRE".equals(name) ? amount * 1000 : amount);
+                return 1L;
+            }
+            case "INCR":
+            case "INCRBY": {
+                long by = "INCR".equals(name) ? 1 : Long.parseLong(args.get(1));
+                String current = (String) live(args.get(0));
+                long value = (current == null ? 0 : Long.parseLong(current)) + by;
+                data.put(args.get(0), Long.toString(value));
+                return value;
+            }
+            case "HGET":
+                return hash(args.get(0), false) == null ? null : hash(args.get(0), false).get(args.get(1));
+            case "HSET": {
+                Map<String, String> hash = hash(args.get(0), true);
+                long added = 0;
+                for (int i = 1; i + 1 < args.size(); i += 2) {
+                    added += hash.put(args.get(i), args.get(i + 1)) == null ? 1 : 0;
+                }
+                return added;
+            }
+            case "HDEL": {
+                Map<String, String> hash = hash(args.get(0), false);
+                long removed = 0;
+                for (int i = 1; hash != null && i < args.size(); i++) {
+                    removed += hash.remove(args.get(i)) != null ? 1 : 0;
+                }
+                return removed;
+            }
+            case "HINCRBY": {
+                Map<String, String> hash = hash(args.get(0), true);
+                long value = Long.parseLong(hash.getOrDefault(args.get(1), "0")) + Long.parseLong(args.get(2));
+                hash.put(args.get(1), Long.toString(value));
+                return value;
+            }
+            case "HGETALL": {
+                Map<String, String> hash = hash(args.get(0), false);
+                List<Object> reply = new ArrayList<>();
+                if (hash != null) {
+                    hash.forEach((k, v) -> {
+                        reply.add(k);
+                        reply.add(v);
+                    });
+                }
+                return reply;
+            }
+            case "LPUSH":
+            case "RPUSH": {
+                Deque<String> list = list(args.get(0), true);
+                for (String value : args.subList(1, args.size())) {
+                    if ("LPUSH".equals(name)) {
+                        list.addFirst(value);
+                    } else {
+                        list.addLast(value);
+                    }
+                }
+                return (long) list.size();
+            }
+            case "LLEN": {
+                Deque<String> list = list(args.get(0), false);
+                return list == null ? 0L : (long) list.size();
+            }
+            case "LRANGE": {
+                List<String> list = list(args.get(0), false) == null ? List.of() : new ArrayList<>(list(args.get(0), false));
+                int[] range = range(list.size(), Long.parseLong(args.get(1)), Long.parseLong(args.get(2)));
+                return new ArrayList<Object>(list.subList(range[0], range[1]));
+            }
+            case "LTRIM": {
+                Deque<String> list = list(args.get(0), false);
+                if (list != null) {
+                    List<String> copy = new ArrayList<>(list);
+                    int[] range = range(copy.size(), Long.parseLong(args.get(1)), Long.parseLong(args.get(2)));
+                    list.clear();
+                    list.addAll(copy.subList(range[0], range[1]));
+                }
+                return Status.OK;
+            }
+            case "SADD": {
+                Set<String> set = set(args.get(0), true);
+                long added = 0;
+                for (String member : args.subList(1, args.size())) {
+                    if (set.add(member)) {
+                        added++;
+                    }
+                }
+                return added;
+            }
+            case "SREM": {
+                Set<String> set = set(args.get(0), false);
+                long removed = 0;
+                if (set != null) {
+                    for (String member : args.subList(1, args.size())) {
+                        if (set.remove(member)) {
+                            removed++;
+                        }
+                    }
+                    if (set.isEmpty()) {
+                        data.remove(args.get(0));
+                    }
+                }
+                return removed;
+            }
+            case "SMEMBERS": {
+                Set<String> set = set(args.get(0), false);
+                return set == null ? new ArrayList<>() : new ArrayList<Object>(set);
+            }
+            case "SCARD": {
+                Set<String> set = set(args.get(0), false);
+                return set == null ? 0L : (long) set.size();
+            }
+            case "KEYS": {
+                String regex = args.get(0).replace("?", ".").replace("*", ".*");
+                List<Object> keys = new ArrayList<>();
+                for (String key : new ArrayList<>(data.keySet())) {
+                    if (live(key) != null && key.matches(regex)) {
+                        keys.add(key);
+                    }
+                }
+                return keys;
+            }
+            default:
+                return new Error("ERR unknown command '" + name + "'");
+        }
+    }
+
+    private Object set(List<String> args) {
+        String key = args.get(0);
+        boolean nx = false;
+        boolean xx = false;
+        long ttlMs = -1;
+        for (int i = 2; i < args.size(); i++) {
+            String opt = args.get(i).toUpperCase(Locale.ROOT);
+            switch (opt) {
+                case "EX" -> ttlMs = Long.parseLong(args.get(++i)) * 1000;
+                case "PX" -> ttlMs = Long.parseLong(args.get(++i));
+                case "NX" -> nx = true;
+                case "XX" -> xx = true;
+                default -> {
+                    return new Error("ERR syntax error");
+                }
+            }
+        }
+        boolean exists = live(key) != null;
+        if ((nx && exists) || (xx && !exists)) {
+            return null;
+        }
+        data.put(key, args.get(1));
+        expiry.remove(key);
+        if (ttlMs > 0) {
+            expireIn(key, ttlMs);
+        }
+        return Status.OK;
+    }
+
+    private Object string(String key) {
+        Object value = live(key);
+        return value instanceof String ? value : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, String> hash(String key, boolean create) {
+        Object value = live(key);
+        if (value == null && create) {
+            value = new LinkedHashMap<String, String>();
+            data.put(key, value);
+        }
+        return (Map<String, String>) value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Deque<String> list(String key, boolean create) {
+        Object value = live(key);
+        if (value == null && create) {
+            value = new ArrayDeque<String>();
+            data.put(key, value);
+        }
+        return (Deque<String>) value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<String> set(String key, boolean create) {
+        Object value = live(key);
+        if (value == null && create) {
+            value = new LinkedHashSet<String>();
+            data.put(key, value);
+        }
+        return (Set<String>) value;
+    }
+
+    private Object live(String key) {
+        Long deadline = expiry.get(key);
+        if (deadline != null && deadline <= System.currentTimeMillis()) {
+            data.remove(key);
+            expiry.remove(key);
+            return null;
+        }
+        return data.get(key);
+    }
+
+    private void expireIn(String key, long millis) {
+        expiry.put(key, System.currentTimeMillis() + millis);
+    }
+
+    private static int[] range(int size, long start, long stop) {
+        if (start < 0) {
+            start = Math.max(0, size + start);
+        }
+        if (stop < 0) {
+            stop = size + stop;
+        }
+        stop = Math.min(stop, size - 1);
+        if (start > stop) {
+            return new int[]{0, 0};
+        }
+        return new int[]{(int) start, (int) stop + 1};
+    }
+
+    private static List<String> readCommand(InputStream in) throws IOException {
+        int first = in.read();
+        if (first < 0) {
+            return null;
+        }
+        if (first != '*') {
+            // Inline command
+            String line = (char) first + readLine(in);
+            return new ArrayList<>(Arrays.asList(line.trim().split("\\s+")));
+        }
+        int count = Integer.parseInt(readLine(in));
+        List<String> parts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (in.read() != '$') {
+                throw new IOException("Protocol error");
+            }
+            int length = Integer.parseInt(readLine(in));
+            byte[] bytes = in.readNBytes(length);
+            in.readNBytes(2);
+            parts.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return parts;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\r') {
+            if (c < 0) {
+                throw new EOFException();
+            }
+            sb.append((char) c);
+        }
+        in.read(); // \n
+        return sb.toString();
+    }
+
+    private static void writeReply(OutputStream out, Object reply) throws IOException {
+        if (reply == null) {
+            out.write("$-1\r\n".getBytes(StandardCharsets.US_ASCII));
+        } else if (reply instanceof Status) {
+            out.write(("+" + ((Status) reply).text + "\r\n").getBytes(StandardCharsets.UTF_8));
+        } else if (reply instanceof Error) {
+            out.write(("-" + ((Error) reply).text + "\r\n").getBytes(StandardCharsets.UTF_8));
+        } else if (reply instanceof Long) {
+            out.write((":" + reply + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        } else if (reply instanceof String) {
+            byte[] bytes = ((String) reply).getBytes(StandardCharsets.UTF_8);
+            out.write(("$" + bytes.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(bytes);
+            out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+        } else if (reply instanceof List) {
+            List<?> list = (List<?>) reply;
+            out.write(("*" + list.size() + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            for (Object item : list) {
+                writeReply(out, item);
+            }
+        } else {
+            throw new IllegalStateException("Unsupported reply " + reply);
+        }
+    }
+
+    private static final class Status {
+        static final Status OK = new Status("OK");
+        final String text;
+
+        Status(String text) {
+            this.text = text;
+        }
+    }
+
+    private static final class Error {
+        final String text;
+
+        Error(String text) {
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.music.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * The traffic shapes we see in production. Every worker thread gets its own {@link Operation}
+ * and calls it in a loop until the scenario ends.
+ */
+public final class Scenarios {
+
+    private static final String[] KEYWORDS = {"night", "river", "aurora", "owls", "glass", "echo", "lumen", "velvet",
+            "nomatch-keyword"};
+
+    private Scenarios() {
+    }
+
+    public interface Operation {
+        /**
+         * @return bytes received, negative when the request failed
+         */
+        long call() throws Exception;
+    }
+
+    public interface Scenario {
+        String name();
+
+        Operation newWorker(Context ctx, Random random);
+    }
+
+    public static class Context {
+        final HttpClient client;
+        final String baseUrl;
+        final List<String> trackIds;
+        final List<String> usernames;
+        final List<String> tokens;
+        final int fileKb;
+        final int rangeKb;
+        final int uploadKb;
+
+        public Context(HttpClient client, String baseUrl, List<String> trackIds, List<String> usernames,
+                       List<String> tokens, int fileKb, int rangeKb, int uploadKb) {
+            this.client = client;
+            this.baseUrl = baseUrl;
+            this.trackIds = trackIds;
+            this.usernames = usernames;
+            this.tokens = tokens;
+            this.fileKb = fileKb;
+            this.rangeKb = rangeKb;
+            this.uploadKb = uploadKb;
+        }
+    }
+
+    public static Map<String, Scenario> all() {
+        return Map.of(
+                "login-storm", scenario("login-storm", Scenarios::loginStorm),
+                "browse", scenario("browse", Scenarios::browse),
+                "stream", scenario("stream", Scenarios::stream),
+                "upload-burst", scenario("upload-burst", Scenarios::uploadBurst));
+    }
+
+    public static String login(HttpClient client, String baseUrl, String username) throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(baseUrl + "/auth/login"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(
+                        "{\"username\":\"" + username + "\",\"password\":\"" + ServerUnderTest.PASSWORD + "\"}"))
+                .timeout(Duration.ofSeconds(30))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        String body = response.body();
+        int at = body.indexOf("\"token\":\"");
+        if (at < 0) {
+            throw new IOException("Login failed for " + username + ": " + body);
+        }
+        int start = at + 9;
+        return body.substring(start, body.indexOf('"', start));
+    }
+
+    private static Operation loginStorm(Context ctx, Random random) {
+        return () -> {
+            String username = ctx.usernames.get(random.nextInt(ctx.usernames.size()));
+            HttpResponse<String> response = ctx.client.send(HttpRequest.newBuilder(URI.create(ctx.baseUrl + "/auth/login"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(
+                            "{\"username\":\"" + username + "\",\"password\":\"" + ServerUnderTest.PASSWORD + "\"}"))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            return apiOk(response);
+        };
+    }
+
+    private static Operation browse(Context ctx, Random random) {
+        String token = ctx.tokens.get(random.nextInt(ctx.tokens.size()));
+        int pages = Math.max(1, ctx.trackIds.size() / 20);
+        return () -> {
+            String query;
+            if (random.nextBoolean()) {
+                query = "page=" + (1 + random.nextInt(pages)) + "&size=20";
+            } else {
+                String keyword = KEYWORDS[random.nextInt(KEYWORDS.length)];
+                query = "page=1&size=20&keyword=" + URLEncoder.encode(keyword, StandardCharsets.UTF_8);
+            }
+            HttpResponse<String> response = ctx.client.send(authorized(ctx.baseUrl + "/music/list?" + query, token)
+                    .GET().build(), HttpResponse.BodyHandlers.ofString());
+            return apiOk(response);
+        };
+    }
+
+    private static Operation stream(Context ctx, Random random) {
+        String token = ctx.tokens.get(random.nextInt(ctx.tokens.size()));
+        int chunks = Math.max(1, ctx.fileKb / ctx.rangeKb);
+        return () -> {
+            // Skewed towards the head of the catalog, like real popularity
+            int index = (int) Math.min(ctx.trackIds.size() - 1, Math.abs(random.nextGaussian()) * ctx.trackIds.size() / 8);
+            long start = random.nextInt(4) == 0 ? 0 : (long) random.nextInt(chunks) * ctx.rangeKb * 1024L;
+            long end = start + ctx.rangeKb * 1024L - 1;
+            HttpResponse<byte[]> response = ctx.client.send(
+                    authorized(ctx.baseUrl + "/music/stream/" + ctx.trackIds.get(index), token)
+                            .header("Range", "bytes=" + start + "-" + end)
+                            .GET().build(), HttpResponse.BodyHandlers.ofByteArray());
+            int status = response.statusCode();
+            return status == 206 || status == 200 ? response.body().length : -1;
+        };
+    }
+
+    private static Operation uploadBurst(Context ctx, Random random) {
+        String token = ctx.tokens.get(random.nextInt(ctx.tokens.size()));
+        byte[] audio = new byte[ctx.uploadKb * 1024];
+        random.nextBytes(audio);
+        return () -> {
+            String boundary = "----loadtest" + UUID.randomUUID();
+            ByteArrayOutputStream body = new ByteArrayOutputStream(audio.length + 512);
+            ServerUnderTest.writeBytes(body, "--" + boundary + "\r\n"
+                    + "Content-Disposition: form-data; name=\"file\"; filename=\"loadtest-" + random.nextInt(1 << 20) + ".mp3\"\r\n"
+                    + "Content-Type: audio/mpeg\r\n\r\n");
+            body.write(audio);
+            ServerUnderTest.writeBytes(body, "\r\n--" + boundary + "\r\n"
+                    + "Content-Disposition: form-data; name=\"artist\"\r\n\r\nLoad Test\r\n"
+                    + "--" + boundary + "--\r\n");
+            HttpResponse<String> response = ctx.client.send(authorized(ctx.baseUrl + "/music/upload", token)
+                    .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            return apiOk(response);
+        };
+    }
+
+    private static HttpRequest.Builder authorized(String url, String token) {
+        return HttpRequest.newBuilder(URI.create(url))
+                .header("Authorization", "Bearer " + token)
+                .timeout(Duration.ofSeconds(60));
+    }
+
+    private static long apiOk(HttpResponse<String> response) {
+        String body = response.body();
+        boolean ok = response.statusCode() == 200 && body != null && body.contains("\"code\":0");
+        return ok ? body.length() : -1;
+    }
+
+    private interface WorkerFactory {
+        Operation create(Context ctx, Random random);
+    }
+
+    private static Scenario scenario(String name, WorkerFactory factory) {
+        return new Scenario() {
+            @Override
+            public String name() {
+                return name;
+            }
+
+            @Override
+            public Operation newWorker(Context ctx, Random random) {
+                return factory.create(ctx, random);
+            }
+        };
+    }
+}
@@ -0,0 +1,167 @@
+package com.music.loadtest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a synthetic catalog and user file into a scratch base-path and runs the server jar against
+ * it and the Redis stand-in.
+ */
+public class ServerUnderTest implements Closeable {
+
+    public static final String PASSWORD = "loadtest-secret";
+    private static final String[] ARTISTS = {"Aurora Lane", "The Midnight Owls", "Kasper Veil", "Nova Ensemble",
+            "Juniper Fox", "Echo Harbor", "Lumen", "Static Bloom"};
+    private static final String[] WORDS = {"Night", "River", "Glass", "Summer", "Echo", "Gold", "Paper", "Signal",
+            "Ocean", "Ember", "Velvet", "Drift"};
+
+    private final Path basePath;
+    private final int port;
+    private final List<String> trackIds = new ArrayList<>();
+    private final List<String> usernames = new ArrayList<>();
+    private Process process;
+
+    public ServerUnderTest(Path basePath, int port) {
+        this.basePath = basePath;
+        this.port = port;
+    }
+
+    public String baseUrl() {
+        return "http://127.0.0.1:" + port + "/api/v1";
+    }
+
+    public List<String> trackIds() {
+        return trackIds;
+    }
+
+    public List<String> usernames() {
+        return usernames;
+    }
+
+    /**
+     * Tracks share a small pool of audio files so big catalogs don't need big disks.
+     */
+    public void writeCatalog(int tracks, int users, int distinctFiles, int fileKb, long seed) throws IOException {
+        Random random = new Random(seed);
+        Path files = Files.createDirectories(basePath.resolve("files"));
+        Files.createDirectories(basePath.resolve("covers"));
+        Path db = Files.createDirectories(basePath.resolve("db"));
+
+        List<Path> audio = new ArrayList<>();
+        byte[] content = new byte[fileKb * 1024];
+        for (int i = 0; i < distinctFiles; i++) {
+            random.nextBytes(content);
+            Path file = files.resolve(String.format("%08x-0000-4000-8000-%012d.mp3", i, i));
+            Files.write(file, content);
+            audio.add(file.toAbsolutePath());
+        }
+
+        try (Writer out = Files.newBufferedWriter(db.resolve("music_data.json"), StandardCharsets.UTF_8)) {
+            out.write("[");
+            for (int i = 0; i < tracks; i++) {
+                String id = String.format("%08x-%04x-4%03x-8%03x-%012x", random.nextInt(), i & 0xffff, i & 0xfff,
+                        random.nextInt(0x1000), (long) i);
+                trackIds.add(id);
+                String artist = ARTISTS[random.nextInt(ARTISTS.length)];
+                String album = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)];
+                String title = WORDS[random.nextInt(WORDS.length)] + " " + i;
+                if (i > 0) {
+                    out.write(",");
+                }
+                out.write("{\"id\":\"" + id + "\",\"title\":\"" + title + "\",\"artist\":\"" + artist
+                        + "\",\"album\":\"" + album + "\",\"filePath\":\"" + audio.get(i % audio.size())
+                        + "\",\"duration\":" + (120 + random.nextInt(300)) + ",\"format\":\"mp3\",\"createTime\":"
+                        + (1700000000000L + i) + "}");
+            }
+            out.write("]");
+        }
+
+        try (Writer out = Files.newBufferedWriter(db.resolve("user_data.json"), StandardCharsets.UTF_8)) {
+            out.write("[");
+            for (int i = 0; i < users; i++) {
+                String username = "loadtest-" + i;
+                usernames.add(username);
+                if (i > 0) {
+                    out.write(",");
+                }
+                out.write("{\"id\":\"user-" + i + "\",\"username\":\"" + username + "\",\"password\":\"" + PASSWORD
+                        + "\",\"roles\":[\"ROLE_USER\"]}");
+            }
+            out.write("]");
+        }
+    }
+
+    public void start(Path jar, int redisPort, List<String> jvmArgs, Path log) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmArgs);
+        command.add("-jar");
+        command.add(jar.toString());
+        command.add("--server.port=" + port);
+        command.add("--spring.data.redis.host=127.0.0.1");
+        command.add("--spring.data.redis.port=" + redisPort);
+        command.add("--spring.data.redis.password=");
+        command.add("--app.music.base-path=" + basePath.toAbsolutePath());
+        command.add("--app.scrub.enabled=false");
+        command.add("--logging.level.com.music.server=WARN");
+        process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile())
+                .start();
+    }
+
+    public void awaitReady(Duration timeout) throws IOException, InterruptedException {
+        HttpClient client = HttpClient.newHttpClient();
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (System.nanoTime() < deadline) {
+            if (!process.isAlive()) {
+                throw new IOException("Server exited with " + process.exitValue());
+            }
+            try {
+                HttpResponse<Void> response = client.send(HttpRequest.newBuilder(URI.create(baseUrl() + "/health/ready"))
+                        .timeout(Duration.ofSeconds(2)).build(), HttpResponse.BodyHandlers.discarding());
+                if (response.statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // not listening yet
+            }
+            Thread.sleep(250);
+        }
+        throw new IOException("Server not ready after " + timeout);
+    }
+
+    @Override
+    public void close() {
+        if (process == null) {
+            return;
+        }
+        process.destroy();
+        try {
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static void writeBytes(OutputStream out, String s) throws IOException {
+        out.write(s.getBytes(StandardCharsets.UTF_8));
+    }
+}
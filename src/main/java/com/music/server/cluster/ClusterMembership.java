@@ -0,0 +1,178 @@
+package com.music.server.cluster;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static com.music.server.constants.RedisKeyConstant.CLUSTER_NODES;
+
+/**
+ * Which nodes are alive, and from that which of them own a track. Every node writes a heartbeat into
+ * the CLUSTER_NODES hash in the shared Redis and reads the others back; a node whose heartbeat is older
+ * than node-ttl-ms is dropped by whoever sees it first. Heartbeats carry the writer's wall clock, so the
+ * nodes' clocks need to agree to well within the TTL.
+ * <p>
+ * Disabled by default, a single node then owns everything and none of this touches Redis.
+ */
+@Slf4j
+@Service
+public class ClusterMembership {
+
+    private final StringRedisTemplate redisTemplate;
+
+    @Value("${app.cluster.enabled}")
+    private boolean enabled;
+
+    @Value("${app.cluster.node-id:}")
+    private String nodeId;
+
+    @Value("${app.cluster.advertise-url}")
+    private String advertiseUrl;
+
+    @Value("${app.cluster.secret:}")
+    private String secret;
+
+    @Value("${app.cluster.replicas}")
+    private int replicas;
+
+    @Value("${app.cluster.virtual-nodes}")
+    private int virtualNodes;
+
+    @Value("${app.cluster.node-ttl-ms}")
+    private long nodeTtlMs;
+
+    // node id -> base url, always contains this node
+    private volatile Map<String, String> members = Map.of();
+    private volatile HashRing ring;
+    private volatile long changedAt;
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    public ClusterMembership(StringRedisTemplate redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    @PostConstruct
+    public void init() {
+        advertiseUrl = advertiseUrl.replaceAll("/+$", "");
+        if (!StringUtils.hasText(nodeId)) {
+            nodeId = advertiseUrl.replaceFirst("^https?://", "").replaceFirst("/.*$", "");
+        }
+        if (enabled && !StringUtils.hasText(secret)) {
+            throw new IllegalStateException("app.cluster.secret must be set when app.cluster.enabled is true");
+        }
+        members = Map.of(nodeId, advertiseUrl);
+        ring = new HashRing(members.keySet(), virtualNodes);
+        if (enabled) {
+            log.info("Cluster node {} at {}, {} replicas", nodeId, advertiseUrl, replicas);
+        }
+    }
+
+    // Before @PreDestroy, by then the Redis connection is already stopped
+    @EventListener(ContextClosedEvent.class)
+    public void leave() {
+        if (!enabled) {
+            return;
+        }
+        // Let the others rebalance now instead of after the TTL
+        try {
+            redisTemplate.opsForHash().delete(CLUSTER_NODES, nodeId);
+        } catch (Exception e) {
+            log.warn("Failed to leave cluster: {}", e.getMessage());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.cluster.heartbeat-interval-ms}")
+    public void heartbeat() {
+        if (!enabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Map<String, String> live = new TreeMap<>();
+        try {
+            redisTemplate.opsForHash().put(CLUSTER_NODES, nodeId, advertiseUrl + "|" + now);
+            for (Map.Entry<Object, Object> e : redisTemplate.opsForHash().entries(CLUSTER_NODES).entrySet()) {
+                String id = (String) e.getKey();
+                String value = (String) e.getValue();
+                int sep = value.lastIndexOf('|');
+                long seen = sep < 0 ? 0 : Long.parseLong(value.substring(sep + 1));
+                if (now - seen > nodeTtlMs) {
+                    redisTemplate.opsForHash().delete(CLUSTER_NODES, id);
+                    log.info("Cluster node {} missed its heartbeat, dropped", id);
+                } else {
+                    live.put(id, value.substring(0, sep));
+                }
+            }
+        } catch (Exception e) {
+            // Keep the last known ring rather than fall back to owning everything
+            log.warn("Cluster heartbeat failed: {}", e.getMessage());
+            return;
+        }
+        live.put(nodeId, advertiseUrl);
+        if (!live.equals(members)) {
+            log.info("Cluster members changed: {} -> {}", members.keySet(), live.keySet());
+            members = Collections.unmodifiableMap(live);
+            ring = new HashRing(live.keySet(), virtualNodes);
+            changedAt = now;
+            listeners.forEach(Runnable::run);
+        }
+    }
+
+    /**
+     * Called on this node's scheduler thread whenever the member set changes.
+     */
+    public void onChange(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public String getSecret() {
+        return secret;
+    }
+
+    public Map<String, String> members() {
+        return members;
+    }
+
+    /**
+     * Nodes that should hold the track's file, primary first. Just this node when clustering is off.
+     */
+    public List<String> owners(String trackId) {
+        return ring.owners(trackId, replicas);
+    }
+
+    public boolean isOwner(String trackId) {
+        return owners(trackId).contains(nodeId);
+    }
+
+    public String urlOf(String node) {
+        return members.get(node);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("node_id", nodeId);
+        stats.put("advertise_url", advertiseUrl);
+        stats.put("replicas", replicas);
+        stats.put("virtual_nodes", virtualNodes);
+        stats.put("members", members);
+        stats.put("members_changed_at", changedAt);
+        return stats;
+    }
+}
@@ -0,0 +1,149 @@
+package com.music.server.cluster;
+
+import com.music.server.config.RequestTrace;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends a stream or cover request for a file this node doesn't hold to a node that owns it, either
+ * proxied (the default, clients see one server) or as a 307 redirect (saves this node the bandwidth,
+ * but the client has to resend its Authorization header to the other node).
+ * <p>
+ * A forwarded request is marked so the receiving node answers from its own disk and never forwards
+ * again, even if the ring has moved on in between.
+ */
+@Slf4j
+@Service
+public class ClusterRouter {
+
+    public static final String HOP_HEADER = "X-Cluster-Hop";
+    public static final String HOP_PARAM = "cluster-hop";
+
+    // Hop-by-hop and length headers are handled by the servlet container
+    private static final List<String> REQUEST_HEADERS = List.of("Authorization", "Range", "If-Range",
+            "If-None-Match", "If-Modified-Since");
+    private static final List<String> RESPONSE_HEADERS = List.of("Content-Type", "Content-Length", "Content-Range",
+            "Accept-Ranges", "ETag", "Last-Modified", "Cache-Control");
+
+    private final ClusterMembership membership;
+
+    @Value("${app.cluster.stream-mode}")
+    private String streamMode;
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+
+    private final LongAdder proxied = new LongAdder();
+    private final LongAdder redirected = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    public ClusterRouter(ClusterMembership membership) {
+        this.membership = membership;
+    }
+
+    /**
+     * Answer the request from an owner of the track.
+     *
+     * @return false if there is nowhere to send it, the response is untouched then
+     */
+    public boolean forward(String id, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (!membership.isEnabled() || request.getHeader(HOP_HEADER) != null || request.getParameter(HOP_PARAM) != null) {
+            return false;
+        }
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        String query = request.getQueryString();
+        for (String owner : membership.owners(id)) {
+            String base = membership.urlOf(owner);
+            if (owner.equals(membership.getNodeId()) || base == null) {
+                continue;
+            }
+            if ("redirect".equalsIgnoreCase(streamMode)) {
+                response.setStatus(HttpServletResponse.SC_TEMPORARY_REDIRECT);
+                response.setHeader("Location", base + path + "?" + (query == null ? "" : query + "&") + HOP_PARAM + "=1");
+                redirected.increment();
+                return true;
+            }
+            if (proxy(base + path + (query == null ? "" : "?" + query), request, response)) {
+                proxied.increment();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("stream_mode", streamMode);
+        stats.put("proxied", proxied.sum());
+        stats.put("redirected", redirected.sum());
+        stats.put("proxy_failures", failures.sum());
+        return stats;
+    }
+
+    // False if the owner can't be reached, doesn't have the file or fails, so the next owner can be tried
+    private boolean proxy(String url, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofSeconds(30))
+                .header(HOP_HEADER, membership.getNodeId())
+                .GET();
+        for (String name : REQUEST_HEADERS) {
+            String value = request.getHeader(name);
+            if (value != null) {
+                builder.header(name, value);
+            }
+        }
+        HttpResponse<InputStream> upstream;
+        try {
+            upstream = client.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (IOException e) {
+            log.warn("Proxy to {} failed: {}", url, e.getMessage());
+            failures.increment();
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        try (InputStream body = upstream.body()) {
+            int status = upstream.statusCode();
+            if (status == HttpServletResponse.SC_NOT_FOUND || status >= 500) {
+                if (status >= 500) {
+                    log.warn("Proxy to {} failed: HTTP {}", url, status);
+                    failures.increment();
+                }
+                return false;
+            }
+            response.setStatus(status);
+            for (String name : RESPONSE_HEADERS) {
+                upstream.headers().firstValue(name).ifPresent(value -> response.setHeader(name, value));
+            }
+            try (RequestTrace.Span ignored = RequestTrace.start(RequestTrace.Stage.FILE, "proxy")) {
+                OutputStream out = response.getOutputStream();
+                body.transferTo(out);
+                out.flush();
+            } catch (IOException e) {
+                // Headers are out, too late for another owner; the client sees a cut-off body
+                log.warn("Proxy to {} broke off mid-body: {}", url, e.getMessage());
+                failures.increment();
+                throw e;
+            }
+        }
+        return true;
+    }
+}
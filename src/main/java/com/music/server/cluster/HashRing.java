@@ -0,0 +1,53 @@
+package com.music.server.cluster;
+
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Consistent-hash ring of node ids with virtual nodes. A node joining or leaving only moves the keys
+ * next to its points, about 1/N of them. Immutable, membership changes build a new ring.
+ */
+public class HashRing {
+
+    private final TreeMap<Long, String> points = new TreeMap<>();
+    private final int nodeCount;
+
+    public HashRing(Collection<String> nodeIds, int virtualNodes) {
+        Set<String> distinct = new TreeSet<>(nodeIds);
+        for (String nodeId : distinct) {
+            for (int i = 0; i < virtualNodes; i++) {
+                points.put(hash(nodeId + "#" + i), nodeId);
+            }
+        }
+        this.nodeCount = distinct.size();
+    }
+
+    /**
+     * First n distinct nodes clockwise from the key, the primary owner first.
+     */
+    public List<String> owners(String key, int n) {
+        int wanted = Math.min(n, nodeCount);
+        List<String> owners = new ArrayList<>(wanted);
+        if (wanted == 0) {
+            return owners;
+        }
+        long h = hash(key);
+        for (Map<Long, String> part : List.of(points.tailMap(h, true), points.headMap(h, false))) {
+            for (String nodeId : part.values()) {
+                if (!owners.contains(nodeId)) {
+                    owners.add(nodeId);
+                    if (owners.size() == wanted) {
+                        return owners;
+                    }
+                }
+            }
+        }
+        return owners;
+    }
+
+    private static long hash(String value) {
+        return Hashing.murmur3_128().hashString(value, StandardCharsets.UTF_8).asLong();
+    }
+}
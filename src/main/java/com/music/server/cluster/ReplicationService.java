@@ -0,0 +1,796 @@
+package com.music.server.cluster;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.music.server.config.WriterLease;
+import com.music.server.model.BatchMusicRequest;
+import com.music.server.model.Music;
+import com.music.server.repository.MusicRepository;
+import com.music.server.service.HeadCacheService;
+import com.music.server.service.MusicBatchService;
+import com.music.server.storage.MusicStorage;
+import com.music.server.utils.ChecksumUtil;
+import com.music.server.utils.WaveformPeaks;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import org.springframework.web.util.UriUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps each file on the nodes that own it. A new upload is pushed to its other owners right away and
+ * its record to every other node, so any node can list the whole catalog. After a membership change
+ * (and every rebalance-interval-ms, to repair failed pushes) each node walks the files it holds, asks
+ * the owners in batches what they already have and sends what is missing.
+ * <p>
+ * Copies a node no longer owns are kept unless drop-unowned is set, and then only once every owner has
+ * confirmed the file.
+ * <p>
+ * Deletes leave a tombstone for tombstone-ttl-days. It is sent to the other nodes right away and again
+ * on every rebalance, and pushes of a tombstoned track are refused, so a node that missed the delete
+ * can't bring the track back. Batch metadata edits go out to every node the same way, without the
+ * files. Each carries its edit time and the later edit wins, so a rebalance can send a record again
+ * to a node that missed the edit without undoing a newer one made there.
+ */
+@Slf4j
+@Service
+public class ReplicationService {
+
+    public static final String SECRET_HEADER = "X-Cluster-Secret";
+    public static final String META_HEADER = "X-Cluster-Meta";
+
+    private static final String INTERNAL_PATH = "/cluster/internal";
+    private static final Pattern EXTENSION = Pattern.compile("[a-z0-9]{1,5}");
+    private static final int INVENTORY_BATCH = 500;
+
+    private final ClusterMembership membership;
+    private final MusicRepository musicRepository;
+    private final MusicStorage musicStorage;
+    private final ObjectMapper objectMapper;
+    private final MusicBatchService musicBatchService;
+    private final HeadCacheService headCacheService;
+    private final WriterLease writerLease;
+
+    @Value("${app.cluster.rebalance-delay-ms}")
+    private long rebalanceDelayMs;
+
+    @Value("${app.cluster.drop-unowned}")
+    private boolean dropUnowned;
+
+    @Value("${app.cluster.tombstones-file}")
+    private String tombstonesFile;
+
+    @Value("${app.cluster.tombstone-ttl-days}")
+    private long tombstoneTtlDays;
+
+    // Deleted track id -> deleted at millis
+    private final Map<String, Long> tombstones = new ConcurrentHashMap<>();
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+
+    private final ExecutorService pushes;
+    private final ScheduledExecutorService rebalancer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "cluster-rebalance");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean rebalancePending = new AtomicBoolean();
+
+    private final LongAdder filesPushed = new LongAdder();
+    private final LongAdder recordsPushed = new LongAdder();
+    private final LongAdder pushFailures = new LongAdder();
+    private final LongAdder filesReceived = new LongAdder();
+    private final LongAdder recordsReceived = new LongAdder();
+    private final LongAdder filesDropped = new LongAdder();
+    private final LongAdder deletesPushed = new LongAdder();
+    private final LongAdder deletesReceived = new LongAdder();
+    private final LongAdder rebalances = new LongAdder();
+    private final AtomicLong lastRebalanceAt = new AtomicLong();
+    private final AtomicLong lastRebalanceMs = new AtomicLong();
+
+    public ReplicationService(ClusterMembership membership, MusicRepository musicRepository, MusicStorage musicStorage,
+                              ObjectMapper objectMapper, MusicBatchService musicBatchService,
+                              HeadCacheService headCacheService, WriterLease writerLease,
+                              @Value("${app.cluster.replication-threads}") int threads) {
+        this.membership = membership;
+        this.musicRepository = musicRepository;
+        this.musicStorage = musicStorage;
+        this.objectMapper = objectMapper;
+        this.musicBatchService = musicBatchService;
+        this.headCacheService = headCacheService;
+        this.writerLease = writerLease;
+        this.pushes = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "cluster-replication");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PostConstruct
+    public void init() {
+        loadTombstones();
+        writerLease.onAcquired("cluster-tombstones", this::loadTombstones);
+        membership.onChange(this::scheduleRebalance);
+        musicRepository.onDelete(this::deleted);
+        musicBatchService.onUpdate(this::edited);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        rebalancer.shutdownNow();
+        pushes.shutdownNow();
+    }
+
+    @Scheduled(fixedDelayString = "${app.cluster.rebalance-interval-ms}", initialDelayString = "${app.cluster.rebalance-interval-ms}")
+    public void periodicRebalance() {
+        if (membership.isEnabled()) {
+            scheduleRebalance();
+        }
+    }
+
+    /**
+     * Runs after rebalance-delay-ms so nodes starting together cause one pass, not one each.
+     */
+    public void scheduleRebalance() {
+        if (rebalancePending.compareAndSet(false, true)) {
+            rebalancer.schedule(() -> {
+                rebalancePending.set(false);
+                try {
+                    rebalance();
+                } catch (Exception e) {
+                    log.error("Rebalance failed", e);
+                }
+            }, rebalanceDelayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Send a freshly ingested track to the other nodes, without holding up the upload.
+     */
+    public void replicateAsync(Music music) {
+        if (!membership.isEnabled() || membership.members().size() < 2) {
+            return;
+        }
+        Music snapshot = new Music();
+        BeanUtils.copyProperties(music, snapshot);
+        pushes.execute(() -> {
+            File audio = musicStorage.locate(snapshot.getFilePath());
+            List<String> owners = membership.owners(snapshot.getId());
+            for (String node : membership.members().keySet()) {
+                if (node.equals(membership.getNodeId())) {
+                    continue;
+                }
+                if (owners.contains(node) && audio != null) {
+                    pushFile(node, snapshot, audio);
+                } else {
+                    pushRecord(node, snapshot);
+                }
+            }
+        });
+    }
+
+    /**
+     * Delete tracks another node deleted, and remember them so they aren't pushed back.
+     *
+     * @return how many of them this node still had
+     */
+    public int receiveDeletes(List<String> ids) {
+        long now = System.currentTimeMillis();
+        for (String id : ids) {
+            tombstones.putIfAbsent(id, now);
+        }
+        saveTombstones();
+        // Tombstoned before deleting, so the delete listener doesn't send them on again
+        List<String> present = ids.stream().filter(id -> musicRepository.findById(id).isPresent()).toList();
+        if (!present.isEmpty()) {
+            musicBatchService.delete(new BatchMusicRequest(present, null, null));
+            deletesReceived.add(present.size());
+        }
+        return present.size();
+    }
+
+    /**
+     * Take metadata edits made on another node. Local paths are kept, deleted tracks are skipped.
+     *
+     * @return how many records were stored
+     */
+    public int receiveRecords(List<Music> incoming) {
+        List<Music> records = new ArrayList<>();
+        for (Music music : incoming) {
+            if (music.getId() == null) {
+                throw new IllegalArgumentException("Record without id");
+            }
+            if (!tombstones.containsKey(music.getId())) {
+                records.add(merge(music));
+            }
+        }
+        if (!records.isEmpty()) {
+            musicRepository.saveAll(records);
+            recordsReceived.add(records.size());
+        }
+        return records.size();
+    }
+
+    /**
+     * What this node has for the given ids: records, the edit time of edited ones, and audio checksums
+     * for the files it holds ("" when the file has no checksum).
+     */
+    public Inventory inventory(List<String> ids) {
+        Inventory inventory = new Inventory();
+        for (String id : ids) {
+            musicRepository.findById(id).ifPresent(music -> {
+                inventory.getRecords().add(id);
+                if (music.getEditedAt() != null) {
+                    inventory.getEdited().put(id, music.getEditedAt());
+                }
+                if (music.getFilePath() != null && musicStorage.locate(music.getFilePath()) != null) {
+                    inventory.getFiles().put(id, music.getChecksum() == null ? "" : music.getChecksum());
+                }
+            });
+        }
+        return inventory;
+    }
+
+    /**
+     * Store a pushed audio file and its record. The body is checked against the sender's checksum
+     * before it replaces anything.
+     */
+    public Music receiveFile(String id, String meta, InputStream body) throws IOException {
+        checkNotDeleted(id);
+        Music incoming = decodeMeta(meta);
+        if (!id.equals(incoming.getId())) {
+            throw new IllegalArgumentException("Record id does not match " + id);
+        }
+        String extension = incoming.getFormat() == null ? "" : incoming.getFormat().toLowerCase();
+        if (!EXTENSION.matcher(extension).matches()) {
+            throw new IllegalArgumentException("Bad format: " + incoming.getFormat());
+        }
+        Path target = musicStorage.newAudioPath(id, extension);
+        String checksum = receive(body, target, incoming.getChecksum());
+        // Peaks and cached head of the audio this replaced, the peaks are recomputed on the next request
+        Files.deleteIfExists(WaveformPeaks.sidecar(target));
+        // Every other copy holds the old audio: the previous primary, disk replicas, and same-named files
+        // on other disks that reads of the new path would pick from
+        Set<File> stale = new LinkedHashSet<>(musicStorage.locateAll(target.toAbsolutePath().toString()));
+        musicRepository.findById(id).ifPresent(existing -> stale.addAll(musicStorage.locateAll(existing.getFilePath())));
+        for (File audio : stale) {
+            WaveformPeaks.sidecar(audio.toPath()).toFile().delete();
+            if (!Files.isSameFile(audio.toPath(), target) && !audio.delete()) {
+                log.warn("Failed to delete replaced copy {}", audio);
+            }
+        }
+        headCacheService.invalidate(id);
+
+        Music record = merge(incoming);
+        record.setFilePath(target.toAbsolutePath().toString());
+        record.setChecksum(checksum);
+        musicRepository.save(record);
+        filesReceived.increment();
+        return record;
+    }
+
+    public Music receiveCover(String id, String extension, InputStream body) throws IOException {
+        checkNotDeleted(id);
+        Music existing = musicRepository.findById(id)
+                .orElseThrow(() -> new NoSuchElementException("Music not found: " + id));
+        if (!EXTENSION.matcher(extension).matches()) {
+            throw new IllegalArgumentException("Bad extension: " + extension);
+        }
+        Path target = musicStorage.newCoverPath(id, extension);
+        receive(body, target, null);
+
+        Music record = new Music();
+        BeanUtils.copyProperties(existing, record);
+        record.setCoverPath(target.toAbsolutePath().toString());
+        musicRepository.save(record);
+        return record;
+    }
+
+    /**
+     * Store a pushed record for a track this node does not hold the file of. Local paths are kept.
+     */
+    public Music receiveRecord(String id, Music incoming) {
+        if (!id.equals(incoming.getId())) {
+            throw new IllegalArgumentException("Record id does not match " + id);
+        }
+        checkNotDeleted(id);
+        Music record = merge(incoming);
+        musicRepository.save(record);
+        recordsReceived.increment();
+        return record;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("files_pushed", filesPushed.sum());
+        stats.put("records_pushed", recordsPushed.sum());
+        stats.put("push_failures", pushFailures.sum());
+        stats.put("files_received", filesReceived.sum());
+        stats.put("records_received", recordsReceived.sum());
+        stats.put("files_dropped", filesDropped.sum());
+        stats.put("tombstones", tombstones.size());
+        stats.put("deletes_pushed", deletesPushed.sum());
+        stats.put("deletes_received", deletesReceived.sum());
+        stats.put("drop_unowned", dropUnowned);
+        stats.put("rebalances", rebalances.sum());
+        stats.put("rebalance_pending", rebalancePending.get());
+        stats.put("last_rebalance_at", lastRebalanceAt.get());
+        stats.put("last_rebalance_ms", lastRebalanceMs.get());
+        return stats;
+    }
+
+    private void rebalance() {
+        // Dropping copies off a stale catalog could delete files the writer just received
+        if (!membership.isEnabled() || !writerLease.isHeld()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        String self = membership.getNodeId();
+        Map<String, String> members = membership.members();
+        pruneTombstones();
+        // Repeated every pass for nodes that were away when the delete happened
+        List<String> deleted = new ArrayList<>(tombstones.keySet());
+        for (String node : members.keySet()) {
+            if (!node.equals(self)) {
+                for (int from = 0; from < deleted.size(); from += INVENTORY_BATCH) {
+                    pushDeletes(node, deleted.subList(from, Math.min(from + INVENTORY_BATCH, deleted.size())));
+                }
+            }
+        }
+        List<Music> held = new ArrayList<>();
+        // Edited records this node holds no file of, only checked for missed edits
+        List<Music> edited = new ArrayList<>();
+        for (Music music : musicRepository.findAll()) {
+            if (tombstones.containsKey(music.getId())) {
+                continue;
+            }
+            if (music.getFilePath() != null && musicStorage.locate(music.getFilePath()) != null) {
+                held.add(music);
+            } else if (music.getEditedAt() != null) {
+                edited.add(music);
+            }
+        }
+        int pushedFiles = 0;
+        int pushedRecords = 0;
+        for (int from = 0; from < held.size(); from += INVENTORY_BATCH) {
+            List<Music> batch = held.subList(from, Math.min(from + INVENTORY_BATCH, held.size()));
+            List<String> ids = batch.stream().map(Music::getId).toList();
+            // Tracks this node doesn't own and every owner is known to have
+            Set<String> droppable = new HashSet<>(ids);
+            for (String node : members.keySet()) {
+                if (node.equals(self)) {
+                    continue;
+                }
+                Inventory remote = fetchInventory(node, ids);
+                if (remote == null) {
+                    batch.forEach(m -> {
+                        if (membership.owners(m.getId()).contains(node)) {
+                            droppable.remove(m.getId());
+                        }
+                    });
+                    continue;
+                }
+                for (Music music : batch) {
+                    boolean owner = membership.owners(music.getId()).contains(node);
+                    String checksum = remote.getFiles().get(music.getId());
+                    if (owner && (checksum == null || stale(checksum, music))) {
+                        File audio = musicStorage.locate(music.getFilePath());
+                        if (audio != null && pushFile(node, music, audio)) {
+                            pushedFiles++;
+                        } else {
+                            droppable.remove(music.getId());
+                        }
+                    } else if (!remote.getRecords().contains(music.getId()) || missedEdit(music, remote)) {
+                        if (pushRecord(node, music)) {
+                            pushedRecords++;
+                        }
+                    }
+                }
+            }
+            if (dropUnowned) {
+                for (Music music : batch) {
+                    if (droppable.contains(music.getId()) && !membership.owners(music.getId()).contains(self)) {
+                        dropLocal(music);
+                    }
+                }
+            }
+        }
+        for (int from = 0; from < edited.size(); from += INVENTORY_BATCH) {
+            List<Music> batch = edited.subList(from, Math.min(from + INVENTORY_BATCH, edited.size()));
+            List<String> ids = batch.stream().map(Music::getId).toList();
+            for (String node : members.keySet()) {
+                Inventory remote = node.equals(self) ? null : fetchInventory(node, ids);
+                if (remote == null) {
+                    continue;
+                }
+                List<Music> missed = batch.stream()
+                        .filter(m -> remote.getRecords().contains(m.getId()) && missedEdit(m, remote))
+                        .map(ReplicationService::portable)
+                        .toList();
+                if (!missed.isEmpty() && pushRecords(node, missed)) {
+                    pushedRecords += missed.size();
+                }
+            }
+        }
+        long took = System.currentTimeMillis() - start;
+        rebalances.increment();
+        lastRebalanceAt.set(start);
+        lastRebalanceMs.set(took);
+        log.info("Rebalance over {} nodes: {} local files, pushed {} files and {} records in {} ms",
+                members.size(), held.size(), pushedFiles, pushedRecords, took);
+    }
+
+    // Local deletes (batch delete, or one received from another node) go out to the other nodes
+    private void deleted(List<Music> deleted) {
+        if (!membership.isEnabled()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        List<String> fresh = new ArrayList<>();
+        for (Music music : deleted) {
+            if (tombstones.putIfAbsent(music.getId(), now) == null) {
+                fresh.add(music.getId());
+            }
+        }
+        if (fresh.isEmpty()) {
+            return;
+        }
+        saveTombstones();
+        pushes.execute(() -> {
+            for (String node : membership.members().keySet()) {
+                if (node.equals(membership.getNodeId())) {
+                    continue;
+                }
+                for (int from = 0; from < fresh.size(); from += INVENTORY_BATCH) {
+                    pushDeletes(node, fresh.subList(from, Math.min(from + INVENTORY_BATCH, fresh.size())));
+                }
+            }
+        });
+    }
+
+    // Batch metadata edits go out to the other nodes, a rebalance repeats them for nodes that missed them
+    private void edited(List<Music> updated) {
+        if (!membership.isEnabled()) {
+            return;
+        }
+        List<Music> records = updated.stream().map(ReplicationService::portable).toList();
+        pushes.execute(() -> {
+            for (String node : membership.members().keySet()) {
+                if (node.equals(membership.getNodeId())) {
+                    continue;
+                }
+                for (int from = 0; from < records.size(); from += INVENTORY_BATCH) {
+                    pushRecords(node, records.subList(from, Math.min(from + INVENTORY_BATCH, records.size())));
+                }
+            }
+        });
+    }
+
+    private static boolean missedEdit(Music music, Inventory remote) {
+        Long theirs = remote.getEdited().get(music.getId());
+        return music.getEditedAt() != null && (theirs == null || theirs < music.getEditedAt());
+    }
+
+    private void checkNotDeleted(String id) {
+        if (tombstones.containsKey(id)) {
+            throw new IllegalStateException("Track " + id + " was deleted");
+        }
+    }
+
+    private void pruneTombstones() {
+        long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(tombstoneTtlDays);
+        if (tombstones.values().removeIf(deletedAt -> deletedAt < cutoff)) {
+            saveTombstones();
+        }
+    }
+
+    private void loadTombstones() {
+        File file = new File(tombstonesFile);
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            tombstones.putAll(objectMapper.readValue(file, new TypeReference<Map<String, Long>>() {}));
+        } catch (IOException e) {
+            log.error("Failed to load cluster tombstones, deleted tracks may come back from other nodes", e);
+        }
+    }
+
+    // A process killed mid-write leaves the previous file
+    private synchronized void saveTombstones() {
+        if (!writerLease.isHeld()) {
+            return;
+        }
+        Path target = Path.of(tombstonesFile);
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(target.getParent());
+            objectMapper.writeValue(tmp.toFile(), new HashMap<>(tombstones));
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("Failed to save cluster tombstones", e);
+        }
+    }
+
+    // The copy there differs from ours and we know what ours should be
+    private static boolean stale(String remoteChecksum, Music music) {
+        return StringUtils.hasText(remoteChecksum) && StringUtils.hasText(music.getChecksum())
+                && !remoteChecksum.equals(music.getChecksum());
+    }
+
+    private void dropLocal(Music music) {
+        Music record = new Music();
+        BeanUtils.copyProperties(music, record);
+        String audioPath = record.getFilePath();
+        String coverPath = record.getCoverPath();
+        record.setFilePath(null);
+        record.setCoverPath(null);
+        musicRepository.save(record);
+        List<File> files = new ArrayList<>();
+        for (File audio : musicStorage.locateAll(audioPath)) {
+            WaveformPeaks.sidecar(audio.toPath()).toFile().delete();
+            files.add(audio);
+        }
+        File cover = musicStorage.locate(coverPath);
+        if (cover != null) {
+            files.add(cover);
+        }
+        for (File file : files) {
+            if (!file.delete()) {
+                log.warn("Failed to delete unowned copy {}", file);
+            }
+        }
+        filesDropped.increment();
+    }
+
+    private Inventory fetchInventory(String node, List<String> ids) {
+        String base = membership.urlOf(node);
+        if (base == null) {
+            return null;
+        }
+        try {
+            HttpRequest request = internal(base + INTERNAL_PATH + "/inventory", Duration.ofSeconds(30))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(ids)))
+                    .build();
+            HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            if (response.statusCode() != 200) {
+                log.warn("Inventory from {} failed: HTTP {}", node, response.statusCode());
+                return null;
+            }
+            return objectMapper.readValue(response.body(), Inventory.class);
+        } catch (IOException e) {
+            log.warn("Inventory from {} failed: {}", node, e.getMessage());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private boolean pushFile(String node, Music music, File audio) {
+        String base = membership.urlOf(node);
+        if (base == null) {
+            return false;
+        }
+        String url = base + INTERNAL_PATH + "/replicas/" + UriUtils.encodePathSegment(music.getId(), StandardCharsets.UTF_8);
+        Music meta = portable(music);
+        if (meta.getFormat() == null) {
+            // Older imports have no format, the receiver needs it for the file name
+            String name = audio.getName();
+            meta.setFormat(name.substring(name.lastIndexOf('.') + 1));
+        }
+        try {
+            boolean ok = send(node, internal(url, Duration.ofMinutes(10))
+                    .header(META_HEADER, encodeMeta(meta))
+                    .header("Content-Type", "application/octet-stream")
+                    .PUT(HttpRequest.BodyPublishers.ofFile(audio.toPath()))
+                    .build());
+            File cover = music.getCoverPath() == null ? null : musicStorage.locate(music.getCoverPath());
+            if (ok && cover != null) {
+                String name = cover.getName();
+                String extension = name.substring(name.lastIndexOf('.') + 1).toLowerCase();
+                ok = send(node, internal(url + "/cover?ext=" + extension, Duration.ofMinutes(1))
+                        .header("Content-Type", "application/octet-stream")
+                        .PUT(HttpRequest.BodyPublishers.ofFile(cover.toPath()))
+                        .build());
+            }
+            if (ok) {
+                filesPushed.increment();
+            }
+            return ok;
+        } catch (IOException e) {
+            log.warn("Failed to read {} for replication: {}", audio, e.getMessage());
+            pushFailures.increment();
+            return false;
+        }
+    }
+
+    private boolean pushRecord(String node, Music music) {
+        String base = membership.urlOf(node);
+        if (base == null) {
+            return false;
+        }
+        try {
+            boolean ok = send(node, internal(base + INTERNAL_PATH + "/records/"
+                    + UriUtils.encodePathSegment(music.getId(), StandardCharsets.UTF_8), Duration.ofSeconds(30))
+                    .header("Content-Type", "application/json")
+                    .PUT(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(portable(music))))
+                    .build());
+            if (ok) {
+                recordsPushed.increment();
+            }
+            return ok;
+        } catch (IOException e) {
+            pushFailures.increment();
+            return false;
+        }
+    }
+
+    private boolean pushRecords(String node, List<Music> records) {
+        String base = membership.urlOf(node);
+        if (base == null) {
+            return false;
+        }
+        try {
+            boolean ok = send(node, internal(base + INTERNAL_PATH + "/records", Duration.ofSeconds(30))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(records)))
+                    .build());
+            if (ok) {
+                recordsPushed.add(records.size());
+            }
+            return ok;
+        } catch (IOException e) {
+            pushFailures.increment();
+            return false;
+        }
+    }
+
+    private boolean pushDeletes(String node, List<String> ids) {
+        String base = membership.urlOf(node);
+        if (base == null) {
+            return false;
+        }
+        try {
+            boolean ok = send(node, internal(base + INTERNAL_PATH + "/deletes", Duration.ofSeconds(30))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(ids)))
+                    .build());
+            if (ok) {
+                deletesPushed.add(ids.size());
+            }
+            return ok;
+        } catch (IOException e) {
+            pushFailures.increment();
+            return false;
+        }
+    }
+
+    private boolean send(String node, HttpRequest request) {
+        try {
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() / 100 == 2) {
+                return true;
+            }
+            log.warn("Push of {} to {} failed: HTTP {} {}", request.uri().getPath(), node, response.statusCode(), response.body());
+        } catch (IOException e) {
+            log.warn("Push of {} to {} failed: {}", request.uri().getPath(), node, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        pushFailures.increment();
+        return false;
+    }
+
+    private HttpRequest.Builder internal(String url, Duration timeout) {
+        return HttpRequest.newBuilder(URI.create(url))
+                .timeout(timeout)
+                .header(SECRET_HEADER, membership.getSecret());
+    }
+
+    // Body goes to a temp file next to the target and is only moved in once complete and verified
+    private String receive(InputStream body, Path target, String expectedChecksum) throws IOException {
+        Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".replica");
+        try {
+            MessageDigest digest = ChecksumUtil.newDigest();
+            try (InputStream in = new DigestInputStream(body, digest)) {
+                Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            String checksum = ChecksumUtil.toHex(digest);
+            if (StringUtils.hasText(expectedChecksum) && !expectedChecksum.equals(checksum)) {
+                throw new IllegalArgumentException("Checksum mismatch for " + target.getFileName());
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return checksum;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    // Incoming metadata on top of the local record, local paths win, and so does a later local edit
+    private Music merge(Music incoming) {
+        Music record = new Music();
+        Optional<Music> existing = musicRepository.findById(incoming.getId());
+        existing.ifPresent(m -> BeanUtils.copyProperties(m, record));
+        record.setId(incoming.getId());
+        Long localEdit = existing.map(Music::getEditedAt).orElse(null);
+        if (localEdit == null || (incoming.getEditedAt() != null && incoming.getEditedAt() >= localEdit)) {
+            record.setTitle(incoming.getTitle());
+            record.setArtist(incoming.getArtist());
+            record.setAlbum(incoming.getAlbum());
+            record.setEditedAt(incoming.getEditedAt());
+        }
+        record.setTrackNumber(incoming.getTrackNumber());
+        record.setDuration(incoming.getDuration());
+        record.setFormat(incoming.getFormat());
+        record.setCreateTime(incoming.getCreateTime());
+        if (existing.isEmpty()) {
+            record.setChecksum(incoming.getChecksum());
+        }
+        return record;
+    }
+
+    // Paths, version and ordinal mean nothing on another node
+    private static Music portable(Music music) {
+        Music copy = new Music();
+        copy.setId(music.getId());
+        copy.setTitle(music.getTitle());
+        copy.setArtist(music.getArtist());
+        copy.setAlbum(music.getAlbum());
+        copy.setTrackNumber(music.getTrackNumber());
+        copy.setDuration(music.getDuration());
+        copy.setFormat(music.getFormat());
+        copy.setCreateTime(music.getCreateTime());
+        copy.setChecksum(music.getChecksum());
+        copy.setEditedAt(music.getEditedAt());
+        return copy;
+    }
+
+    private String encodeMeta(Music meta) throws IOException {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(objectMapper.writeValueAsBytes(meta));
+    }
+
+    private Music decodeMeta(String meta) {
+        try {
+            return objectMapper.readValue(Base64.getUrlDecoder().decode(meta), Music.class);
+        } catch (IllegalArgumentException | IOException e) {
+            throw new IllegalArgumentException("Bad " + META_HEADER + " header");
+        }
+    }
+
+    @Data
+    public static class Inventory {
+        private Set<String> records = new HashSet<>();
+        private Map<String, Long> edited = new HashMap<>();
+        private Map<String, String> files = new HashMap<>();
+    }
+}
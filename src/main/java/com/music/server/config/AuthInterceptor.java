@@ -13,6 +13,7 @@ import org.springframework.stereotype.Component;
 import org.springframework.util.CollectionUtils;
 import org.springframework.util.StringUtils;
 import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.util.UrlPathHelper;
 
 import java.util.Objects;
 import java.util.concurrent.TimeUnit;
@@ -23,6 +24,8 @@ import static com.music.server.constants.RedisKeyConstant.*;
 @Component
 public class AuthInterceptor implements HandlerInterceptor {
 
+    public static final String CURRENT_USER_ATTR = "currentUser";
+
     private final StringRedisTemplate redisTemplate;
     private final ObjectMapper objectMapper;
     
@@ -36,6 +39,12 @@ public class AuthInterceptor implements HandlerInterceptor {
 
     @Override
     public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        try (RequestTrace.Span ignored = RequestTrace.start(RequestTrace.Stage.AUTH, null)) {
+            return authenticate(request, response);
+        }
+    }
+
+    private boolean authenticate(HttpServletRequest request, HttpServletResponse response) throws Exception {
         if ("OPTIONS".equalsIgnoreCase(request.getMethod())) {
             return true;
         }
@@ -59,17 +68,23 @@ public class AuthInterceptor implements HandlerInterceptor {
             writeError(response);
             return false;
         }
-        // Slide expiration
-        redisTemplate.expire(key, tokenTtlDays, TimeUnit.DAYS);
-        redisTemplate.expire(getUserTokenRedisKey(user.getUsername()), tokenTtlDays, TimeUnit.DAYS);
+        // Slide expiration. Not for the warm-up token, which must lapse with its short TTL if the
+        // instance dies before deleting it
+        if (!JitWarmup.USER_ID.equals(user.getId())) {
+            redisTemplate.expire(key, tokenTtlDays, TimeUnit.DAYS);
+            redisTemplate.expire(getUserTokenRedisKey(user.getUsername()), tokenTtlDays, TimeUnit.DAYS);
+        }
         // 校验一下角色
-        String requestURI = request.getRequestURI();
-        if (ONLY_ADMIN_URIS.contains(requestURI)) {
+        // The path handlers are mapped on: decoded, ;params and duplicate slashes removed. The raw URI
+        // would let /music/batch/%64elete or /music/batch/delete;x=1 past the admin check.
+        String requestURI = request.getContextPath() + UrlPathHelper.defaultInstance.getLookupPathForRequest(request);
+        if (ONLY_ADMIN_URIS.contains(requestURI) || ONLY_ADMIN_URI_PREFIXES.stream().anyMatch(requestURI::startsWith)) {
             if (!user.getRoles().contains(ROLE_ADMIN)) {
                 writeError(response);
                 return false;
             }
         }
+        request.setAttribute(CURRENT_USER_ATTR, user);
         return true;
     }
 
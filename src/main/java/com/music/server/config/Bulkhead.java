@@ -0,0 +1,151 @@
+package com.music.server.config;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrency limit for one class of traffic with a short bounded wait queue.
+ * <p>
+ * When adaptive, the limit follows observed latency (gradient limiter): it shrinks while requests take
+ * longer than the best latency seen recently, i.e. while they are queueing somewhere downstream, and
+ * grows back by about sqrt(limit) when latency is at its floor.
+ */
+public class Bulkhead {
+
+    private static final double SMOOTHING = 0.2;
+    private static final int MIN_RTT_RESET_SAMPLES = 1000;
+
+    private final String name;
+    private final int maxLimit;
+    private final int minLimit;
+    private final int maxQueue;
+    private final long maxWaitMs;
+    private final boolean adaptive;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+
+    // Guarded by lock
+    private double limit;
+    private int inFlight;
+    private int queued;
+    private long accepted;
+    private long rejected;
+    private long timedOut;
+    private double emaRttNanos;
+    private long minRttNanos = Long.MAX_VALUE;
+    private int samplesSinceMinReset;
+
+    public Bulkhead(String name, int maxLimit, int minLimit, int maxQueue, long maxWaitMs, boolean adaptive) {
+        this.name = name;
+        this.maxLimit = maxLimit;
+        this.minLimit = Math.min(minLimit, maxLimit);
+        this.maxQueue = maxQueue;
+        this.maxWaitMs = maxWaitMs;
+        this.adaptive = adaptive;
+        this.limit = maxLimit;
+    }
+
+    /**
+     * Take a slot, waiting up to max-wait-ms in the queue.
+     *
+     * @return false if the queue is full or the wait timed out
+     */
+    public boolean tryAcquire() throws InterruptedException {
+        lock.lock();
+        try {
+            if (inFlight < (int) limit) {
+                inFlight++;
+                accepted++;
+                return true;
+            }
+            if (queued >= maxQueue || maxWaitMs <= 0) {
+                rejected++;
+                return false;
+            }
+            queued++;
+            try {
+                long remaining = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+                while (inFlight >= (int) limit) {
+                    if (remaining <= 0) {
+                        timedOut++;
+                        rejected++;
+                        return false;
+                    }
+                    remaining = released.awaitNanos(remaining);
+                }
+                inFlight++;
+                accepted++;
+                return true;
+            } finally {
+                queued--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Give the slot back.
+     *
+     * @param rttNanos time the request held the slot
+     */
+    public void release(long rttNanos) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (adaptive) {
+                adjust(rttNanos);
+            }
+            released.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Map<String, Object> stats() {
+        lock.lock();
+        try {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("limit", (int) limit);
+            stats.put("max_limit", maxLimit);
+            stats.put("adaptive", adaptive);
+            stats.put("in_flight", inFlight);
+            stats.put("queued", queued);
+            stats.put("max_queue", maxQueue);
+            stats.put("accepted", accepted);
+            stats.put("rejected", rejected);
+            stats.put("timed_out", timedOut);
+            stats.put("avg_latency_ms", emaRttNanos / 1e6);
+            stats.put("min_latency_ms", minRttNanos == Long.MAX_VALUE ? 0 : minRttNanos / 1e6);
+            return stats;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Caller holds the lock
+    private void adjust(long rttNanos) {
+        emaRttNanos = emaRttNanos == 0 ? rttNanos : emaRttNanos * (1 - SMOOTHING) + rttNanos * SMOOTHING;
+        // Forget the floor now and then so a permanently slower workload can recover its limit
+        if (++samplesSinceMinReset >= MIN_RTT_RESET_SAMPLES) {
+            samplesSinceMinReset = 0;
+            minRttNanos = (long) emaRttNanos;
+        }
+        minRttNanos = Math.min(minRttNanos, rttNanos);
+
+        double gradient = Math.max(0.5, Math.min(1.0, minRttNanos / emaRttNanos));
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - SMOOTHING) + newLimit * SMOOTHING));
+        if (inFlight < (int) limit) {
+            released.signalAll();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.music.server.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.music.server.model.ApiResponse;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Separate concurrency pools for uploads, streams and the JSON API so one kind of traffic cannot take
+ * every Tomcat thread. Runs before anything else, so a rejected upload is answered before its body is
+ * read: a fast 503 with Retry-After.
+ */
+@Slf4j
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+public class BulkheadFilter extends OncePerRequestFilter {
+
+    private final boolean enabled;
+    private final int retryAfterSeconds;
+    private final Bulkhead upload;
+    private final Bulkhead stream;
+    private final Bulkhead api;
+    private final ObjectMapper objectMapper;
+
+    public BulkheadFilter(Environment env, ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        this.enabled = env.getProperty("app.bulkhead.enabled", Boolean.class, true);
+        this.retryAfterSeconds = env.getProperty("app.bulkhead.retry-after-seconds", Integer.class, 2);
+        this.upload = create(env, "upload");
+        this.stream = create(env, "stream");
+        this.api = create(env, "api");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        Bulkhead bulkhead = classify(request);
+        if (!enabled || bulkhead == null) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        boolean acquired;
+        try {
+            acquired = bulkhead.tryAcquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (!acquired) {
+            reject(response, bulkhead);
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            bulkhead.release(System.nanoTime() - start);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        for (Bulkhead b : new Bulkhead[]{upload, stream, api}) {
+            stats.put(b.getName(), b.stats());
+        }
+        return stats;
+    }
+
+    private Bulkhead classify(HttpServletRequest request) {
+        if ("OPTIONS".equalsIgnoreCase(request.getMethod())) {
+            return null;
+        }
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        if (path.startsWith("/health/")) {
+            return null;
+        }
+        if (path.startsWith("/music/upload") || path.startsWith("/cluster/internal/replicas/")) {
+            return upload;
+        }
+        if (path.startsWith("/music/stream/") || path.startsWith("/music/cover/")) {
+            return stream;
+        }
+        return api;
+    }
+
+    private void reject(HttpServletResponse response, Bulkhead bulkhead) throws IOException {
+        log.debug("Rejected request, {} bulkhead full", bulkhead.getName());
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        response.setHeader("Retry-After", String.valueOf(retryAfterSeconds));
+        if (bulkhead == upload) {
+            // Don't keep reading a large body we are not going to use
+            response.setHeader("Connection", "close");
+        }
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.getWriter().write(objectMapper.writeValueAsString(ApiResponse.error(503, "Server busy, retry later")));
+    }
+
+    private static Bulkhead create(Environment env, String name) {
+        String prefix = "app.bulkhead." + name + ".";
+        int max = env.getProperty(prefix + "max-concurrent", Integer.class, 64);
+        return new Bulkhead(name,
+                max,
+                env.getProperty(prefix + "min-concurrent", Integer.class, max),
+                env.getProperty(prefix + "max-queue", Integer.class, 0),
+                env.getProperty(prefix + "max-wait-ms", Long.class, 0L),
+                env.getProperty(prefix + "adaptive", Boolean.class, false));
+    }
+}
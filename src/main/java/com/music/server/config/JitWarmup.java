@@ -0,0 +1,211 @@
+package com.music.server.config;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.music.server.cluster.ClusterRouter;
+import com.music.server.model.User;
+import com.music.server.utils.JsonUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.web.embedded.tomcat.TomcatWebServer;
+import org.springframework.boot.web.server.WebServer;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.env.Environment;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.music.server.constants.RedisKeyConstant.ROLE_USER;
+import static com.music.server.constants.RedisKeyConstant.getTokenRedisKey;
+
+/**
+ * Replays the hot read paths over HTTP against this instance before it reports ready, so the first
+ * listeners after a deploy hit JIT-compiled code, filled caches and open connection pools rather than the
+ * interpreter. Requests go through the whole stack (filters, auth against Redis, Jackson, resource
+ * writing) with a short-lived token of a made-up user; it is never extended, so it lapses on its own if
+ * the instance dies mid-way. Streams carry the cluster hop header: served from this node only, and not
+ * counted as plays.
+ * <p>
+ * Afterwards the public port is claimed, see {@link PortHandoff}.
+ */
+@Slf4j
+@Component
+public class JitWarmup {
+
+    // Real ids are UUIDs. AuthInterceptor doesn't slide the expiry of this user's token
+    static final String USER_ID = "jit-warmup";
+
+    private final StartupTracker startupTracker;
+    private final PortHandoff portHandoff;
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final int requests;
+    private final int threads;
+    private final long timeoutSeconds;
+    private final String contextPath;
+
+    public JitWarmup(StartupTracker startupTracker, PortHandoff portHandoff, StringRedisTemplate redisTemplate,
+                     ObjectMapper objectMapper, Environment env) {
+        this.startupTracker = startupTracker;
+        this.portHandoff = portHandoff;
+        this.redisTemplate = redisTemplate;
+        this.objectMapper = objectMapper;
+        this.enabled = env.getProperty("app.lifecycle.warmup.enabled", Boolean.class, true);
+        this.requests = env.getProperty("app.lifecycle.warmup.requests", Integer.class, 2000);
+        this.threads = env.getProperty("app.lifecycle.warmup.threads", Integer.class, 4);
+        this.timeoutSeconds = env.getProperty("app.lifecycle.warmup.timeout-seconds", Long.class, 60L);
+        this.contextPath = env.getProperty("server.servlet.context-path", "");
+    }
+
+    // Ahead of StartupTracker's listener, so readiness waits for the warm-up task
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void onApplicationReady(ApplicationReadyEvent event) {
+        if (!(event.getApplicationContext() instanceof ServletWebServerApplicationContext context)) {
+            return;
+        }
+        WebServer webServer = context.getWebServer();
+        if (enabled) {
+            startupTracker.runInBackground("jit-warmup", () -> {
+                try {
+                    warmUp(webServer.getPort());
+                } finally {
+                    claimPublicPort(webServer);
+                }
+            });
+        } else {
+            claimPublicPort(webServer);
+        }
+    }
+
+    private void claimPublicPort(WebServer webServer) {
+        if (webServer instanceof TomcatWebServer tomcat) {
+            portHandoff.claim(tomcat.getTomcat());
+        }
+    }
+
+    private void warmUp(int port) {
+        String base = "http://127.0.0.1:" + port + contextPath;
+        String token = UUID.randomUUID().toString();
+        String tokenKey = getTokenRedisKey(token);
+        User user = new User(USER_ID, USER_ID, null, List.of(ROLE_USER));
+        redisTemplate.opsForValue().set(tokenKey, JsonUtil.toJson(user), timeoutSeconds * 2, TimeUnit.SECONDS);
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "jit-warmup");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<HttpRequest> plan = plan(client, base, token);
+            AtomicInteger next = new AtomicInteger();
+            AtomicInteger failed = new AtomicInteger();
+            long[] nanos = new long[requests];
+            long start = System.nanoTime();
+            for (int i = 0; i < threads; i++) {
+                pool.execute(() -> {
+                    int n;
+                    while ((n = next.getAndIncrement()) < requests && !Thread.currentThread().isInterrupted()) {
+                        long t0 = System.nanoTime();
+                        try {
+                            HttpResponse<Void> response = client.send(plan.get(n % plan.size()), HttpResponse.BodyHandlers.discarding());
+                            if (response.statusCode() >= 500) {
+                                failed.incrementAndGet();
+                            }
+                        } catch (IOException e) {
+                            failed.incrementAndGet();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        nanos[n] = System.nanoTime() - t0;
+                    }
+                });
+            }
+            pool.shutdown();
+            if (!pool.awaitTermination(timeoutSeconds, TimeUnit.SECONDS)) {
+                log.warn("JIT warm-up cut off after {}s", timeoutSeconds);
+            }
+            int done = Math.min(next.get(), requests);
+            int tail = Math.min(100, done / 2);
+            log.info("JIT warm-up: {} requests over {} endpoints in {}ms, {} failed, first {} avg {}ms, last {} avg {}ms",
+                    done, plan.size(), (System.nanoTime() - start) / 1_000_000, failed.get(),
+                    tail, avgMillis(nanos, 0, tail), tail, avgMillis(nanos, done - tail, done));
+        } catch (IOException e) {
+            log.warn("JIT warm-up skipped: {}", e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+            redisTemplate.delete(tokenKey);
+        }
+    }
+
+    // Read-only requests over a few real tracks, nothing here changes data
+    private List<HttpRequest> plan(HttpClient client, String base, String token) throws IOException, InterruptedException {
+        // Blocks until a background catalog load is done
+        HttpResponse<String> first = client.send(get(base + "/music/list?size=20", token)
+                .timeout(Duration.ofSeconds(timeoutSeconds)).build(), HttpResponse.BodyHandlers.ofString());
+        JsonNode list = objectMapper.readTree(first.body()).path("data").path("list");
+        List<HttpRequest> plan = new ArrayList<>();
+        plan.add(get(base + "/music/list?page=1&size=20", token).build());
+        plan.add(get(base + "/music/list?page=2&size=50", token).build());
+        plan.add(get(base + "/music/most-played?limit=20", token).build());
+        plan.add(get(base + "/music/list?scope=favorites&size=20", token).build());
+        plan.add(get(base + "/playlists", token).build());
+        for (JsonNode music : list) {
+            String id = music.path("id").asText();
+            String artist = music.path("artist").asText();
+            if (!artist.isEmpty()) {
+                String encoded = URLEncoder.encode(artist, StandardCharsets.UTF_8);
+                plan.add(get(base + "/music/list?keyword=" + encoded + "&size=20", token).build());
+                plan.add(get(base + "/music/list?artist=" + encoded + "&size=20", token).build());
+            }
+            plan.add(get(base + "/music/stream/" + id, token)
+                    .header("Range", "bytes=0-65535")
+                    .header(ClusterRouter.HOP_HEADER, USER_ID)
+                    .build());
+            plan.add(get(base + "/music/cover/" + id, token)
+                    .header(ClusterRouter.HOP_HEADER, USER_ID)
+                    .build());
+        }
+        return plan;
+    }
+
+    private static HttpRequest.Builder get(String url, String token) {
+        return HttpRequest.newBuilder(URI.create(url))
+                .header("Authorization", "Bearer " + token)
+                .timeout(Duration.ofSeconds(10))
+                .GET();
+    }
+
+    private static double avgMillis(long[] nanos, int from, int to) {
+        if (to <= from) {
+            return 0;
+        }
+        long sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += nanos[i];
+        }
+        return Math.round(sum / 1e4 / (to - from)) / 100.0;
+    }
+}
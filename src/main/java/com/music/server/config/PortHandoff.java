@@ -0,0 +1,188 @@
+package com.music.server.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.catalina.LifecycleState;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.coyote.AbstractProtocol;
+import org.apache.coyote.http11.AbstractHttp11Protocol;
+import org.apache.coyote.http11.Http11NioProtocol;
+import org.apache.tomcat.util.net.NioEndpoint;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.NetworkChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Redeploys without refused connections. deploy.sh starts the new instance on a control port (server.port) with
+ * app.lifecycle.public-port set to the port clients use. Once warmed up, this binds the public port as a
+ * second connector with SO_REUSEPORT, so old and new instance accept side by side until the old one
+ * drains and closes its listener. An old instance without SO_REUSEPORT holds the port exclusively; then
+ * binding is retried until it lets go.
+ * <p>
+ * Reads are served throughout. Writes are not: until the old instance has stopped, the new one answers
+ * them with a 503 (see WriterLease).
+ */
+@Slf4j
+@Component
+public class PortHandoff {
+
+    private static final long RETRY_MS = 50;
+
+    private final Integer publicPort;
+    private final long timeoutMs;
+    private volatile boolean bound;
+
+    public PortHandoff(Environment env) {
+        this.publicPort = env.getProperty("app.lifecycle.public-port", Integer.class);
+        this.timeoutMs = env.getProperty("app.lifecycle.handoff-timeout-seconds", Long.class, 120L) * 1000;
+    }
+
+    public boolean isEnabled() {
+        return publicPort != null;
+    }
+
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("public_port", publicPort);
+        status.put("public_port_bound", bound);
+        return status;
+    }
+
+    /**
+     * Bind the public port on a background thread, keeps retrying while another process holds it.
+     */
+    public void claim(Tomcat tomcat) {
+        if (!isEnabled()) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            boolean waiting = false;
+            while (System.currentTimeMillis() < deadline) {
+                if (probe() && addConnector(tomcat)) {
+                    bound = true;
+                    log.info("Serving on public port {}", publicPort);
+                    return;
+                }
+                if (!waiting) {
+                    waiting = true;
+                    log.info("Public port {} is held by another process, waiting for it to drain", publicPort);
+                }
+                try {
+                    Thread.sleep(RETRY_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            log.error("Public port {} still taken after {}s, only the control port serves", publicPort, timeoutMs / 1000);
+        }, "port-handoff");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Try the bind without Tomcat first, a failed connector start logs a stack trace every attempt
+    private boolean probe() {
+        try (ServerSocketChannel channel = ServerSocketChannel.open()) {
+            ReusePortEndpoint.reusePort(channel);
+            channel.bind(new InetSocketAddress(publicPort));
+            return true;
+        } catch (BindException e) {
+            return false;
+        } catch (IOException e) {
+            log.warn("Probing public port {} failed: {}", publicPort, e.getMessage());
+            return false;
+        }
+    }
+
+    private boolean addConnector(Tomcat tomcat) {
+        Connector main = tomcat.getConnector();
+        Http11NioProtocol protocol = new Http11NioProtocol(new ReusePortEndpoint());
+        copySettings((AbstractHttp11Protocol<?>) main.getProtocolHandler(), protocol);
+        Connector connector = new Connector(protocol);
+        connector.setPort(publicPort);
+        connector.setThrowOnFailure(true);
+        connector.setMaxPostSize(main.getMaxPostSize());
+        connector.setURIEncoding(main.getURIEncoding());
+        try {
+            tomcat.getService().addConnector(connector);
+        } catch (IllegalArgumentException e) {
+            log.warn("Starting connector on public port {} failed: {}", publicPort, e.getMessage());
+        }
+        if (connector.getState() != LifecycleState.STARTED) {
+            tomcat.getService().removeConnector(connector);
+            return false;
+        }
+        return true;
+    }
+
+    // Boot's server.tomcat settings only reach the connector it created. Sharing its executor also keeps
+    // the bulkhead sizes, which assume one pool of server.tomcat.threads.max, right.
+    private static void copySettings(AbstractHttp11Protocol<?> from, AbstractHttp11Protocol<?> to) {
+        to.setExecutor(((AbstractProtocol<?>) from).getExecutor());
+        to.setConnectionTimeout(from.getConnectionTimeout());
+        to.setKeepAliveTimeout(from.getKeepAliveTimeout());
+        to.setMaxKeepAliveRequests(from.getMaxKeepAliveRequests());
+        to.setMaxConnections(from.getMaxConnections());
+        to.setAcceptCount(from.getAcceptCount());
+        to.setMaxHttpRequestHeaderSize(from.getMaxHttpRequestHeaderSize());
+        to.setMaxHttpResponseHeaderSize(from.getMaxHttpResponseHeaderSize());
+        to.setMaxSwallowSize(from.getMaxSwallowSize());
+        to.setCompression(from.getCompression());
+        to.setCompressibleMimeType(from.getCompressibleMimeType());
+        to.setCompressionMinSize(from.getCompressionMinSize());
+    }
+
+    /**
+     * NIO endpoint whose listening socket sets SO_REUSEPORT before binding, everything that touches the
+     * socket is overridden because the one in NioEndpoint is private.
+     */
+    static class ReusePortEndpoint extends NioEndpoint {
+
+        private volatile ServerSocketChannel serverSocket;
+
+        static void reusePort(ServerSocketChannel channel) throws IOException {
+            if (channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+        }
+
+        @Override
+        protected void initServerSocket() throws Exception {
+            ServerSocketChannel channel = ServerSocketChannel.open();
+            reusePort(channel);
+            getSocketProperties().setProperties(channel.socket());
+            channel.bind(new InetSocketAddress(getAddress(), getPortWithOffset()), getAcceptCount());
+            channel.configureBlocking(true);
+            serverSocket = channel;
+        }
+
+        @Override
+        protected NetworkChannel getServerSocket() {
+            return serverSocket;
+        }
+
+        @Override
+        protected SocketChannel serverSocketAccept() throws Exception {
+            return serverSocket.accept();
+        }
+
+        @Override
+        protected void doCloseServerSocket() throws IOException {
+            ServerSocketChannel channel = serverSocket;
+            serverSocket = null;
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+}
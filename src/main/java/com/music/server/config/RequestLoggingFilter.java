@@ -5,6 +5,8 @@ import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 import org.springframework.web.util.ContentCachingRequestWrapper;
@@ -14,10 +16,13 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 @Slf4j
 @Component
+// Outside TracingFilter, which must finish while the response is still buffered here
+@Order(Ordered.LOWEST_PRECEDENCE - 10)
 public class RequestLoggingFilter extends OncePerRequestFilter {
 
     private static final Set<String> IGNORED_PATHS = new HashSet<>(Arrays.asList(
@@ -25,6 +30,16 @@ public class RequestLoggingFilter extends OncePerRequestFilter {
             "/favicon.ico"
     ));
 
+    // Bodies are too large to cache and never logged, only the request line and status are
+    private static final List<String> STREAMING_PATH_PREFIXES = Arrays.asList(
+            "/api/v1/catalog/",
+            "/api/v1/music/stream/",
+            "/api/v1/music/cover/",
+            "/api/v1/music/uploads/",
+            "/api/v1/diagnostics/jfr/recordings/",
+            "/api/v1/cluster/internal/replicas/"
+    );
+
     private static final Set<String> BINARY_CONTENT_TYPES = new HashSet<>(Arrays.asList(
             "audio/mpeg",
             "audio/flac",
@@ -42,6 +57,17 @@ public class RequestLoggingFilter extends OncePerRequestFilter {
         String path = request.getRequestURI();
         
         boolean isMultipart = request.getContentType() != null && request.getContentType().startsWith("multipart/form-data");
+
+        if (STREAMING_PATH_PREFIXES.stream().anyMatch(path::startsWith)) {
+            long startTime = System.currentTimeMillis();
+            log.info("\n[REQUEST] {} {}", request.getMethod(), path);
+            try {
+                filterChain.doFilter(request, response);
+            } finally {
+                log.info("\n[RESPONSE] {} ({}ms)\nStatus: {}", path, System.currentTimeMillis() - startTime, response.getStatus());
+            }
+            return;
+        }
         
         // Wrap request and response
         ContentCachingRequestWrapper wrappedRequest = new ContentCachingRequestWrapper(request);
@@ -0,0 +1,197 @@
+package com.music.server.config;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Timings of one sampled request, kept in a thread local by {@link TracingFilter}. Code that wants to
+ * show up in the breakdown wraps itself in {@link #start}; on a request that isn't sampled that is one
+ * thread-local read returning a shared no-op span.
+ * <p>
+ * Stages are inclusive: auth contains the Redis calls it makes. A stage nested in itself, such as a
+ * repository method calling another, counts once. Not thread-safe, a trace belongs to the request thread
+ * until {@link #finish} hands out an immutable view.
+ */
+public final class RequestTrace {
+
+    public enum Stage {
+        AUTH, REDIS, REPO, META, JSON, FILE;
+
+        private final String key = name().toLowerCase(Locale.ROOT);
+
+        public String key() {
+            return key;
+        }
+    }
+
+    private static final ThreadLocal<RequestTrace> CURRENT = new ThreadLocal<>();
+    private static final Span NOOP = new Span(null, null, null, 0);
+
+    private final String method;
+    private final String path;
+    private final long startMillis = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    private final int maxSpans;
+    private final long[] stageNanos = new long[Stage.values().length];
+    private final int[] stageCounts = new int[Stage.values().length];
+    private final int[] depth = new int[Stage.values().length];
+    private final List<Span> spans = new ArrayList<>();
+    private int droppedSpans;
+
+    RequestTrace(String method, String path, int maxSpans) {
+        this.method = method;
+        this.path = path;
+        this.maxSpans = maxSpans;
+    }
+
+    /**
+     * Time a stage of the current request, use with try-with-resources.
+     *
+     * @param detail shown in the span list, may be null
+     */
+    public static Span start(Stage stage, String detail) {
+        RequestTrace trace = CURRENT.get();
+        if (trace == null) {
+            return NOOP;
+        }
+        trace.depth[stage.ordinal()]++;
+        return new Span(trace, stage, detail, System.nanoTime());
+    }
+
+    /**
+     * Whether the current request is sampled, for callers whose span detail costs something to build.
+     */
+    public static boolean isActive() {
+        return CURRENT.get() != null;
+    }
+
+    static void begin(RequestTrace trace) {
+        CURRENT.set(trace);
+    }
+
+    static void end() {
+        CURRENT.remove();
+    }
+
+    long elapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Server-Timing value for the stages recorded so far, with a total when the request is done.
+     */
+    String serverTiming(long totalNanos) {
+        StringBuilder header = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            int i = stage.ordinal();
+            if (stageCounts[i] == 0) {
+                continue;
+            }
+            if (header.length() > 0) {
+                header.append(", ");
+            }
+            header.append(stage.key()).append(";dur=").append(millis(stageNanos[i]));
+            if (stageCounts[i] > 1) {
+                header.append(";desc=\"").append(stageCounts[i]).append(" calls\"");
+            }
+        }
+        if (totalNanos >= 0) {
+            header.append(header.length() > 0 ? ", " : "").append("total;dur=").append(millis(totalNanos));
+        }
+        return header.toString();
+    }
+
+    Finished finish(int status) {
+        long total = elapsedNanos();
+        Map<String, Object> stages = new LinkedHashMap<>();
+        for (Stage stage : Stage.values()) {
+            int i = stage.ordinal();
+            if (stageCounts[i] > 0) {
+                Map<String, Object> s = new LinkedHashMap<>();
+                s.put("ms", millis(stageNanos[i]));
+                s.put("count", stageCounts[i]);
+                stages.put(stage.key(), s);
+            }
+        }
+        // Recorded as they close, listed as they opened
+        spans.sort(Comparator.comparingLong(span -> span.start));
+        List<Map<String, Object>> spanList = new ArrayList<>(spans.size());
+        for (Span span : spans) {
+            Map<String, Object> s = new LinkedHashMap<>();
+            s.put("stage", span.stage.key());
+            if (span.detail != null) {
+                s.put("detail", span.detail);
+            }
+            s.put("start_ms", millis(span.start - startNanos));
+            s.put("ms", millis(span.duration));
+            spanList.add(s);
+        }
+        Map<String, Object> view = new LinkedHashMap<>();
+        view.put("method", method);
+        view.put("path", path);
+        view.put("status", status);
+        view.put("time", startMillis);
+        view.put("total_ms", millis(total));
+        view.put("stages", stages);
+        view.put("spans", spanList);
+        view.put("dropped_spans", droppedSpans);
+        return new Finished(total, view);
+    }
+
+    private void close(Span span) {
+        int i = span.stage.ordinal();
+        span.duration = System.nanoTime() - span.start;
+        if (--depth[i] == 0) {
+            stageNanos[i] += span.duration;
+            stageCounts[i]++;
+        }
+        if (spans.size() < maxSpans) {
+            spans.add(span);
+        } else {
+            droppedSpans++;
+        }
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 1e4) / 100.0;
+    }
+
+    public static final class Span implements AutoCloseable {
+        private final RequestTrace trace;
+        private final Stage stage;
+        private final String detail;
+        private final long start;
+        private long duration;
+
+        private Span(RequestTrace trace, Stage stage, String detail, long start) {
+            this.trace = trace;
+            this.stage = stage;
+            this.detail = detail;
+            this.start = start;
+        }
+
+        @Override
+        public void close() {
+            if (trace != null) {
+                trace.close(this);
+            }
+        }
+    }
+
+    /**
+     * A completed trace as listed by /diagnostics/traces.
+     */
+    @Getter
+    @AllArgsConstructor
+    static class Finished {
+        private final long totalNanos;
+        private final Map<String, Object> view;
+    }
+}
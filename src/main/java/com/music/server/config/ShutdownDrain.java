@@ -0,0 +1,107 @@
+package com.music.server.config;
+
+import com.music.server.repository.PlaylistRepository;
+import com.music.server.service.PlayStatsService;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * The stopping side of a redeploy. Spring's graceful shutdown (server.shutdown) closes the listening
+ * sockets and waits up to spring.lifecycle.timeout-per-shutdown-phase for in-flight streams and uploads.
+ * Before that, for drain-grace-ms, this reports not ready and answers with Connection: close, because a
+ * paused connector turns the next request on a kept-alive connection into a 503; clients reconnect and
+ * land on the successor sharing the port instead.
+ * <p>
+ * Once the web server has stopped, buffered play counts are flushed while Redis is still connected, the
+ * playlist log is synced and closed, and the WriterLease is released so the successor can take over.
+ */
+@Slf4j
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class ShutdownDrain extends OncePerRequestFilter implements SmartLifecycle {
+
+    // After the web server stops (DEFAULT_PHASE - 2048), before Redis (phase 0)
+    private static final int PHASE = SmartLifecycle.DEFAULT_PHASE - 4096;
+
+    private final StartupTracker startupTracker;
+    private final PlayStatsService playStatsService;
+    private final PlaylistRepository playlistRepository;
+    private final WriterLease writerLease;
+    private final long graceMs;
+    private volatile boolean draining;
+    private volatile boolean running;
+
+    public ShutdownDrain(StartupTracker startupTracker, PlayStatsService playStatsService,
+                         PlaylistRepository playlistRepository, WriterLease writerLease, Environment env) {
+        this.startupTracker = startupTracker;
+        this.playStatsService = playStatsService;
+        this.playlistRepository = playlistRepository;
+        this.writerLease = writerLease;
+        this.graceMs = env.getProperty("app.lifecycle.drain-grace-ms", Long.class, 2000L);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        if (draining) {
+            response.setHeader("Connection", "close");
+        }
+        filterChain.doFilter(request, response);
+    }
+
+    // Runs before any lifecycle bean is stopped, the connectors are still accepting
+    @EventListener(ContextClosedEvent.class)
+    public void onClose() {
+        boolean wasReady = startupTracker.isReady();
+        draining = true;
+        startupTracker.markDraining();
+        if (!wasReady || graceMs <= 0) {
+            return;
+        }
+        log.info("Draining: not ready, closing kept-alive connections for {}ms", graceMs);
+        try {
+            Thread.sleep(graceMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        long start = System.currentTimeMillis();
+        playStatsService.flush();
+        // No requests left to change playlists; close() syncs, the @PreDestroy one then finds nothing to do
+        playlistRepository.close();
+        writerLease.release();
+        log.info("Flushed buffered state in {}ms", System.currentTimeMillis() - start);
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+}
@@ -0,0 +1,33 @@
+package com.music.server.config;
+
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Repository;
+import org.springframework.util.ReflectionUtils;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@Configuration
+public class StartupConfig {
+
+    /**
+     * With spring.main.lazy-initialization (fast-startup profile) everything else is created on first use.
+     * Repositories stay eager so the catalog warms up before the first request, and beans with
+     * scheduled jobs stay eager because a lazy bean's schedule would never be registered.
+     */
+    @Bean
+    public static LazyInitializationExcludeFilter eagerBeansFilter() {
+        return (beanName, beanDefinition, beanType) -> {
+            if (AnnotatedElementUtils.hasAnnotation(beanType, Repository.class)) {
+                return true;
+            }
+            AtomicBoolean scheduled = new AtomicBoolean();
+            ReflectionUtils.doWithMethods(beanType, m -> scheduled.set(true),
+                    m -> AnnotatedElementUtils.hasAnnotation(m, Scheduled.class));
+            return scheduled.get();
+        };
+    }
+}
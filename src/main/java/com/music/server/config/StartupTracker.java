@@ -0,0 +1,85 @@
+package com.music.server.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks warm-up work moved off the startup path and decides when the instance is ready for traffic:
+ * the context is up and every background task has finished, until shutdown starts draining. Also
+ * reports how long startup took.
+ */
+@Slf4j
+@Component
+public class StartupTracker {
+
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private volatile boolean contextReady;
+    private volatile long contextReadyMs = -1;
+    private volatile long readyMs = -1;
+    private volatile boolean draining;
+
+    /**
+     * Run a warm-up task on its own thread, the instance is not ready until it returns.
+     */
+    public void runInBackground(String name, Runnable task) {
+        pending.add(name);
+        Thread thread = new Thread(() -> {
+            long start = System.currentTimeMillis();
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                log.error("Warm-up task {} failed", name, e);
+            } finally {
+                log.info("Warm-up task {} finished in {}ms", name, System.currentTimeMillis() - start);
+                pending.remove(name);
+                checkReady();
+            }
+        }, "warmup-" + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        contextReadyMs = ManagementFactory.getRuntimeMXBean().getUptime();
+        contextReady = true;
+        log.info("Application context ready {}ms after JVM start.", contextReadyMs);
+        checkReady();
+    }
+
+    public boolean isReady() {
+        return readyMs >= 0 && !draining;
+    }
+
+    /**
+     * Shutting down, load balancers and deploy scripts should stop sending traffic.
+     */
+    public void markDraining() {
+        draining = true;
+    }
+
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("ready", isReady());
+        status.put("context_ready_ms", contextReadyMs);
+        status.put("ready_ms", readyMs);
+        status.put("draining", draining);
+        status.put("pending", pending);
+        return status;
+    }
+
+    private synchronized void checkReady() {
+        if (readyMs < 0 && contextReady && pending.isEmpty()) {
+            readyMs = ManagementFactory.getRuntimeMXBean().getUptime();
+            log.info("Ready to serve traffic {}ms after JVM start.", readyMs);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.music.server.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.Resource;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.ResourceHttpMessageConverter;
+import org.springframework.http.converter.ResourceRegionHttpMessageConverter;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.stereotype.Repository;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.List;
+
+/**
+ * Hooks the {@link RequestTrace} stages that aren't marked in our own code: Redis commands, repository
+ * methods, Jackson and resource bodies. Each replaces the bean Spring Boot would otherwise create, and
+ * costs a thread-local read per call when the request isn't sampled.
+ */
+@Configuration
+public class TracingConfig implements WebMvcConfigurer {
+
+    @Bean
+    public StringRedisTemplate stringRedisTemplate(RedisConnectionFactory connectionFactory) {
+        return new StringRedisTemplate(connectionFactory) {
+            // Every opsFor*() call and pipeline ends up here
+            @Override
+            public <T> T execute(RedisCallback<T> action, boolean exposeConnection, boolean pipeline) {
+                try (RequestTrace.Span ignored = RequestTrace.start(RequestTrace.Stage.REDIS, null)) {
+                    return super.execute(action, exposeConnection, pipeline);
+                }
+            }
+        };
+    }
+
+    @Bean
+    public MappingJackson2HttpMessageConverter mappingJackson2HttpMessageConverter(ObjectMapper objectMapper) {
+        return new MappingJackson2HttpMessageConverter(objectMapper) {
+            @Override
+            protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage)
+                    throws IOException, HttpMessageNotWritableException {
+                try (RequestTrace.Span ignored = RequestTrace.start(RequestTrace.Stage.JSON, "write")) {
+                    super.writeInternal(object, type, outputMessage);
+                }
+            }
+
+            @Override
+            public Object read(Type type, Class<?> contextClass, HttpInputMessage inputMessage)
+                    throws IOException, HttpMessageNotReadableException {
+                try (RequestTrace.Span ignored = RequestTrace.start(RequestTrace.Stage.JSON, "read")) {
+                    return super.read(type, contextClass, inputMessage);
+                }
+            }
+        };
+    }
+
+    /**
+     * Times every interface method of the repositories, the detail is Interface.method.
+     */
+    @Bean
+    public static BeanPostProcessor repositoryTracing(Environment env) {
+        boolean enabled = env.getProperty("app.tracing.enabled", Boolean.class, true);
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (!enabled || !AnnotatedElementUtils.hasAnnotation(bean.getClass(), Repository.class)) {
+                    return bean;
+                }
+                ProxyFactory factory = new ProxyFactory(bean);
+                factory.addAdvice((MethodInterceptor) invocation -> {
+                    if (!RequestTrace.isActive()) {
+                        return invocation.proceed();
+                    }
+                    String detail = invocation.getMethod().getDeclaringClass().getSimpleName()
+                            + "." + invocation.getMethod().getName();
+                    try (RequestTrace.Span ignored = RequestTrace.start(RequestTrace.Stage.REPO, detail)) {
+                        return invocation.proceed();
+                    }
+                });
+                return factory.getProxy(bean.getClass().getClassLoader());
+            }
+        };
+    }
+
+    // Streams and covers, whole files and ranges
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.replaceAll(converter -> {
+            if (converter.getClass() == ResourceHttpMessageConverter.class) {
+                return new ResourceHttpMessageConverter() {
+                    @Override
+                    protected void writeContent(Resource resource, HttpOutputMessage outputMessage)
+                            throws IOException, HttpMessageNotWritableException {
+                        try (RequestTrace.Span ignored = RequestTrace.start(RequestTrace.Stage.FILE, "resource")) {
+                            super.writeContent(resource, outputMessage);
+                        }
+                    }
+                };
+            }
+            if (converter.getClass() == ResourceRegionHttpMessageConverter.class) {
+                return new ResourceRegionHttpMessageConverter() {
+                    @Override
+                    protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage)
+                            throws IOException, HttpMessageNotWritableException {
+                        try (RequestTrace.Span ignored = RequestTrace.start(RequestTrace.Stage.FILE, "region")) {
+                            super.writeInternal(object, type, outputMessage);
+                        }
+                    }
+                };
+            }
+            return converter;
+        });
+    }
+}
@@ -0,0 +1,196 @@
+package com.music.server.config;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Traces a sample of requests (see {@link RequestTrace}) and reports the stage breakdown in a
+ * Server-Timing header. Runs last, inside RequestLoggingFilter, so JSON responses are still buffered
+ * when the request finishes and get the complete header. Streams are committed before their body is
+ * sent, their header carries the stages up to that point and the file transfer shows in the kept trace.
+ * <p>
+ * The slowest traces since the last reset are kept for /diagnostics/traces: a fixed set of slots where a
+ * slower trace replaces the fastest one.
+ */
+@Slf4j
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE)
+public class TracingFilter extends OncePerRequestFilter {
+
+    public static final String HEADER = "Server-Timing";
+
+    private final boolean enabled;
+    private final int maxSpans;
+    private final RequestTrace.Finished[] slowest;
+    private volatile double sampleRate;
+
+    // Guarded by slowest
+    private int kept;
+    // Fastest kept trace once every slot is used, anything quicker is dropped without locking
+    private volatile long keepAboveNanos;
+
+    private final LongAdder sampled = new LongAdder();
+
+    public TracingFilter(Environment env) {
+        this.enabled = env.getProperty("app.tracing.enabled", Boolean.class, true);
+        this.maxSpans = env.getProperty("app.tracing.max-spans", Integer.class, 200);
+        this.slowest = new RequestTrace.Finished[Math.max(1, env.getProperty("app.tracing.slow-traces", Integer.class, 50))];
+        this.sampleRate = env.getProperty("app.tracing.sample-rate", Double.class, 0.01);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        double rate = sampleRate;
+        if (!enabled || rate <= 0 || ThreadLocalRandom.current().nextDouble() >= rate) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        sampled.increment();
+        RequestTrace trace = new RequestTrace(request.getMethod(), request.getRequestURI(), maxSpans);
+        TimingResponse timed = new TimingResponse(response, trace);
+        RequestTrace.begin(trace);
+        try {
+            filterChain.doFilter(request, timed);
+        } finally {
+            RequestTrace.end();
+            if (!response.isCommitted()) {
+                response.setHeader(HEADER, trace.serverTiming(trace.elapsedNanos()));
+            }
+            keep(trace.finish(response.getStatus()));
+        }
+    }
+
+    /**
+     * @param rate fraction of requests traced, 0 turns tracing off and 1 traces everything
+     */
+    public void setSampleRate(double rate) {
+        if (!enabled) {
+            throw new IllegalStateException("Tracing is disabled (app.tracing.enabled)");
+        }
+        if (!(rate >= 0 && rate <= 1)) {
+            throw new IllegalArgumentException("rate must be between 0 and 1");
+        }
+        log.info("Trace sample rate {} -> {}", sampleRate, rate);
+        sampleRate = rate;
+    }
+
+    /**
+     * Kept traces, slowest first.
+     */
+    public Map<String, Object> traces() {
+        List<RequestTrace.Finished> list;
+        synchronized (slowest) {
+            list = new ArrayList<>(Arrays.asList(slowest).subList(0, kept));
+        }
+        list.sort(Comparator.comparingLong(RequestTrace.Finished::getTotalNanos).reversed());
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("enabled", enabled);
+        data.put("sample_rate", sampleRate);
+        data.put("sampled", sampled.sum());
+        data.put("capacity", slowest.length);
+        data.put("traces", list.stream().map(RequestTrace.Finished::getView).toList());
+        return data;
+    }
+
+    public void reset() {
+        synchronized (slowest) {
+            Arrays.fill(slowest, null);
+            kept = 0;
+            keepAboveNanos = 0;
+        }
+        sampled.reset();
+    }
+
+    private void keep(RequestTrace.Finished trace) {
+        if (trace.getTotalNanos() <= keepAboveNanos) {
+            return;
+        }
+        synchronized (slowest) {
+            if (kept < slowest.length) {
+                slowest[kept++] = trace;
+                if (kept < slowest.length) {
+                    return;
+                }
+            } else {
+                int fastest = 0;
+                for (int i = 1; i < kept; i++) {
+                    if (slowest[i].getTotalNanos() < slowest[fastest].getTotalNanos()) {
+                        fastest = i;
+                    }
+                }
+                if (trace.getTotalNanos() <= slowest[fastest].getTotalNanos()) {
+                    return;
+                }
+                slowest[fastest] = trace;
+            }
+            long min = Long.MAX_VALUE;
+            for (RequestTrace.Finished f : slowest) {
+                min = Math.min(min, f.getTotalNanos());
+            }
+            keepAboveNanos = min;
+        }
+    }
+
+    /**
+     * Sets the header with the stages so far as the body starts, a buffered response overwrites it
+     * with the full breakdown when the request is done.
+     */
+    private static class TimingResponse extends HttpServletResponseWrapper {
+        private final RequestTrace trace;
+        private boolean headerSet;
+
+        TimingResponse(HttpServletResponse response, RequestTrace trace) {
+            super(response);
+            this.trace = trace;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            beforeBody();
+            return super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            beforeBody();
+            return super.getWriter();
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            beforeBody();
+            super.flushBuffer();
+        }
+
+        private void beforeBody() {
+            if (!headerSet && !isCommitted()) {
+                headerSet = true;
+                String value = trace.serverTiming(-1);
+                if (!value.isEmpty()) {
+                    setHeader(HEADER, value);
+                }
+            }
+        }
+    }
+}
@@ -18,7 +18,9 @@ public class WebMvcConfig implements WebMvcConfigurer {
     public void addInterceptors(InterceptorRegistry registry) {
         registry.addInterceptor(authInterceptor)
                 .addPathPatterns("/**")
-                .excludePathPatterns("/auth/**", "/error", "/admin", "/admin/**");
+                .excludePathPatterns("/auth/**", "/error", "/admin", "/admin/**", "/health/**",
+                        // Node-to-node, checked against app.cluster.secret
+                        "/cluster/internal/**");
     }
 
     @Override
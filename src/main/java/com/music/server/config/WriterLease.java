@@ -0,0 +1,202 @@
+package com.music.server.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.music.server.model.ApiResponse;
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UrlPathHelper;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Only one process writes the data files under app.music.base-path. They are kept in memory and
+ * rewritten whole, so during a redeploy, where old and new instance run side by side (see PortHandoff),
+ * two writers would each overwrite what the other saved.
+ * <p>
+ * The writer holds an exclusive lock on writer-lock-file. An instance that starts while the old one still
+ * holds it serves reads from what it loaded at startup, but answers requests that change data with a 503
+ * and Retry-After, and skips scheduled jobs that write or delete. Once the old instance has stopped and
+ * let go of the lock, this one takes it, re-reads the files through the reloads registered with
+ * onAcquired() and only then accepts writes. Clients retrying a write during the handoff land on the new
+ * instance once it is done.
+ */
+@Slf4j
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 5)
+public class WriterLease extends OncePerRequestFilter {
+
+    private static final long POLL_MS = 200;
+    private static final Set<String> SAFE_METHODS = Set.of("GET", "HEAD", "OPTIONS");
+    // Writes that don't touch the files guarded here: login tokens, play history and favorites live in
+    // Redis, inventory is a read sent as POST, diagnostics writes its own directory
+    private static final Set<String> EXEMPT_PATHS = Set.of("/auth/login", "/users/kick", "/cluster/internal/inventory");
+    private static final List<String> EXEMPT_PREFIXES = List.of("/music/favorites/", "/music/library/", "/diagnostics/");
+
+    private final Path lockFile;
+    private final int retryAfterSeconds;
+    private final ObjectMapper objectMapper;
+    private final Map<String, Runnable> reloads = new LinkedHashMap<>();
+    private FileChannel channel;
+    private FileLock lock;
+    // Lock taken, files may be written
+    private volatile boolean held;
+    // Lock taken and everything reloaded, requests may write
+    private volatile boolean accepting;
+
+    public WriterLease(Environment env, ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        this.lockFile = Path.of(env.getProperty("app.lifecycle.writer-lock-file",
+                env.getProperty("app.music.base-path", ".") + "/db/writer.lock"));
+        this.retryAfterSeconds = env.getProperty("app.bulkhead.retry-after-seconds", Integer.class, 2);
+    }
+
+    @PostConstruct
+    public void init() {
+        if (tryLock()) {
+            held = true;
+            accepting = true;
+        } else {
+            log.warn("{} is locked by another instance, not writing until it stops", lockFile);
+        }
+    }
+
+    /**
+     * Reload to run, in registration order, when the lock is taken over from another instance.
+     */
+    public synchronized void onAcquired(String name, Runnable reload) {
+        reloads.put(name, reload);
+    }
+
+    /**
+     * Whether this process may write the data files.
+     */
+    public boolean isHeld() {
+        return held;
+    }
+
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("writer", accepting);
+        return status;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (held) {
+            return;
+        }
+        // Started only now, so every reload is registered and every catalog is loaded
+        Thread thread = new Thread(this::awaitLock, "writer-lease");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop writing and let the successor take over. Called once no request can change anything anymore.
+     */
+    public synchronized void release() {
+        held = false;
+        accepting = false;
+        try {
+            if (lock != null) {
+                lock.release();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            log.warn("Failed to release {}: {}", lockFile, e.getMessage());
+        }
+        lock = null;
+        channel = null;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        if (accepting || !writes(request)) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        response.setHeader("Retry-After", String.valueOf(retryAfterSeconds));
+        // Don't read an upload body we are not going to use
+        response.setHeader("Connection", "close");
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.getWriter().write(objectMapper.writeValueAsString(ApiResponse.error(503, "Instance handing over, retry later")));
+    }
+
+    private static boolean writes(HttpServletRequest request) {
+        if (SAFE_METHODS.contains(request.getMethod().toUpperCase())) {
+            return false;
+        }
+        String path = UrlPathHelper.defaultInstance.getLookupPathForRequest(request);
+        return !EXEMPT_PATHS.contains(path) && EXEMPT_PREFIXES.stream().noneMatch(path::startsWith);
+    }
+
+    private void awaitLock() {
+        while (!tryLock()) {
+            try {
+                Thread.sleep(POLL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        long start = System.currentTimeMillis();
+        held = true;
+        List<Map.Entry<String, Runnable>> pending;
+        synchronized (this) {
+            pending = List.copyOf(reloads.entrySet());
+        }
+        for (Map.Entry<String, Runnable> reload : pending) {
+            try {
+                reload.getValue().run();
+            } catch (RuntimeException e) {
+                log.error("Reloading {} after the writer handoff failed", reload.getKey(), e);
+            }
+        }
+        accepting = true;
+        log.info("Took over {} and reloaded {} stores in {}ms, accepting writes", lockFile, pending.size(),
+                System.currentTimeMillis() - start);
+    }
+
+    private synchronized boolean tryLock() {
+        try {
+            if (channel == null) {
+                Files.createDirectories(lockFile.getParent());
+                channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            }
+            lock = channel.tryLock();
+            return lock != null;
+        } catch (OverlappingFileLockException e) {
+            // Held by this JVM already
+            return false;
+        } catch (IOException e) {
+            log.warn("Failed to lock {}: {}", lockFile, e.getMessage());
+            return false;
+        }
+    }
+}
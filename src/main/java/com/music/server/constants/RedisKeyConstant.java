@@ -10,10 +10,39 @@ public class RedisKeyConstant {
 
     public static final String TOKEN = "auth:token:";
 
+    public static final String PLAY_COUNT = "music:play:count";
+
+    public static final String PLAY_RECENT = "music:play:recent";
+
+    public static final String PLAY_HISTORY = "music:play:history:";
+
+    public static final String USER_TRACK_IDS = "music:user:track-ids:";
+
+    // node id -> "<url>|<last heartbeat millis>"
+    public static final String CLUSTER_NODES = "cluster:nodes";
+
     public static final String ROLE_ADMIN = "ROLE_ADMIN";
     public static final String ROLE_USER = "ROLE_USER";
 
-    public static final List<String> ONLY_ADMIN_URIS = Lists.newArrayList("/api/v1/users/list");
+    public static final List<String> ONLY_ADMIN_URIS = Lists.newArrayList("/api/v1/users/list",
+            "/api/v1/stats/head-cache",
+            "/api/v1/stats/bulkheads",
+            "/api/v1/stats/password-hashing",
+            "/api/v1/stats/search-cache",
+            "/api/v1/stats/waveform",
+            "/api/v1/stats/disks",
+            "/api/v1/stats/read-ahead",
+            "/api/v1/storage/scrub",
+            "/api/v1/storage/migrate",
+            "/api/v1/catalog/export",
+            "/api/v1/catalog/import",
+            "/api/v1/music/batch/update",
+            "/api/v1/music/batch/delete",
+            "/api/v1/cluster/status",
+            "/api/v1/cluster/rebalance");
+
+    // For admin routes with path variables
+    public static final List<String> ONLY_ADMIN_URI_PREFIXES = Lists.newArrayList("/api/v1/diagnostics/");
 
 
     public static String getUserTokenRedisKey(String username) {
@@ -23,4 +52,12 @@ public class RedisKeyConstant {
     public static String getTokenRedisKey(String token) {
         return TOKEN + token;
     }
+
+    public static String getPlayHistoryRedisKey(String userId) {
+        return PLAY_HISTORY + userId;
+    }
+
+    public static String getUserTrackIdsRedisKey(String kind, String userId) {
+        return USER_TRACK_IDS + kind + ":" + userId;
+    }
 }
@@ -1,18 +1,23 @@
 package com.music.server.controller;
 
+import com.music.server.config.WriterLease;
 import com.music.server.model.ApiResponse;
 import com.music.server.model.LoginRequest;
 import com.music.server.model.User;
 import com.music.server.repository.UserManageRepository;
+import com.music.server.service.PasswordService;
 import com.music.server.utils.JsonUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import static com.music.server.constants.RedisKeyConstant.getTokenRedisKey;
@@ -30,18 +35,38 @@ public class AuthController {
 
     private final UserManageRepository userManageRepository;
 
-    public AuthController(StringRedisTemplate redisTemplate, UserManageRepository userManageRepository) {
+    private final PasswordService passwordService;
+
+    private final WriterLease writerLease;
+
+    public AuthController(StringRedisTemplate redisTemplate, UserManageRepository userManageRepository, PasswordService passwordService,
+                          WriterLease writerLease) {
          this.redisTemplate = redisTemplate;
          this.userManageRepository = userManageRepository;
+         this.passwordService = passwordService;
+         this.writerLease = writerLease;
     }
 
     @PostMapping("/login")
     public ApiResponse<Map<String, Object>> login(@RequestBody LoginRequest request) {
-        log.info("login request: {}", request);
+        log.info("login request: {}", request.getUsername());
         User user = userManageRepository.findByUsername(request.getUsername());
-        if (!user.getUsername().equals(request.getUsername()) || !user.getPassword().equals(request.getPassword())) {
+        boolean exists = StringUtils.hasText(user.getUsername()) && user.getUsername().equals(request.getUsername());
+        PasswordService.Verification verification;
+        try {
+            verification = passwordService.verify(Objects.toString(request.getPassword(), ""), exists ? user.getPassword() : null);
+        } catch (RejectedExecutionException e) {
+            return ApiResponse.error(503, "Server busy, retry later");
+        }
+        if (!exists || !verification.isMatched()) {
             return ApiResponse.error(1001, "Invalid username or password");
         }
+        if (verification.getRehash() != null && writerLease.isHeld()) {
+            // Plaintext or weaker hash from before, upgrade it now that we know the password. During a
+            // handoff the next login does it.
+            user.setPassword(verification.getRehash());
+            userManageRepository.save(user);
+        }
 
         String token = UUID.randomUUID().toString();
         // Store simple user info in Redis (or just a flag)
@@ -50,7 +75,9 @@ public class AuthController {
         redisTemplate.opsForValue().set(userKey, token, tokenTtlDays, TimeUnit.DAYS);
 
         String tokenKey = getTokenRedisKey(token);
-        redisTemplate.opsForValue().set(tokenKey, JsonUtil.toJson(user), tokenTtlDays, TimeUnit.DAYS);
+        // The session never carries the password hash
+        User session = new User(user.getId(), user.getUsername(), null, user.getRoles());
+        redisTemplate.opsForValue().set(tokenKey, JsonUtil.toJson(session), tokenTtlDays, TimeUnit.DAYS);
 
         Map<String, Object> data = new HashMap<>();
         data.put("token", token);
@@ -0,0 +1,132 @@
+package com.music.server.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.music.server.model.ApiResponse;
+import com.music.server.model.Music;
+import com.music.server.repository.MusicRepository;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.util.StringUtils;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bulk catalog transfer as NDJSON (one Music per line), for migrations and backups.
+ * Both directions stream, memory use does not grow with the catalog.
+ */
+@RestController
+@RequestMapping("/catalog")
+@Slf4j
+public class CatalogController {
+
+    private static final String NDJSON = "application/x-ndjson";
+    private static final int MAX_REPORTED_ERRORS = 100;
+
+    @Value("${app.catalog.import-batch-size}")
+    private int importBatchSize;
+
+    private final MusicRepository musicRepository;
+
+    private final ObjectMapper objectMapper;
+
+    public CatalogController(MusicRepository musicRepository, ObjectMapper objectMapper) {
+        this.musicRepository = musicRepository;
+        this.objectMapper = objectMapper;
+    }
+
+    @GetMapping("/export")
+    public void export(HttpServletResponse response) throws IOException {
+        response.setContentType(NDJSON);
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Content-Disposition", "attachment; filename=\"catalog.ndjson\"");
+        long[] count = new long[1];
+        try (SequenceWriter writer = objectMapper.writer().withRootValueSeparator("\n")
+                .writeValues(new BufferedOutputStream(response.getOutputStream(), 64 * 1024))) {
+            musicRepository.forEach(music -> {
+                try {
+                    writer.write(music);
+                    count[0]++;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            writer.flush();
+            if (count[0] > 0) {
+                // SequenceWriter only puts the separator between values
+                response.getOutputStream().write('\n');
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        log.info("Exported {} music items.", count[0]);
+    }
+
+    @PostMapping(value = "/import", consumes = {NDJSON, "application/json", "text/plain"})
+    public ApiResponse<Map<String, Object>> importCatalog(HttpServletRequest request) throws IOException {
+        ObjectReader reader = objectMapper.readerFor(Music.class);
+        List<Music> batch = new ArrayList<>(importBatchSize);
+        List<String> errors = new ArrayList<>();
+        long imported = 0;
+        long skipped = 0;
+        long lineNumber = 0;
+
+        try (BufferedReader lines = new BufferedReader(new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = lines.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    Music music = reader.readValue(line);
+                    if (!StringUtils.hasText(music.getId())) {
+                        throw new IllegalArgumentException("missing id");
+                    }
+                    // Response-only fields never go into the catalog
+                    music.setAudio_url(null);
+                    music.setCover_url(null);
+                    music.setPlay_count(null);
+                    batch.add(music);
+                } catch (JsonProcessingException | IllegalArgumentException e) {
+                    skipped++;
+                    if (errors.size() < MAX_REPORTED_ERRORS) {
+                        errors.add("line " + lineNumber + ": " + e.getMessage());
+                    }
+                    continue;
+                }
+                if (batch.size() >= importBatchSize) {
+                    imported += flush(batch);
+                }
+            }
+        }
+        imported += flush(batch);
+        log.info("Imported {} music items, skipped {}.", imported, skipped);
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("imported", imported);
+        result.put("skipped", skipped);
+        result.put("errors", errors);
+        return ApiResponse.success(result);
+    }
+
+    private int flush(List<Music> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        int size = batch.size();
+        musicRepository.saveAll(new ArrayList<>(batch));
+        batch.clear();
+        return size;
+    }
+}
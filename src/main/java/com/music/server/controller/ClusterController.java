@@ -0,0 +1,157 @@
+package com.music.server.controller;
+
+import com.music.server.cluster.ClusterMembership;
+import com.music.server.cluster.ClusterRouter;
+import com.music.server.cluster.ReplicationService;
+import com.music.server.model.ApiResponse;
+import com.music.server.model.Music;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Cluster status for admins, plus the node-to-node replication routes under /cluster/internal/.
+ * Those skip the AuthInterceptor (see WebMvcConfig) and take the shared secret instead.
+ */
+@RestController
+@RequestMapping("/cluster")
+@Slf4j
+public class ClusterController {
+
+    private final ClusterMembership membership;
+    private final ReplicationService replicationService;
+    private final ClusterRouter clusterRouter;
+
+    public ClusterController(ClusterMembership membership, ReplicationService replicationService, ClusterRouter clusterRouter) {
+        this.membership = membership;
+        this.replicationService = replicationService;
+        this.clusterRouter = clusterRouter;
+    }
+
+    @GetMapping("/status")
+    public ApiResponse<Map<String, Object>> status() {
+        Map<String, Object> data = new LinkedHashMap<>(membership.stats());
+        data.put("replication", replicationService.stats());
+        data.put("routing", clusterRouter.stats());
+        return ApiResponse.success(data);
+    }
+
+    @PostMapping("/rebalance")
+    public ApiResponse<Void> rebalance() {
+        if (!membership.isEnabled()) {
+            return ApiResponse.error(409, "Clustering is disabled");
+        }
+        replicationService.scheduleRebalance();
+        return ApiResponse.success();
+    }
+
+    @PostMapping("/internal/inventory")
+    public ResponseEntity<ReplicationService.Inventory> inventory(@RequestHeader(value = ReplicationService.SECRET_HEADER, required = false) String secret,
+                                                                  @RequestBody List<String> ids) {
+        if (!authorized(secret)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok(replicationService.inventory(ids));
+    }
+
+    @PutMapping("/internal/replicas/{id}")
+    public ResponseEntity<String> receiveFile(@PathVariable String id,
+                                              @RequestHeader(value = ReplicationService.SECRET_HEADER, required = false) String secret,
+                                              @RequestHeader(ReplicationService.META_HEADER) String meta,
+                                              HttpServletRequest request) {
+        if (!authorized(secret)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        try {
+            Music music = replicationService.receiveFile(id, meta, request.getInputStream());
+            return ResponseEntity.ok(music.getChecksum());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.GONE).body(e.getMessage());
+        } catch (IOException e) {
+            log.error("Failed to store replica {}", id, e);
+            return ResponseEntity.internalServerError().body(e.getMessage());
+        }
+    }
+
+    @PutMapping("/internal/replicas/{id}/cover")
+    public ResponseEntity<String> receiveCover(@PathVariable String id, @RequestParam String ext,
+                                               @RequestHeader(value = ReplicationService.SECRET_HEADER, required = false) String secret,
+                                               HttpServletRequest request) {
+        if (!authorized(secret)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        try {
+            replicationService.receiveCover(id, ext.toLowerCase(), request.getInputStream());
+            return ResponseEntity.ok().build();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.GONE).body(e.getMessage());
+        } catch (IOException e) {
+            log.error("Failed to store cover replica {}", id, e);
+            return ResponseEntity.internalServerError().body(e.getMessage());
+        }
+    }
+
+    @PutMapping("/internal/records/{id}")
+    public ResponseEntity<String> receiveRecord(@PathVariable String id,
+                                                @RequestHeader(value = ReplicationService.SECRET_HEADER, required = false) String secret,
+                                                @RequestBody Music music) {
+        if (!authorized(secret)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        try {
+            replicationService.receiveRecord(id, music);
+            return ResponseEntity.ok().build();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.GONE).body(e.getMessage());
+        }
+    }
+
+    @PostMapping("/internal/records")
+    public ResponseEntity<String> receiveRecords(@RequestHeader(value = ReplicationService.SECRET_HEADER, required = false) String secret,
+                                                 @RequestBody List<Music> records) {
+        if (!authorized(secret)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        try {
+            return ResponseEntity.ok(String.valueOf(replicationService.receiveRecords(records)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @PostMapping("/internal/deletes")
+    public ResponseEntity<String> receiveDeletes(@RequestHeader(value = ReplicationService.SECRET_HEADER, required = false) String secret,
+                                                 @RequestBody List<String> ids) {
+        if (!authorized(secret)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        try {
+            return ResponseEntity.ok(String.valueOf(replicationService.receiveDeletes(ids)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    private boolean authorized(String secret) {
+        return membership.isEnabled() && secret != null
+                && MessageDigest.isEqual(secret.getBytes(StandardCharsets.UTF_8), membership.getSecret().getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,129 @@
+package com.music.server.controller;
+
+import com.music.server.config.TracingFilter;
+import com.music.server.model.ApiResponse;
+import com.music.server.service.DiagnosticsService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Admin-only profiling, everything under /diagnostics/ is in ONLY_ADMIN_URI_PREFIXES.
+ */
+@RestController
+@RequestMapping("/diagnostics")
+@Slf4j
+public class DiagnosticsController {
+
+    private final DiagnosticsService diagnosticsService;
+    private final TracingFilter tracingFilter;
+
+    public DiagnosticsController(DiagnosticsService diagnosticsService, TracingFilter tracingFilter) {
+        this.diagnosticsService = diagnosticsService;
+        this.tracingFilter = tracingFilter;
+    }
+
+    @GetMapping("/jfr")
+    public ApiResponse<Map<String, Object>> jfrStatus() throws IOException {
+        Map<String, Object> data = diagnosticsService.status();
+        data.put("recordings", diagnosticsService.listRecordings());
+        return ApiResponse.success(data);
+    }
+
+    @PostMapping("/jfr/start")
+    public ApiResponse<Map<String, Object>> startRecording(@RequestParam(defaultValue = "default") String profile,
+                                                           @RequestParam(defaultValue = "60") long duration) {
+        try {
+            return ApiResponse.success(diagnosticsService.start(profile, duration));
+        } catch (IllegalArgumentException e) {
+            return ApiResponse.error(400, e.getMessage());
+        } catch (IllegalStateException e) {
+            return ApiResponse.error(409, e.getMessage());
+        } catch (IOException e) {
+            log.error("Failed to start JFR recording", e);
+            return ApiResponse.error(500, "Failed to start recording: " + e.getMessage());
+        }
+    }
+
+    @PostMapping("/jfr/stop")
+    public ApiResponse<Map<String, Object>> stopRecording() {
+        try {
+            return ApiResponse.success(diagnosticsService.stop());
+        } catch (IllegalStateException e) {
+            return ApiResponse.error(409, e.getMessage());
+        }
+    }
+
+    @GetMapping("/jfr/recordings/{name}")
+    public ResponseEntity<Resource> downloadRecording(@PathVariable String name) {
+        Path file;
+        try {
+            file = diagnosticsService.recordingFile(name);
+        } catch (IllegalArgumentException | NoSuchElementException e) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + name + "\"")
+                .body(new FileSystemResource(file));
+    }
+
+    @GetMapping("/jfr/summary")
+    public ApiResponse<Map<String, Object>> summary(@RequestParam(required = false) String name,
+                                                    @RequestParam(defaultValue = "20") int top) {
+        try {
+            return ApiResponse.success(diagnosticsService.summarize(name, Math.max(1, Math.min(top, 200))));
+        } catch (IllegalArgumentException e) {
+            return ApiResponse.error(400, e.getMessage());
+        } catch (NoSuchElementException e) {
+            return ApiResponse.error(404, e.getMessage());
+        } catch (IOException e) {
+            log.error("Failed to read JFR recording {}", name, e);
+            return ApiResponse.error(500, "Failed to read recording: " + e.getMessage());
+        }
+    }
+
+    @GetMapping("/heap-histogram")
+    public ApiResponse<Map<String, Object>> heapHistogram(@RequestParam(defaultValue = "50") int limit) {
+        try {
+            return ApiResponse.success(diagnosticsService.classHistogram(Math.max(1, Math.min(limit, 1000))));
+        } catch (IllegalStateException e) {
+            return ApiResponse.error(500, e.getMessage());
+        }
+    }
+
+    /**
+     * Slowest sampled requests since the last reset, with their stage breakdown and spans.
+     */
+    @GetMapping("/traces")
+    public ApiResponse<Map<String, Object>> traces() {
+        return ApiResponse.success(tracingFilter.traces());
+    }
+
+    @DeleteMapping("/traces")
+    public ApiResponse<Void> resetTraces() {
+        tracingFilter.reset();
+        return ApiResponse.success();
+    }
+
+    @PostMapping("/traces/sampling")
+    public ApiResponse<Map<String, Object>> setSampling(@RequestParam double rate) {
+        try {
+            tracingFilter.setSampleRate(rate);
+            return ApiResponse.success(Map.of("sample_rate", rate));
+        } catch (IllegalArgumentException e) {
+            return ApiResponse.error(400, e.getMessage());
+        } catch (IllegalStateException e) {
+            return ApiResponse.error(409, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.music.server.controller;
+
+import com.music.server.config.PortHandoff;
+import com.music.server.config.StartupTracker;
+import com.music.server.config.WriterLease;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/health")
+public class HealthController {
+
+    private final StartupTracker startupTracker;
+    private final PortHandoff portHandoff;
+    private final WriterLease writerLease;
+
+    public HealthController(StartupTracker startupTracker, PortHandoff portHandoff, WriterLease writerLease) {
+        this.startupTracker = startupTracker;
+        this.portHandoff = portHandoff;
+        this.writerLease = writerLease;
+    }
+
+    @GetMapping("/live")
+    public ResponseEntity<String> live() {
+        return ResponseEntity.ok("UP");
+    }
+
+    /**
+     * 503 until the context is up, the catalogs are loaded and the JIT warm-up ran, and again once
+     * shutdown starts draining. For deploy scripts and load balancers. "writer" turns true once this
+     * instance accepts writes, which during a redeploy is only after the old one stopped.
+     */
+    @GetMapping("/ready")
+    public ResponseEntity<Map<String, Object>> ready() {
+        Map<String, Object> status = startupTracker.status();
+        if (portHandoff.isEnabled()) {
+            status.putAll(portHandoff.status());
+        }
+        status.putAll(writerLease.status());
+        return ResponseEntity.status(startupTracker.isReady() ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE)
+                .body(status);
+    }
+}
@@ -1,16 +1,33 @@
 package com.music.server.controller;
 
+import com.music.server.cluster.ClusterRouter;
+import com.music.server.config.AuthInterceptor;
+import com.music.server.config.RequestTrace;
 import com.music.server.model.ApiResponse;
+import com.music.server.model.BatchMusicRequest;
+import com.music.server.model.ChangeFeed;
 import com.music.server.model.Music;
+import com.music.server.model.User;
 import com.music.server.repository.MusicRepository;
+import com.music.server.service.HeadCacheService;
+import com.music.server.service.MusicBatchService;
+import com.music.server.service.MusicIngestService;
+import com.music.server.service.PlayStatsService;
+import com.music.server.service.ReadAheadService;
+import com.music.server.service.SearchCacheService;
+import com.music.server.service.UserTrackSetService;
+import com.music.server.service.WaveformService;
+import com.music.server.storage.DiskReadResource;
+import com.music.server.storage.MusicStorage;
+import com.music.server.storage.StorageDisk;
+import com.music.server.utils.ChecksumUtil;
+import com.music.server.utils.WaveformPeaks;
 import jakarta.servlet.http.HttpServletRequest;
-import org.jaudiotagger.audio.AudioFile;
-import org.jaudiotagger.audio.AudioFileIO;
-import org.jaudiotagger.tag.FieldKey;
-import org.jaudiotagger.tag.Tag;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.FileSystemResource;
+import jakarta.servlet.http.HttpServletResponse;
+import org.apache.commons.io.FileUtils;
+import org.roaringbitmap.RoaringBitmap;
 import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -22,12 +39,14 @@ import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.*;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 @RestController
@@ -35,14 +54,43 @@ import java.util.stream.Collectors;
 public class MusicController {
 
     private final MusicRepository musicRepository;
-    
-    @Value("${app.music.files-dir}")
-    private String filesDir;
 
-    public MusicController(MusicRepository musicRepository) {
+    private final PlayStatsService playStatsService;
+
+    private final HeadCacheService headCacheService;
+
+    private final MusicStorage musicStorage;
+
+    private final MusicIngestService musicIngestService;
+
+    private final MusicBatchService musicBatchService;
+
+    private final UserTrackSetService userTrackSetService;
+
+    private final ClusterRouter clusterRouter;
+
+    private final SearchCacheService searchCacheService;
+
+    private final WaveformService waveformService;
+
+    private final ReadAheadService readAheadService;
+
+    public MusicController(MusicRepository musicRepository, PlayStatsService playStatsService, HeadCacheService headCacheService,
+                           MusicStorage musicStorage, MusicIngestService musicIngestService, MusicBatchService musicBatchService,
+                           UserTrackSetService userTrackSetService, ClusterRouter clusterRouter,
+                           SearchCacheService searchCacheService, WaveformService waveformService,
+                           ReadAheadService readAheadService) {
         this.musicRepository = musicRepository;
-        // Suppress Jaudiotagger logs
-        Logger.getLogger("org.jaudiotagger").setLevel(Level.OFF);
+        this.playStatsService = playStatsService;
+        this.headCacheService = headCacheService;
+        this.musicStorage = musicStorage;
+        this.musicIngestService = musicIngestService;
+        this.musicBatchService = musicBatchService;
+        this.userTrackSetService = userTrackSetService;
+        this.clusterRouter = clusterRouter;
+        this.searchCacheService = searchCacheService;
+        this.waveformService = waveformService;
+        this.readAheadService = readAheadService;
     }
 
     @GetMapping("/list")
@@ -50,9 +98,34 @@ public class MusicController {
             @RequestParam(defaultValue = "1") int page,
             @RequestParam(defaultValue = "20") int size,
             @RequestParam(required = false) String keyword,
+            @RequestParam(required = false) String scope,
+            @RequestParam(required = false) String artist,
             HttpServletRequest request) {
 
-        List<Music> allMusic = musicRepository.search(keyword);
+        List<Music> allMusic;
+        if (StringUtils.hasText(scope) || StringUtils.hasText(artist)) {
+            // Narrow down with bitmaps over ordinals, only the survivors are looked up
+            RoaringBitmap ordinals = null;
+            if (StringUtils.hasText(scope)) {
+                User user = (User) request.getAttribute(AuthInterceptor.CURRENT_USER_ATTR);
+                if (user == null) {
+                    return ApiResponse.error(401, "Unauthorized");
+                }
+                if (!UserTrackSetService.KINDS.contains(scope)) {
+                    return ApiResponse.error(400, "Unknown scope " + scope);
+                }
+                ordinals = userTrackSetService.get(user.getId(), scope);
+            }
+            if (StringUtils.hasText(artist)) {
+                RoaringBitmap byArtist = musicRepository.ordinalsByArtist(artist);
+                ordinals = ordinals == null ? byArtist : RoaringBitmap.and(ordinals, byArtist);
+            }
+            allMusic = musicRepository.findByOrdinals(ordinals, keyword);
+        } else if (StringUtils.hasText(keyword)) {
+            allMusic = searchCacheService.search(keyword);
+        } else {
+            allMusic = musicRepository.findAll();
+        }
         int total = allMusic.size();
         
         int start = (page - 1) * size;
@@ -70,23 +143,7 @@ public class MusicController {
         // Since we are behind a proxy or local, we might need full URL.
         // Actually ServletUriComponentsBuilder.fromCurrentContextPath() gives http://localhost:8080
         
-        List<Music> resultList = pageList.stream().map(m -> {
-            Music dto = new Music();
-            // Copy properties (simple clone or use BeanUtils)
-            dto.setId(m.getId());
-            dto.setTitle(m.getTitle());
-            dto.setArtist(m.getArtist());
-            dto.setAlbum(m.getAlbum());
-            dto.setDuration(m.getDuration());
-            dto.setFormat(m.getFormat());
-            
-            // Generate URLs
-            String host = ServletUriComponentsBuilder.fromCurrentContextPath().toUriString();
-            dto.setAudio_url(host + "/music/stream/" + m.getId());
-            dto.setCover_url(host + "/music/cover/" + m.getId());
-            
-            return dto;
-        }).collect(Collectors.toList());
+        List<Music> resultList = pageList.stream().map(MusicController::toDto).collect(Collectors.toList());
 
         Map<String, Object> data = new HashMap<>();
         data.put("total", total);
@@ -95,6 +152,56 @@ public class MusicController {
         return ApiResponse.success(data);
     }
 
+    /**
+     * Delta sync for offline libraries: everything saved or deleted after the client's version.
+     * Page with next until has_more is false; on resync re-list the catalog, then continue from version.
+     * Send the epoch of the last response along with since, a version is meaningless under another one.
+     */
+    @GetMapping("/changes")
+    public ApiResponse<Map<String, Object>> changes(
+            @RequestParam(required = false) String epoch,
+            @RequestParam(defaultValue = "0") long since,
+            @RequestParam(defaultValue = "500") int limit) {
+        ChangeFeed feed = musicRepository.changesSince(epoch, since, Math.max(1, Math.min(limit, 5000)));
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("epoch", feed.getEpoch());
+        data.put("version", feed.getVersion());
+        data.put("resync", feed.isResync());
+        data.put("updated", feed.getUpdated().stream().map(MusicController::toDto).collect(Collectors.toList()));
+        data.put("deleted", feed.getDeleted());
+        data.put("next", feed.getNext());
+        data.put("has_more", feed.isHasMore());
+        return ApiResponse.success(data);
+    }
+
+    @GetMapping("/most-played")
+    public ApiResponse<List<Music>> mostPlayed(@RequestParam(defaultValue = "20") int limit) {
+        List<Music> resultList = new ArrayList<>();
+        for (PlayStatsService.TrackPlays top : playStatsService.mostPlayed(limit)) {
+            musicRepository.findById(top.getTrackId()).ifPresent(m -> {
+                Music dto = toDto(m);
+                dto.setPlay_count(top.getPlays());
+                resultList.add(dto);
+            });
+        }
+        return ApiResponse.success(resultList);
+    }
+
+    @GetMapping("/recently-played")
+    public ApiResponse<List<Music>> recentlyPlayed(@RequestParam(defaultValue = "20") int limit) {
+        return ApiResponse.success(toDtoList(playStatsService.recentlyPlayed(limit)));
+    }
+
+    @GetMapping("/history")
+    public ApiResponse<List<Music>> history(@RequestParam(defaultValue = "50") int limit, HttpServletRequest request) {
+        User user = (User) request.getAttribute(AuthInterceptor.CURRENT_USER_ATTR);
+        if (user == null) {
+            return ApiResponse.error(401, "Unauthorized");
+        }
+        return ApiResponse.success(toDtoList(playStatsService.history(user.getId(), limit)));
+    }
+
     @PostMapping("/upload")
     public ApiResponse<Map<String, Object>> upload(
             @RequestParam("file") MultipartFile file,
@@ -105,109 +212,203 @@ public class MusicController {
         Map<String, Object> result = new HashMap<>();
         List<String> errors = new ArrayList<>();
 
-        File dir = new File(filesDir);
-        if (!dir.exists()) {
-            dir.mkdirs();
-        }
-
         if (file.isEmpty()) {
             return ApiResponse.error(400, "File is empty");
         }
 
+        Path targetPath = null;
         try {
             String originalFilename = StringUtils.cleanPath(Objects.requireNonNull(file.getOriginalFilename()));
             String extension = StringUtils.getFilenameExtension(originalFilename);
             if (extension == null) extension = "mp3";
             
             String uuid = UUID.randomUUID().toString();
-            String newFilename = uuid + "." + extension;
-            Path targetPath = dir.toPath().resolve(newFilename);
-            
-            Files.copy(file.getInputStream(), targetPath, StandardCopyOption.REPLACE_EXISTING);
-            
-            // Parse Metadata
-            Music music = new Music();
-            music.setId(uuid);
-            music.setFilePath(targetPath.toAbsolutePath().toString());
-            music.setCreateTime(System.currentTimeMillis());
-            music.setFormat(extension.toLowerCase());
-            
-            // Defaults
-            music.setTitle(originalFilename);
-            music.setArtist("Unknown Artist");
-            music.setAlbum("Unknown Album");
-            music.setDuration(0L);
-
-            // 1. Try to parse from file first to get duration and defaults
-            try {
-                AudioFile f = AudioFileIO.read(targetPath.toFile());
-                Tag tag = f.getTag();
-                if (tag != null) {
-                    String parsedTitle = tag.getFirst(FieldKey.TITLE);
-                    if (StringUtils.hasText(parsedTitle)) music.setTitle(parsedTitle);
-                    
-                    String parsedArtist = tag.getFirst(FieldKey.ARTIST);
-                    if (StringUtils.hasText(parsedArtist)) music.setArtist(parsedArtist);
-                    
-                    String parsedAlbum = tag.getFirst(FieldKey.ALBUM);
-                    if (StringUtils.hasText(parsedAlbum)) music.setAlbum(parsedAlbum);
-                }
-                music.setDuration((long) f.getAudioHeader().getTrackLength());
-            } catch (Exception e) {
-                System.err.println("Failed to parse metadata for " + originalFilename + ": " + e.getMessage());
-            }
+            targetPath = musicStorage.newAudioPath(uuid, extension);
 
-            // 2. Override with user provided metadata if present
-            if (StringUtils.hasText(title)) {
-                music.setTitle(title);
-            }
-            if (StringUtils.hasText(artist)) {
-                music.setArtist(artist);
-            }
-            if (StringUtils.hasText(album)) {
-                music.setAlbum(album);
+            MessageDigest digest = ChecksumUtil.newDigest();
+            StorageDisk disk = musicStorage.diskOf(targetPath.toFile());
+            try (InputStream in = new DigestInputStream(file.getInputStream(), digest);
+                 OutputStream out = disk.trackWrite(Files.newOutputStream(targetPath));
+                 RequestTrace.Span ignored = RequestTrace.start(RequestTrace.Stage.FILE, "upload")) {
+                in.transferTo(out);
             }
-
-            musicRepository.save(music);
+            
+            Music music = musicIngestService.ingest(uuid, targetPath, originalFilename, extension,
+                    ChecksumUtil.toHex(digest), title, artist, album);
             
             result.put("id", music.getId());
             result.put("title", music.getTitle());
             result.put("artist", music.getArtist());
             
-        } catch (IOException e) {
+        } catch (IOException | RuntimeException e) {
+            // Don't leave an orphan behind when the record was never saved
+            if (targetPath != null) {
+                FileUtils.deleteQuietly(targetPath.toFile());
+            }
             return ApiResponse.error(500, "Failed to upload file: " + e.getMessage());
         }
 
         return ApiResponse.success(result);
     }
 
+    @PostMapping("/batch/update")
+    public ApiResponse<Map<String, Object>> batchUpdate(@RequestBody BatchMusicRequest request) {
+        try {
+            List<Music> updated = musicBatchService.update(request);
+            Map<String, Object> result = new HashMap<>();
+            result.put("updated", updated.size());
+            result.put("ids", updated.stream().map(Music::getId).collect(Collectors.toList()));
+            return ApiResponse.success(result);
+        } catch (IllegalArgumentException e) {
+            return ApiResponse.error(400, e.getMessage());
+        }
+    }
+
+    @PostMapping("/batch/delete")
+    public ApiResponse<Map<String, Object>> batchDelete(@RequestBody BatchMusicRequest request) {
+        try {
+            List<Music> deleted = musicBatchService.delete(request);
+            Map<String, Object> result = new HashMap<>();
+            result.put("deleted", deleted.size());
+            result.put("ids", deleted.stream().map(Music::getId).collect(Collectors.toList()));
+            // Files go in the background
+            result.put("pending_file_deletes", musicBatchService.getPendingFileDeletes());
+            return ApiResponse.success(result);
+        } catch (IllegalArgumentException e) {
+            return ApiResponse.error(400, e.getMessage());
+        }
+    }
+
     @GetMapping("/stream/{id}")
-    public ResponseEntity<Resource> stream(@PathVariable String id, @RequestHeader(value = "Range", required = false) String rangeHeader) {
+    public ResponseEntity<Resource> stream(@PathVariable String id, @RequestHeader(value = "Range", required = false) String rangeHeader,
+                                           HttpServletRequest request, HttpServletResponse servletResponse) throws IOException {
         // Simple implementation relying on Spring's default Resource handling which supports Range if configured correctly.
         // For better control, we would use ResourceRegion, but for "simple" requirements, FileSystemResource is often enough
         // provided we don't disable standard converters.
         // However, to ensure 206 is returned, let's let Spring handle it or manually check.
         // A common pattern in Spring Controllers for media is returning ResponseEntity<Resource> directly.
         // If the client sends "Range", Spring's ResourceHttpMessageConverter SHOULD handle it.
-        return serveFile(id, true);
+        ResponseEntity<Resource> response = serveFile(id, true, request, servletResponse);
+        User user = (User) request.getAttribute(AuthInterceptor.CURRENT_USER_ATTR);
+        // Counted here even when another node served it, that node sees a forwarded request
+        boolean served = response == null ? servletResponse.getStatus() / 100 == 2 : response.getStatusCode().is2xxSuccessful();
+        if (user != null && served && request.getHeader(ClusterRouter.HOP_HEADER) == null) {
+            playStatsService.recordStream(user.getId(), id, rangeHeader);
+        }
+        return response;
     }
 
     @GetMapping("/cover/{id}")
-    public ResponseEntity<Resource> cover(@PathVariable String id) {
-        return serveFile(id, false);
+    public ResponseEntity<Resource> cover(@PathVariable String id, HttpServletRequest request,
+                                          HttpServletResponse servletResponse) throws IOException {
+        return serveFile(id, false, request, servletResponse);
+    }
+
+    /**
+     * Seek bar peaks, see {@link WaveformPeaks} for the format. A given audio file and resolution never
+     * changes, so it is cached for good unless the stored peaks are coarser than asked. 202 while the peaks are
+     * still being computed, 404 if they can't be.
+     *
+     * @return null when the request was forwarded to another node, which already wrote the response
+     */
+    @GetMapping("/waveform/{id}")
+    public ResponseEntity<byte[]> waveform(@PathVariable String id,
+                                           @RequestParam(defaultValue = "" + WaveformService.DEFAULT_POINTS) int points,
+                                           HttpServletRequest request, HttpServletResponse servletResponse) throws IOException {
+        Optional<Music> record = musicRepository.findById(id);
+        if (record.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        File file = musicStorage.locate(record.get().getFilePath());
+        if (file == null) {
+            if (clusterRouter.forward(id, request, servletResponse)) {
+                return null;
+            }
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        // The checksum changes when a replica replaces the audio, and with it the peaks
+        String checksum = record.get().getChecksum();
+        String version = (StringUtils.hasText(checksum) ? checksum.substring(0, Math.min(16, checksum.length())) + "-" : "")
+                + "v" + WaveformPeaks.VERSION;
+        CacheControl immutable = CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable();
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        String etag = waveformEtag(id, points, version);
+        if (etag.equals(ifNoneMatch)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(immutable).build();
+        }
+
+        WaveformService.Waveform waveform;
+        try {
+            waveform = waveformService.find(record.get(), file, points);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        switch (waveform.getState()) {
+            case READY:
+                if (waveform.getPointCount() == points) {
+                    return ResponseEntity.ok()
+                            .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                            .eTag(etag)
+                            .cacheControl(immutable)
+                            .body(waveform.getData());
+                }
+                // Coarser peaks stored before app.waveform.points was raised, revalidated so a client never pins them
+                String reducedEtag = waveformEtag(id, waveform.getPointCount(), version);
+                if (reducedEtag.equals(ifNoneMatch)) {
+                    return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(reducedEtag).cacheControl(CacheControl.noCache()).build();
+                }
+                return ResponseEntity.ok()
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .eTag(reducedEtag)
+                        .cacheControl(CacheControl.noCache())
+                        .body(waveform.getData());
+            case PENDING:
+                return ResponseEntity.status(HttpStatus.ACCEPTED)
+                        .header(HttpHeaders.RETRY_AFTER, "2")
+                        .cacheControl(CacheControl.noStore())
+                        .build();
+            default:
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+    }
+
+    private static String waveformEtag(String id, int points, String version) {
+        return "\"" + id + "-" + points + "-" + version + "\"";
     }
 
-    private ResponseEntity<Resource> serveFile(String id, boolean isAudio) {
-        return musicRepository.findById(id).map(music -> {
+    /**
+     * @return null when the request was forwarded to another node, which already wrote the response
+     */
+    private ResponseEntity<Resource> serveFile(String id, boolean isAudio, HttpServletRequest request,
+                                               HttpServletResponse servletResponse) throws IOException {
+        Optional<Music> record = musicRepository.findById(id);
+        String storedPath = record.map(m -> isAudio ? m.getFilePath() : m.getCoverPath()).orElse(null);
+        if (record.isPresent() && (storedPath == null || musicStorage.locate(storedPath) == null)
+                && clusterRouter.forward(id, request, servletResponse)) {
+            return null;
+        }
+        return record.map(music -> {
             String path = isAudio ? music.getFilePath() : music.getCoverPath();
             if (path == null) return ResponseEntity.status(HttpStatus.NOT_FOUND).<Resource>build();
 
-            File file = new File(path);
-            if (!file.exists()) {
+            // Audio with copies on several disks is read from the least busy one
+            File file = isAudio ? musicStorage.locateForRead(path) : musicStorage.locate(path);
+            if (file == null) {
                 return ResponseEntity.status(HttpStatus.NOT_FOUND).<Resource>build();
             }
 
-            FileSystemResource resource = new FileSystemResource(file);
+            Resource resource = isAudio ? readAheadService.resolve(id, file) : null;
+            if (resource == null) {
+                resource = headCacheService.resolve(id, file, isAudio);
+            }
+            if (isAudio) {
+                // Far enough in, the next track on the album is read ahead
+                resource = readAheadService.watch(music, file, resource);
+            }
+            StorageDisk disk = isAudio ? musicStorage.diskOf(file) : null;
+            if (disk != null) {
+                resource = new DiskReadResource(file, resource, disk);
+            }
             MediaType mediaType;
             if (isAudio) {
                 // Simple detection
@@ -219,7 +420,36 @@ public class MusicController {
 
             return ResponseEntity.ok()
                     .contentType(mediaType)
-                    .body((Resource) resource);
+                    .body(resource);
         }).orElse(ResponseEntity.status(HttpStatus.NOT_FOUND).build());
     }
+
+    private List<Music> toDtoList(List<String> ids) {
+        List<Music> resultList = new ArrayList<>();
+        for (String id : ids) {
+            musicRepository.findById(id).ifPresent(m -> resultList.add(toDto(m)));
+        }
+        return resultList;
+    }
+
+    // Also used by PlaylistController
+    static Music toDto(Music m) {
+        Music dto = new Music();
+        // Copy properties (simple clone or use BeanUtils)
+        dto.setId(m.getId());
+        dto.setTitle(m.getTitle());
+        dto.setArtist(m.getArtist());
+        dto.setAlbum(m.getAlbum());
+        dto.setDuration(m.getDuration());
+        dto.setTrackNumber(m.getTrackNumber());
+        dto.setFormat(m.getFormat());
+        dto.setVersion(m.getVersion());
+
+        // Generate URLs
+        String host = ServletUriComponentsBuilder.fromCurrentContextPath().toUriString();
+        dto.setAudio_url(host + "/music/stream/" + m.getId());
+        dto.setCover_url(host + "/music/cover/" + m.getId());
+
+        return dto;
+    }
 }
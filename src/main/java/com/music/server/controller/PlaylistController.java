@@ -0,0 +1,109 @@
+package com.music.server.controller;
+
+import com.music.server.config.AuthInterceptor;
+import com.music.server.model.*;
+import com.music.server.service.PlaylistService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * The current user's playlists. Tracks are addressed by position, so one request can insert, remove
+ * or move within a playlist of tens of thousands of tracks.
+ */
+@RestController
+@RequestMapping("/playlists")
+public class PlaylistController {
+
+    private final PlaylistService playlistService;
+
+    public PlaylistController(PlaylistService playlistService) {
+        this.playlistService = playlistService;
+    }
+
+    @GetMapping
+    public ApiResponse<List<Playlist>> list(HttpServletRequest request) {
+        return call(request, playlistService::list);
+    }
+
+    @PostMapping
+    public ApiResponse<Playlist> create(@RequestBody CreatePlaylistRequest body, HttpServletRequest request) {
+        return call(request, userId -> playlistService.create(userId, body.getName()));
+    }
+
+    @GetMapping("/{id}")
+    public ApiResponse<Map<String, Object>> get(@PathVariable String id,
+                                                @RequestParam(defaultValue = "1") int page,
+                                                @RequestParam(defaultValue = "50") int size,
+                                                HttpServletRequest request) {
+        int pageSize = Math.max(1, Math.min(size, 500));
+        int from = (Math.max(page, 1) - 1) * pageSize;
+        return call(request, userId -> {
+            Playlist playlist = playlistService.get(userId, id);
+            Map<String, Object> data = new HashMap<>();
+            data.put("playlist", playlist);
+            data.put("total", playlist.getSize());
+            data.put("list", playlistService.tracks(userId, id, from, pageSize).stream()
+                    .map(MusicController::toDto).collect(Collectors.toList()));
+            return data;
+        });
+    }
+
+    @PutMapping("/{id}")
+    public ApiResponse<Playlist> rename(@PathVariable String id, @RequestBody CreatePlaylistRequest body,
+                                        HttpServletRequest request) {
+        return call(request, userId -> playlistService.rename(userId, id, body.getName()));
+    }
+
+    @DeleteMapping("/{id}")
+    public ApiResponse<Void> delete(@PathVariable String id, HttpServletRequest request) {
+        return call(request, userId -> {
+            playlistService.delete(userId, id);
+            return null;
+        });
+    }
+
+    @PostMapping("/{id}/tracks")
+    public ApiResponse<Playlist> addTracks(@PathVariable String id, @RequestBody PlaylistTracksRequest body,
+                                           HttpServletRequest request) {
+        return call(request, userId -> playlistService.addTracks(userId, id, body.getIds(), body.getIndex()));
+    }
+
+    @DeleteMapping("/{id}/tracks")
+    public ApiResponse<Playlist> removeTracks(@PathVariable String id, @RequestParam int index,
+                                              @RequestParam(defaultValue = "1") int count, HttpServletRequest request) {
+        return call(request, userId -> playlistService.removeTracks(userId, id, index, count));
+    }
+
+    @PostMapping("/{id}/tracks/move")
+    public ApiResponse<Playlist> move(@PathVariable String id, @RequestBody MovePlaylistTrackRequest body,
+                                      HttpServletRequest request) {
+        return call(request, userId -> playlistService.move(userId, id, body.getFrom(), body.getTo()));
+    }
+
+    private <T> ApiResponse<T> call(HttpServletRequest request, Function<String, T> action) {
+        User user = (User) request.getAttribute(AuthInterceptor.CURRENT_USER_ATTR);
+        if (user == null) {
+            return ApiResponse.error(401, "Unauthorized");
+        }
+        try {
+            return ApiResponse.success(action.apply(user.getId()));
+        } catch (IllegalArgumentException e) {
+            return ApiResponse.error(400, e.getMessage());
+        } catch (NoSuchElementException e) {
+            return ApiResponse.error(404, e.getMessage());
+        } catch (IllegalStateException e) {
+            return ApiResponse.error(409, e.getMessage());
+        } catch (UncheckedIOException e) {
+            // Logged by the repository, nothing was changed
+            return ApiResponse.error(500, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.music.server.controller;
+
+import com.music.server.config.BulkheadFilter;
+import com.music.server.model.ApiResponse;
+import com.music.server.service.DiskReplicaService;
+import com.music.server.service.HeadCacheService;
+import com.music.server.service.PasswordService;
+import com.music.server.service.ReadAheadService;
+import com.music.server.service.SearchCacheService;
+import com.music.server.service.WaveformService;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/stats")
+public class StatsController {
+
+    private final HeadCacheService headCacheService;
+
+    private final BulkheadFilter bulkheadFilter;
+
+    private final PasswordService passwordService;
+
+    private final SearchCacheService searchCacheService;
+
+    private final WaveformService waveformService;
+
+    private final DiskReplicaService diskReplicaService;
+
+    private final ReadAheadService readAheadService;
+
+    public StatsController(HeadCacheService headCacheService, BulkheadFilter bulkheadFilter, PasswordService passwordService,
+                           SearchCacheService searchCacheService, WaveformService waveformService,
+                           DiskReplicaService diskReplicaService, ReadAheadService readAheadService) {
+        this.headCacheService = headCacheService;
+        this.bulkheadFilter = bulkheadFilter;
+        this.passwordService = passwordService;
+        this.searchCacheService = searchCacheService;
+        this.waveformService = waveformService;
+        this.diskReplicaService = diskReplicaService;
+        this.readAheadService = readAheadService;
+    }
+
+    @GetMapping("/head-cache")
+    public ApiResponse<Map<String, Object>> headCache() {
+        return ApiResponse.success(headCacheService.stats());
+    }
+
+    @GetMapping("/bulkheads")
+    public ApiResponse<Map<String, Object>> bulkheads() {
+        return ApiResponse.success(bulkheadFilter.stats());
+    }
+
+    @GetMapping("/password-hashing")
+    public ApiResponse<Map<String, Object>> passwordHashing() {
+        return ApiResponse.success(passwordService.stats());
+    }
+
+    @GetMapping("/search-cache")
+    public ApiResponse<Map<String, Object>> searchCache() {
+        return ApiResponse.success(searchCacheService.stats());
+    }
+
+    @GetMapping("/waveform")
+    public ApiResponse<Map<String, Object>> waveform() {
+        return ApiResponse.success(waveformService.stats());
+    }
+
+    @GetMapping("/disks")
+    public ApiResponse<Map<String, Object>> disks() {
+        return ApiResponse.success(diskReplicaService.stats());
+    }
+
+    @GetMapping("/read-ahead")
+    public ApiResponse<Map<String, Object>> readAhead() {
+        return ApiResponse.success(readAheadService.stats());
+    }
+}
@@ -0,0 +1,64 @@
+package com.music.server.controller;
+
+import com.music.server.model.ApiResponse;
+import com.music.server.model.ScrubReport;
+import com.music.server.service.StorageMigrationService;
+import com.music.server.service.StorageScrubService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/storage")
+public class StorageController {
+
+    @Value("${app.scrub.remove-orphans}")
+    private boolean defaultRemoveOrphans;
+
+    @Value("${app.scrub.verify-checksums}")
+    private boolean defaultVerifyChecksums;
+
+    private final StorageScrubService storageScrubService;
+
+    private final StorageMigrationService storageMigrationService;
+
+    public StorageController(StorageScrubService storageScrubService, StorageMigrationService storageMigrationService) {
+        this.storageScrubService = storageScrubService;
+        this.storageMigrationService = storageMigrationService;
+    }
+
+    @GetMapping("/scrub")
+    public ApiResponse<Map<String, Object>> scrubReport() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("running", storageScrubService.isRunning());
+        data.put("report", storageScrubService.getLastReport());
+        return ApiResponse.success(data);
+    }
+
+    @PostMapping("/scrub")
+    public ApiResponse<ScrubReport> scrub(@RequestParam(required = false) Boolean remove,
+                                          @RequestParam(required = false) Boolean verify) {
+        boolean started = storageScrubService.trigger(
+                remove == null ? defaultRemoveOrphans : remove,
+                verify == null ? defaultVerifyChecksums : verify);
+        if (!started) {
+            return ApiResponse.error(409, "Scrub already running");
+        }
+        return ApiResponse.success(storageScrubService.getLastReport());
+    }
+
+    @GetMapping("/migrate")
+    public ApiResponse<Map<String, Object>> migrationStatus() {
+        return ApiResponse.success(storageMigrationService.status());
+    }
+
+    @PostMapping("/migrate")
+    public ApiResponse<Map<String, Object>> migrate() {
+        if (!storageMigrationService.start()) {
+            return ApiResponse.error(409, "Migration already running");
+        }
+        return ApiResponse.success(storageMigrationService.status());
+    }
+}
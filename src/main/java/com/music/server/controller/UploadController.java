@@ -0,0 +1,137 @@
+package com.music.server.controller;
+
+import com.music.server.config.AuthInterceptor;
+import com.music.server.model.ApiResponse;
+import com.music.server.model.CreateUploadRequest;
+import com.music.server.model.Music;
+import com.music.server.model.UploadSession;
+import com.music.server.model.User;
+import com.music.server.service.UploadSessionService;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Resumable uploads for large files: create a session, PUT the chunks (any order, in parallel, retries
+ * allowed), then complete. GET tells a reconnecting client which chunks are still missing.
+ */
+@RestController
+@RequestMapping("/music/uploads")
+@Slf4j
+public class UploadController {
+
+    private final UploadSessionService uploadSessionService;
+
+    public UploadController(UploadSessionService uploadSessionService) {
+        this.uploadSessionService = uploadSessionService;
+    }
+
+    @PostMapping
+    public ApiResponse<Map<String, Object>> create(@RequestBody CreateUploadRequest body, HttpServletRequest request) {
+        User user = (User) request.getAttribute(AuthInterceptor.CURRENT_USER_ATTR);
+        if (user == null) {
+            return ApiResponse.error(401, "Unauthorized");
+        }
+        try {
+            return ApiResponse.success(toStatus(uploadSessionService.create(user.getId(), body)));
+        } catch (IllegalArgumentException e) {
+            return ApiResponse.error(400, e.getMessage());
+        } catch (IOException e) {
+            log.error("Failed to create upload session", e);
+            return ApiResponse.error(500, "Failed to create upload: " + e.getMessage());
+        }
+    }
+
+    @PutMapping("/{id}/chunks/{index}")
+    public ApiResponse<Map<String, Object>> putChunk(@PathVariable String id, @PathVariable int index,
+                                                     HttpServletRequest request) {
+        User user = (User) request.getAttribute(AuthInterceptor.CURRENT_USER_ATTR);
+        if (user == null) {
+            return ApiResponse.error(401, "Unauthorized");
+        }
+        try {
+            UploadSession session = uploadSessionService.writeChunk(user.getId(), id, index, request.getInputStream());
+            Map<String, Object> result = new HashMap<>();
+            result.put("index", index);
+            result.put("received", session.getChunkCount() - uploadSessionService.missingChunks(session).size());
+            result.put("chunk_count", session.getChunkCount());
+            return ApiResponse.success(result);
+        } catch (NoSuchElementException e) {
+            return ApiResponse.error(404, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            return ApiResponse.error(400, e.getMessage());
+        } catch (IllegalStateException e) {
+            return ApiResponse.error(409, e.getMessage());
+        } catch (IOException e) {
+            log.warn("Failed to write chunk {} of upload {}: {}", index, id, e.getMessage());
+            return ApiResponse.error(500, "Failed to write chunk: " + e.getMessage());
+        }
+    }
+
+    @GetMapping("/{id}")
+    public ApiResponse<Map<String, Object>> status(@PathVariable String id, HttpServletRequest request) {
+        User user = (User) request.getAttribute(AuthInterceptor.CURRENT_USER_ATTR);
+        if (user == null) {
+            return ApiResponse.error(401, "Unauthorized");
+        }
+        try {
+            return ApiResponse.success(toStatus(uploadSessionService.get(user.getId(), id)));
+        } catch (NoSuchElementException e) {
+            return ApiResponse.error(404, e.getMessage());
+        }
+    }
+
+    @PostMapping("/{id}/complete")
+    public ApiResponse<Map<String, Object>> complete(@PathVariable String id, HttpServletRequest request) {
+        User user = (User) request.getAttribute(AuthInterceptor.CURRENT_USER_ATTR);
+        if (user == null) {
+            return ApiResponse.error(401, "Unauthorized");
+        }
+        try {
+            Music music = uploadSessionService.complete(user.getId(), id);
+            Map<String, Object> result = new HashMap<>();
+            result.put("id", music.getId());
+            result.put("title", music.getTitle());
+            result.put("artist", music.getArtist());
+            return ApiResponse.success(result);
+        } catch (NoSuchElementException e) {
+            return ApiResponse.error(404, e.getMessage());
+        } catch (IllegalStateException e) {
+            return ApiResponse.error(409, e.getMessage());
+        } catch (IOException | RuntimeException e) {
+            log.error("Failed to complete upload {}", id, e);
+            return ApiResponse.error(500, "Failed to upload file: " + e.getMessage());
+        }
+    }
+
+    @DeleteMapping("/{id}")
+    public ApiResponse<Void> abort(@PathVariable String id, HttpServletRequest request) {
+        User user = (User) request.getAttribute(AuthInterceptor.CURRENT_USER_ATTR);
+        if (user == null) {
+            return ApiResponse.error(401, "Unauthorized");
+        }
+        try {
+            uploadSessionService.abort(user.getId(), id);
+            return ApiResponse.success();
+        } catch (NoSuchElementException e) {
+            return ApiResponse.error(404, e.getMessage());
+        }
+    }
+
+    private Map<String, Object> toStatus(UploadSession session) {
+        Map<String, Object> status = new HashMap<>();
+        status.put("id", session.getId());
+        status.put("filename", session.getFilename());
+        status.put("size", session.getSize());
+        status.put("chunk_size", session.getChunkSize());
+        status.put("chunk_count", session.getChunkCount());
+        status.put("missing", uploadSessionService.missingChunks(session));
+        status.put("update_time", session.getUpdateTime());
+        return status;
+    }
+}
@@ -4,6 +4,7 @@ package com.music.server.controller;
 import com.google.common.collect.Lists;
 import com.music.server.model.*;
 import com.music.server.repository.UserManageRepository;
+import com.music.server.service.PasswordService;
 import io.micrometer.common.util.StringUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -14,6 +15,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
 
 import static com.music.server.constants.RedisKeyConstant.*;
@@ -30,9 +32,12 @@ public class UserManageController {
 
     private final UserManageRepository userManageRepository;
 
-    public UserManageController(StringRedisTemplate redisTemplate, UserManageRepository userManageRepository) {
+    private final PasswordService passwordService;
+
+    public UserManageController(StringRedisTemplate redisTemplate, UserManageRepository userManageRepository, PasswordService passwordService) {
         this.redisTemplate = redisTemplate;
         this.userManageRepository = userManageRepository;
+        this.passwordService = passwordService;
     }
 
     @PostMapping("/create")
@@ -40,9 +45,15 @@ public class UserManageController {
         if (Objects.isNull(request) || StringUtils.isEmpty(request.getUsername()) || StringUtils.isEmpty(request.getPassword())) {
             return ApiResponse.error(1001, "Invalid username or password");
         }
+        String hash;
+        try {
+            hash = passwordService.hash(request.getPassword());
+        } catch (RejectedExecutionException e) {
+            return ApiResponse.error(503, "Server busy, retry later");
+        }
         // 持久化数据
-        User user = userManageRepository.save(new User(UUID.randomUUID().toString(), request.getUsername(), request.getPassword(), Lists.newArrayList(ROLE_USER)));
-        return ApiResponse.success(user);
+        User user = userManageRepository.save(new User(UUID.randomUUID().toString(), request.getUsername(), hash, Lists.newArrayList(ROLE_USER)));
+        return ApiResponse.success(withoutPassword(user));
     }
 
 
@@ -82,6 +93,10 @@ public class UserManageController {
 
     @GetMapping("/list")
     public ApiResponse<List<User>> list() {
-        return ApiResponse.success(userManageRepository.findAll().stream().filter(item -> !adminUsername.equals(item.getUsername())).collect(Collectors.toList()));
+        return ApiResponse.success(userManageRepository.findAll().stream().filter(item -> !adminUsername.equals(item.getUsername())).map(this::withoutPassword).collect(Collectors.toList()));
+    }
+
+    private User withoutPassword(User user) {
+        return new User(user.getId(), user.getUsername(), null, user.getRoles());
     }
 }
@@ -0,0 +1,72 @@
+package com.music.server.controller;
+
+import com.music.server.config.AuthInterceptor;
+import com.music.server.model.ApiResponse;
+import com.music.server.model.Music;
+import com.music.server.model.User;
+import com.music.server.repository.MusicRepository;
+import com.music.server.service.UserTrackSetService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Adds and removes tracks in the current user's favorites and library.
+ * Listing goes through /music/list?scope=favorites|library.
+ */
+@RestController
+@RequestMapping("/music")
+public class UserTrackController {
+
+    private final MusicRepository musicRepository;
+
+    private final UserTrackSetService userTrackSetService;
+
+    public UserTrackController(MusicRepository musicRepository, UserTrackSetService userTrackSetService) {
+        this.musicRepository = musicRepository;
+        this.userTrackSetService = userTrackSetService;
+    }
+
+    @PutMapping("/favorites/{id}")
+    public ApiResponse<Map<String, Object>> addFavorite(@PathVariable String id, HttpServletRequest request) {
+        return change(UserTrackSetService.FAVORITES, id, true, request);
+    }
+
+    @DeleteMapping("/favorites/{id}")
+    public ApiResponse<Map<String, Object>> removeFavorite(@PathVariable String id, HttpServletRequest request) {
+        return change(UserTrackSetService.FAVORITES, id, false, request);
+    }
+
+    @PutMapping("/library/{id}")
+    public ApiResponse<Map<String, Object>> addToLibrary(@PathVariable String id, HttpServletRequest request) {
+        return change(UserTrackSetService.LIBRARY, id, true, request);
+    }
+
+    @DeleteMapping("/library/{id}")
+    public ApiResponse<Map<String, Object>> removeFromLibrary(@PathVariable String id, HttpServletRequest request) {
+        return change(UserTrackSetService.LIBRARY, id, false, request);
+    }
+
+    private ApiResponse<Map<String, Object>> change(String kind, String id, boolean add, HttpServletRequest request) {
+        User user = (User) request.getAttribute(AuthInterceptor.CURRENT_USER_ATTR);
+        if (user == null) {
+            return ApiResponse.error(401, "Unauthorized");
+        }
+        Optional<Music> music = musicRepository.findById(id);
+        if (music.isEmpty()) {
+            return ApiResponse.error(404, "Music not found");
+        }
+        boolean changed = add
+                ? userTrackSetService.add(user.getId(), kind, music.get())
+                : userTrackSetService.remove(user.getId(), kind, music.get());
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("id", id);
+        result.put("changed", changed);
+        result.put("count", userTrackSetService.count(user.getId(), kind));
+        return ApiResponse.success(result);
+    }
+}
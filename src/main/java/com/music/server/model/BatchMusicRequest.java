@@ -0,0 +1,30 @@
+package com.music.server.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Selects tracks by ids or by filter (not both). Filter fields are exact, case-insensitive
+ * matches and every given field must match.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchMusicRequest {
+    private List<String> ids;
+    private Fields filter;
+    // Update only: fields to overwrite, null means unchanged
+    private Fields set;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Fields {
+        private String title;
+        private String artist;
+        private String album;
+    }
+}
@@ -0,0 +1,26 @@
+package com.music.server.model;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+public class ChangeFeed {
+    // Names the version sequence. Changes whenever versions start over or the log is lost, and differs
+    // between nodes, so a version is only comparable under the same epoch
+    private String epoch;
+    // Latest catalog version
+    private long version;
+    // The log no longer reaches back to the client's version, or the client's epoch is not this one:
+    // re-list the catalog and continue from version under epoch
+    private boolean resync;
+    // Current state of every track saved since the client's version
+    private List<Music> updated = new ArrayList<>();
+    private List<String> deleted = new ArrayList<>();
+    // Pass as since= for the next page
+    private long next;
+    private boolean hasMore;
+}
@@ -0,0 +1,12 @@
+package com.music.server.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CreatePlaylistRequest {
+    private String name;
+}
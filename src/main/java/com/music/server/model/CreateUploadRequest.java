@@ -0,0 +1,18 @@
+package com.music.server.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CreateUploadRequest {
+    private String filename;
+    private Long size;
+    // Optional, server default if absent
+    private Integer chunkSize;
+    private String title;
+    private String artist;
+    private String album;
+}
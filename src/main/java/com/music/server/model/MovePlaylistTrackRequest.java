@@ -0,0 +1,14 @@
+package com.music.server.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MovePlaylistTrackRequest {
+    private Integer from;
+    // Position the track ends up at
+    private Integer to;
+}
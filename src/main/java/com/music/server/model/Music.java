@@ -19,10 +19,16 @@ public class Music implements Serializable {
     private String filePath;
     
     private Long duration; // Seconds
+    private Integer trackNumber; // Position on the album from the track tag, null if untagged
     private String format; // mp3, flac
     private Long createTime;
+    private String checksum; // SHA-256 of the audio file, hex
+    private Long version; // Catalog version of the last save, assigned by the repository
+    private Integer ordinal; // Dense track number for per-user bitmaps, assigned by the repository, never reused
+    private Long editedAt; // Millis of the last batch metadata edit, the later edit wins between nodes
     
     // Transient fields for API response (full URLs)
     private String cover_url;
     private String audio_url;
+    private Long play_count;
 }
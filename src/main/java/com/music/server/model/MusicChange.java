@@ -0,0 +1,17 @@
+package com.music.server.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One entry of the catalog change log. Deletes are kept as tombstones.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MusicChange {
+    private long version;
+    private String id;
+    private boolean deleted;
+}
@@ -0,0 +1,21 @@
+package com.music.server.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Playlist header. The tracks are kept apart as track ordinals, see PlaylistRepository.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class Playlist {
+    private String id;
+    private String ownerId;
+    private String name;
+    private Long createTime;
+    private Long updateTime;
+    // Entries, including tracks deleted since and not pruned yet
+    private int size;
+}
@@ -0,0 +1,16 @@
+package com.music.server.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PlaylistTracksRequest {
+    private List<String> ids;
+    // Position of the first new track, appended if absent
+    private Integer index;
+}
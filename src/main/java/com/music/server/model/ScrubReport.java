@@ -0,0 +1,34 @@
+package com.music.server.model;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+public class ScrubReport {
+    private Long startTime;
+    private Long finishTime;
+    private boolean removeOrphans;
+    private boolean verifyChecksums;
+
+    private long filesScanned;
+    private long bytesVerified;
+
+    // Files no Music record points at, older than the grace period
+    private long orphanCount;
+    private long orphansRemoved;
+    private List<String> orphans = new ArrayList<>();
+
+    // Music records whose file is missing
+    private long danglingCount;
+    private List<String> danglingIds = new ArrayList<>();
+
+    // Music records whose file no longer matches the stored checksum
+    private long corruptCount;
+    private List<String> corruptIds = new ArrayList<>();
+
+    private List<String> errors = new ArrayList<>();
+}
@@ -0,0 +1,26 @@
+package com.music.server.model;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A resumable upload in progress, persisted next to its part file so it survives a restart.
+ */
+@Data
+@NoArgsConstructor
+public class UploadSession {
+    private String id;
+    private String ownerId;
+    private String filename;
+    private String extension;
+    private long size;
+    private int chunkSize;
+    private int chunkCount;
+    private String title;
+    private String artist;
+    private String album;
+    private Long createTime;
+    private Long updateTime;
+    // BitSet.toLongArray() of the received chunks
+    private long[] received;
+}
@@ -2,16 +2,30 @@ package com.music.server.repository;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.music.server.config.StartupTracker;
+import com.music.server.config.WriterLease;
+import com.music.server.model.ChangeFeed;
 import com.music.server.model.Music;
+import com.music.server.model.MusicChange;
 import jakarta.annotation.PostConstruct;
+import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -21,19 +35,103 @@ public class JsonMusicRepository implements MusicRepository {
     @Value("${app.music.data-file}")
     private String dataFilePath;
 
+    @Value("${app.music.changes-file}")
+    private String changesFilePath;
+
+    @Value("${app.music.change-log-size}")
+    private int changeLogSize;
+
+    @Value("${app.startup.background-load}")
+    private boolean backgroundLoad;
+
     private final ObjectMapper objectMapper;
+
+    private final StartupTracker startupTracker;
+
+    private final WriterLease writerLease;
+
+    // Opened once the data file has been read, reads and writes wait for it
+    private final CountDownLatch loaded = new CountDownLatch(1);
     private final Map<String, Music> musicCache = new ConcurrentHashMap<>();
 
-    public JsonMusicRepository(ObjectMapper objectMapper) {
+    // Version assignment, cache update and log append happen together under changeLock
+    private final Object changeLock = new Object();
+    private final List<MusicChange> changes = new ArrayList<>();
+    // Written under changeLock, volatile for generation()
+    private volatile long version;
+    // The log holds every change after this version, versions are contiguous from here
+    private long floor;
+    // New whenever the log starts over, see ChangeFeed. Guarded by changeLock
+    private String epoch;
+    // Ordinal -> id, null for deleted tracks. Guarded by changeLock
+    private final List<String> idsByOrdinal = new ArrayList<>();
+    // Ordinal for the next new track. Saved with the change log and never handed out twice, favorites and
+    // playlists of a deleted track must not point at a newer one. Guarded by changeLock
+    private int nextOrdinal;
+    // Lower-cased artist -> ordinals. Guarded by changeLock
+    private final Map<String, RoaringBitmap> ordinalsByArtist = new HashMap<>();
+    // Lower-cased album -> ordinals, across artists. Guarded by changeLock
+    private final Map<String, RoaringBitmap> ordinalsByAlbum = new HashMap<>();
+    private final List<Consumer<List<Music>>> deleteListeners = new CopyOnWriteArrayList<>();
+
+    public JsonMusicRepository(ObjectMapper objectMapper, StartupTracker startupTracker, WriterLease writerLease) {
         this.objectMapper = objectMapper;
+        this.startupTracker = startupTracker;
+        this.writerLease = writerLease;
     }
 
     @PostConstruct
     public void init() {
-        loadData();
+        if (backgroundLoad) {
+            startupTracker.runInBackground("music-catalog", this::loadData);
+        } else {
+            loadData();
+        }
+        writerLease.onAcquired("music-catalog", this::reload);
+    }
+
+    // The previous writer saved after this instance loaded. Readers keep seeing whole records meanwhile.
+    private void reload() {
+        awaitLoaded();
+        File file = new File(dataFilePath);
+        if (!file.exists()) {
+            return;
+        }
+        boolean changed;
+        synchronized (changeLock) {
+            changes.clear();
+            idsByOrdinal.clear();
+            ordinalsByArtist.clear();
+            ordinalsByAlbum.clear();
+            readRecords(file);
+            changed = readChanges() | buildOrdinals();
+        }
+        if (changed) {
+            saveData();
+        }
     }
 
     private void loadData() {
+        try {
+            readData();
+        } finally {
+            loaded.countDown();
+        }
+    }
+
+    private void awaitLoaded() {
+        if (loaded.getCount() == 0) {
+            return;
+        }
+        try {
+            loaded.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for data to load", e);
+        }
+    }
+
+    private void readData() {
         File file = new File(dataFilePath);
         if (!file.exists()) {
             log.warn("Music data file not found at {}, creating empty DB.", dataFilePath);
@@ -43,56 +141,459 @@ public class JsonMusicRepository implements MusicRepository {
             return;
         }
 
+        readRecords(file);
+        boolean newEpoch = readChanges();
+        // New ordinals must survive a restart, favorites point at them; so must a new epoch
+        if (buildOrdinals() | newEpoch) {
+            saveData();
+        }
+    }
+
+    private void readRecords(File file) {
         try {
             List<Music> list = objectMapper.readValue(file, new TypeReference<List<Music>>() {});
-            list.forEach(m -> musicCache.put(m.getId(), m));
+            Map<String, Music> read = new HashMap<>();
+            list.forEach(m -> read.put(m.getId(), m));
+            musicCache.putAll(read);
+            musicCache.keySet().retainAll(read.keySet());
             log.info("Loaded {} music items.", musicCache.size());
         } catch (IOException e) {
             log.error("Failed to load music data", e);
         }
     }
 
+    /**
+     * @return true if records had to be numbered
+     */
+    private boolean buildOrdinals() {
+        synchronized (changeLock) {
+            List<Music> unnumbered = new ArrayList<>();
+            List<Music> numbered = new ArrayList<>();
+            for (Music m : musicCache.values()) {
+                (m.getOrdinal() == null || m.getOrdinal() < 0 ? unnumbered : numbered).add(m);
+            }
+            numbered.sort(Comparator.comparing(Music::getOrdinal));
+            for (Music m : numbered) {
+                int ordinal = m.getOrdinal();
+                while (idsByOrdinal.size() <= ordinal) {
+                    idsByOrdinal.add(null);
+                }
+                if (idsByOrdinal.get(ordinal) == null) {
+                    idsByOrdinal.set(ordinal, m.getId());
+                } else {
+                    unnumbered.add(m); // Clash, renumber
+                }
+            }
+            unnumbered.sort(Comparator.comparing(Music::getId));
+            // A log from before nextOrdinal was saved reads as 0
+            nextOrdinal = Math.max(nextOrdinal, idsByOrdinal.size());
+            for (Music m : unnumbered) {
+                assignOrdinal(m);
+            }
+            for (Music m : musicCache.values()) {
+                addToIndexes(m);
+            }
+            if (!unnumbered.isEmpty()) {
+                log.info("Assigned ordinals to {} music items.", unnumbered.size());
+            }
+            return !unnumbered.isEmpty();
+        }
+    }
+
+    /**
+     * @return true if a new epoch was started
+     */
+    private boolean readChanges() {
+        synchronized (changeLock) {
+            File file = new File(changesFilePath);
+            if (file.exists()) {
+                try {
+                    ChangeLogFile saved = objectMapper.readValue(file, ChangeLogFile.class);
+                    version = saved.getVersion();
+                    floor = saved.getFloor();
+                    epoch = saved.getEpoch();
+                    nextOrdinal = Math.max(nextOrdinal, saved.getNextOrdinal());
+                    changes.addAll(saved.getEntries());
+                } catch (IOException e) {
+                    log.error("Failed to load music change log, clients will resync", e);
+                }
+            }
+            long maxRecordVersion = 0;
+            boolean unversioned = false;
+            for (Music m : musicCache.values()) {
+                if (m.getVersion() == null) {
+                    unversioned = true;
+                } else {
+                    maxRecordVersion = Math.max(maxRecordVersion, m.getVersion());
+                }
+            }
+            if (unversioned || maxRecordVersion > version) {
+                // Records the log does not know about (first start, or a crash between the two writes):
+                // start a fresh log above them so every older client version resyncs
+                version = Math.max(version, maxRecordVersion) + 1;
+                for (Music m : musicCache.values()) {
+                    if (m.getVersion() == null) {
+                        m.setVersion(version);
+                    }
+                }
+                floor = version;
+                changes.clear();
+                epoch = null;
+            }
+            boolean newEpoch = epoch == null;
+            if (newEpoch) {
+                // Versions of an earlier log, possibly reused now, or another node's mean nothing here
+                epoch = UUID.randomUUID().toString();
+            }
+            log.info("Catalog version {} (epoch {}), change log holds {} entries.", version, epoch, changes.size());
+            return newEpoch;
+        }
+    }
+
     private synchronized void saveData() {
+        if (!writerLease.isHeld()) {
+            log.warn("Not saving music data, another instance is the writer");
+            return;
+        }
+        ChangeLogFile changeLog = new ChangeLogFile();
+        List<Music> snapshot;
+        synchronized (changeLock) {
+            snapshot = new ArrayList<>(musicCache.values());
+            changeLog.setVersion(version);
+            changeLog.setFloor(floor);
+            changeLog.setEpoch(epoch);
+            changeLog.setNextOrdinal(nextOrdinal);
+            changeLog.setEntries(new ArrayList<>(changes));
+        }
         try {
-            objectMapper.writeValue(new File(dataFilePath), new ArrayList<>(musicCache.values()));
+            // Data first: a crash in between leaves records newer than the log, which readChanges detects
+            writeAtomically(dataFilePath, snapshot);
+            writeAtomically(changesFilePath, changeLog);
         } catch (IOException e) {
             log.error("Failed to save music data", e);
         }
     }
 
+    // A process killed mid-write leaves the previous file, never a truncated one
+    private void writeAtomically(String filePath, Object value) throws IOException {
+        Path target = Path.of(filePath);
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        objectMapper.writeValue(tmp.toFile(), value);
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Caller holds changeLock, before putting music into the cache
+    private void index(Music music) {
+        Music previous = musicCache.get(music.getId());
+        if (previous != null) {
+            // The repository owns ordinals, whatever the caller sent
+            music.setOrdinal(previous.getOrdinal());
+            removeFromIndexes(previous);
+        } else {
+            assignOrdinal(music);
+        }
+        addToIndexes(music);
+    }
+
+    // Caller holds changeLock
+    private void assignOrdinal(Music music) {
+        int ordinal = nextOrdinal++;
+        while (idsByOrdinal.size() < ordinal) {
+            idsByOrdinal.add(null);
+        }
+        music.setOrdinal(ordinal);
+        idsByOrdinal.add(music.getId());
+    }
+
+    // Caller holds changeLock
+    private void unindex(Music music) {
+        idsByOrdinal.set(music.getOrdinal(), null);
+        removeFromIndexes(music);
+    }
+
+    private void addToIndexes(Music music) {
+        ordinalsByArtist.computeIfAbsent(indexKey(music.getArtist()), k -> new RoaringBitmap()).add(music.getOrdinal());
+        ordinalsByAlbum.computeIfAbsent(indexKey(music.getAlbum()), k -> new RoaringBitmap()).add(music.getOrdinal());
+    }
+
+    private void removeFromIndexes(Music music) {
+        removeFrom(ordinalsByArtist, indexKey(music.getArtist()), music.getOrdinal());
+        removeFrom(ordinalsByAlbum, indexKey(music.getAlbum()), music.getOrdinal());
+    }
+
+    private static void removeFrom(Map<String, RoaringBitmap> index, String key, int ordinal) {
+        RoaringBitmap ordinals = index.get(key);
+        if (ordinals != null) {
+            ordinals.remove(ordinal);
+            if (ordinals.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    private static String indexKey(String name) {
+        return name == null ? "" : name.toLowerCase();
+    }
+
+    private static boolean matchesKeyword(Music m, String k) {
+        return m.getTitle().toLowerCase().contains(k) ||
+                m.getArtist().toLowerCase().contains(k) ||
+                m.getAlbum().toLowerCase().contains(k);
+    }
+
+    // Caller holds changeLock
+    private void appendChange(String id, boolean deleted) {
+        changes.add(new MusicChange(version, id, deleted));
+        // Compact in steps rather than on every append
+        if (changes.size() > changeLogSize + changeLogSize / 4) {
+            int drop = changes.size() - changeLogSize;
+            floor = changes.get(drop - 1).getVersion();
+            changes.subList(0, drop).clear();
+        }
+    }
+
     @Override
     public List<Music> findAll() {
+        awaitLoaded();
         return new ArrayList<>(musicCache.values());
     }
 
+    @Override
+    public void forEach(Consumer<Music> action) {
+        awaitLoaded();
+        musicCache.values().forEach(action);
+    }
+
     @Override
     public Optional<Music> findById(String id) {
+        awaitLoaded();
         return Optional.ofNullable(musicCache.get(id));
     }
 
     @Override
     public Music save(Music music) {
-        musicCache.put(music.getId(), music);
+        awaitLoaded();
+        synchronized (changeLock) {
+            music.setVersion(++version);
+            index(music);
+            musicCache.put(music.getId(), music);
+            appendChange(music.getId(), false);
+        }
         saveData(); // Simple synchronous write for this requirement
         return music;
     }
 
+    @Override
+    public List<Music> saveAll(List<Music> musics) {
+        awaitLoaded();
+        synchronized (changeLock) {
+            for (Music m : musics) {
+                m.setVersion(++version);
+                index(m);
+                musicCache.put(m.getId(), m);
+                appendChange(m.getId(), false);
+            }
+        }
+        saveData(); // One write for the whole batch
+        return musics;
+    }
+
     @Override
     public void deleteById(String id) {
-        musicCache.remove(id);
+        awaitLoaded();
+        Music deleted;
+        synchronized (changeLock) {
+            Music removed = musicCache.remove(id);
+            if (removed == null) {
+                return;
+            }
+            unindex(removed);
+            version++;
+            appendChange(id, true);
+            deleted = removed;
+        }
         saveData();
+        notifyDeleted(List.of(deleted));
+    }
+
+    @Override
+    public List<Music> updateWhere(Predicate<Music> filter, Consumer<Music> patch) {
+        awaitLoaded();
+        List<Music> updated = new ArrayList<>();
+        synchronized (changeLock) {
+            for (Music music : musicCache.values()) {
+                if (filter.test(music)) {
+                    // Patch a copy, readers holding the cached instance never see a half-applied batch
+                    Music copy = new Music();
+                    BeanUtils.copyProperties(music, copy);
+                    patch.accept(copy);
+                    if (!copy.equals(music)) {
+                        updated.add(copy);
+                    }
+                }
+            }
+            // Commit only once every patch went through
+            for (Music music : updated) {
+                music.setVersion(++version);
+                index(music);
+                musicCache.put(music.getId(), music);
+                appendChange(music.getId(), false);
+            }
+        }
+        if (!updated.isEmpty()) {
+            saveData();
+        }
+        return updated;
+    }
+
+    @Override
+    public List<Music> deleteWhere(Predicate<Music> filter) {
+        awaitLoaded();
+        List<Music> deleted = new ArrayList<>();
+        synchronized (changeLock) {
+            for (Music music : musicCache.values()) {
+                if (filter.test(music)) {
+                    deleted.add(music);
+                }
+            }
+            for (Music music : deleted) {
+                musicCache.remove(music.getId());
+                unindex(music);
+                version++;
+                appendChange(music.getId(), true);
+            }
+        }
+        if (!deleted.isEmpty()) {
+            saveData();
+            notifyDeleted(deleted);
+        }
+        return deleted;
     }
 
     @Override
     public List<Music> search(String keyword) {
+        awaitLoaded();
         if (keyword == null || keyword.isBlank()) {
             return findAll();
         }
         String k = keyword.toLowerCase();
         return musicCache.values().stream()
-                .filter(m -> m.getTitle().toLowerCase().contains(k) || 
-                             m.getArtist().toLowerCase().contains(k) ||
-                             m.getAlbum().toLowerCase().contains(k))
+                .filter(m -> matchesKeyword(m, k))
                 .collect(Collectors.toList());
     }
+
+    @Override
+    public long generation() {
+        awaitLoaded();
+        return version;
+    }
+
+    @Override
+    public List<Music> findByOrdinals(RoaringBitmap ordinals, String keyword) {
+        awaitLoaded();
+        String k = keyword == null || keyword.isBlank() ? null : keyword.toLowerCase();
+        List<Music> result = new ArrayList<>(ordinals.getCardinality());
+        synchronized (changeLock) {
+            for (int ordinal : ordinals) {
+                String id = ordinal < idsByOrdinal.size() ? idsByOrdinal.get(ordinal) : null;
+                Music music = id == null ? null : musicCache.get(id);
+                if (music != null && (k == null || matchesKeyword(music, k))) {
+                    result.add(music);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<Music> findAllByOrdinal(int[] ordinals) {
+        awaitLoaded();
+        List<Music> result = new ArrayList<>(ordinals.length);
+        synchronized (changeLock) {
+            for (int ordinal : ordinals) {
+                String id = ordinal >= 0 && ordinal < idsByOrdinal.size() ? idsByOrdinal.get(ordinal) : null;
+                Music music = id == null ? null : musicCache.get(id);
+                if (music != null) {
+                    result.add(music);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void onDelete(Consumer<List<Music>> listener) {
+        deleteListeners.add(listener);
+    }
+
+    private void notifyDeleted(List<Music> deleted) {
+        for (Consumer<List<Music>> listener : deleteListeners) {
+            try {
+                listener.accept(deleted);
+            } catch (RuntimeException e) {
+                log.error("Delete listener failed", e);
+            }
+        }
+    }
+
+    @Override
+    public RoaringBitmap ordinalsByArtist(String artist) {
+        awaitLoaded();
+        synchronized (changeLock) {
+            RoaringBitmap ordinals = ordinalsByArtist.get(indexKey(artist));
+            return ordinals == null ? new RoaringBitmap() : ordinals.clone();
+        }
+    }
+
+    @Override
+    public RoaringBitmap ordinalsByAlbum(String album) {
+        awaitLoaded();
+        synchronized (changeLock) {
+            RoaringBitmap ordinals = ordinalsByAlbum.get(indexKey(album));
+            return ordinals == null ? new RoaringBitmap() : ordinals.clone();
+        }
+    }
+
+    @Override
+    public ChangeFeed changesSince(String clientEpoch, long since, int limit) {
+        awaitLoaded();
+        ChangeFeed feed = new ChangeFeed();
+        synchronized (changeLock) {
+            feed.setEpoch(epoch);
+            feed.setVersion(version);
+            if (since < floor || since > version || (clientEpoch != null && !clientEpoch.equals(epoch))) {
+                feed.setResync(true);
+                feed.setNext(version);
+                return feed;
+            }
+            int from = (int) (since - floor);
+            int to = (int) Math.min(changes.size(), (long) from + limit);
+            // Latest entry per track wins, a track saved five times is sent once
+            Map<String, MusicChange> latest = new LinkedHashMap<>();
+            for (MusicChange change : changes.subList(from, to)) {
+                latest.remove(change.getId());
+                latest.put(change.getId(), change);
+            }
+            for (MusicChange change : latest.values()) {
+                Music music = change.isDeleted() ? null : musicCache.get(change.getId());
+                if (music == null) {
+                    feed.getDeleted().add(change.getId());
+                } else {
+                    feed.getUpdated().add(music);
+                }
+            }
+            feed.setNext(to > from ? changes.get(to - 1).getVersion() : since);
+            feed.setHasMore(to < changes.size());
+        }
+        return feed;
+    }
+
+    @Data
+    static class ChangeLogFile {
+        private long version;
+        private long floor;
+        private String epoch;
+        private int nextOrdinal;
+        private List<MusicChange> entries = new ArrayList<>();
+    }
 }
@@ -0,0 +1,600 @@
+package com.music.server.repository;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.music.server.config.WriterLease;
+import com.music.server.model.Playlist;
+import com.music.server.utils.ChunkedIntList;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Playlists in memory as chunked int lists of track ordinals, persisted as a snapshot plus an
+ * append-only log of operations. A reorder writes one short line instead of rewriting every playlist;
+ * once compact-after-ops lines have piled up the snapshot is rewritten and the log starts over.
+ * <p>
+ * Every operation carries a sequence number and the snapshot records the last one it contains, so a
+ * crash between writing the snapshot and truncating the log replays nothing twice. A torn last line is
+ * dropped at startup.
+ * <p>
+ * An operation is checked, written to the log (and synced, with app.playlist.fsync) and only then
+ * applied in memory. If the write fails the change is refused with UncheckedIOException and memory is
+ * left as it was. Only the instance holding the WriterLease writes; another one refuses changes the same way.
+ */
+@Slf4j
+@Repository
+public class JsonPlaylistRepository implements PlaylistRepository {
+
+    @Value("${app.playlist.snapshot-file}")
+    private String snapshotFilePath;
+
+    @Value("${app.playlist.log-file}")
+    private String logFilePath;
+
+    @Value("${app.playlist.chunk-size}")
+    private int chunkSize;
+
+    @Value("${app.playlist.compact-after-ops}")
+    private int compactAfterOps;
+
+    @Value("${app.playlist.fsync}")
+    private boolean fsync;
+
+    private final ObjectMapper objectMapper;
+
+    private final WriterLease writerLease;
+
+    private final Map<String, Entry> playlists = new ConcurrentHashMap<>();
+    // Changes to single playlists share it; prune and compaction, which touch all of them, take it alone
+    private final ReadWriteLock globalLock = new ReentrantReadWriteLock();
+    // Creates count the owner's playlists and add one in a single step
+    private final Object createLock = new Object();
+    // Sequence, log channel and op count, guarded by logLock
+    private final Object logLock = new Object();
+    private FileChannel logChannel;
+    private long seq;
+    private int opsSinceSnapshot;
+
+    public JsonPlaylistRepository(ObjectMapper objectMapper, WriterLease writerLease) {
+        this.objectMapper = objectMapper;
+        this.writerLease = writerLease;
+    }
+
+    @PostConstruct
+    public void init() {
+        boolean torn = readData(playlists);
+        openLog();
+        if (torn) {
+            compact(true);
+        }
+        writerLease.onAcquired("playlists", this::reload);
+    }
+
+    // The previous writer appended after this instance loaded. Read into a fresh map and swap it in, so
+    // readers never see a half-replayed state.
+    private void reload() {
+        boolean torn;
+        globalLock.writeLock().lock();
+        try {
+            synchronized (logLock) {
+                closeLog();
+                Map<String, Entry> read = new HashMap<>();
+                torn = readData(read);
+                playlists.putAll(read);
+                playlists.keySet().retainAll(read.keySet());
+                openLog();
+            }
+        } finally {
+            globalLock.writeLock().unlock();
+        }
+        if (torn) {
+            compact(true);
+        }
+    }
+
+    @PreDestroy
+    @Override
+    public void close() {
+        synchronized (logLock) {
+            closeLog();
+        }
+    }
+
+    @Override
+    public Playlist create(String ownerId, String name, int maxPerOwner) {
+        Op op = newOp("create", UUID.randomUUID().toString());
+        op.setOwner(ownerId);
+        op.setName(name);
+        return change(op, maxPerOwner);
+    }
+
+    @Override
+    public Optional<Playlist> findById(String id) {
+        Entry entry = playlists.get(id);
+        if (entry == null) {
+            return Optional.empty();
+        }
+        synchronized (entry) {
+            return Optional.of(entry.header());
+        }
+    }
+
+    @Override
+    public List<Playlist> findByOwner(String ownerId) {
+        List<Playlist> result = new ArrayList<>();
+        for (Entry entry : playlists.values()) {
+            synchronized (entry) {
+                if (ownerId.equals(entry.ownerId)) {
+                    result.add(entry.header());
+                }
+            }
+        }
+        result.sort(Comparator.comparing(Playlist::getCreateTime));
+        return result;
+    }
+
+    @Override
+    public Playlist rename(String id, String name) {
+        Op op = newOp("rename", id);
+        op.setName(name);
+        return change(op);
+    }
+
+    @Override
+    public void delete(String id) {
+        change(newOp("delete", id));
+    }
+
+    @Override
+    public int[] ordinals(String id, int from, int count) {
+        Entry entry = require(id);
+        synchronized (entry) {
+            if (from < 0 || from > entry.ordinals.size()) {
+                return new int[0];
+            }
+            return entry.ordinals.toArray(from, count);
+        }
+    }
+
+    @Override
+    public Playlist insert(String id, Integer index, int[] ordinals, int maxSize) {
+        Op op = newOp("insert", id);
+        op.setIndex(index);
+        op.setOrdinals(ordinals);
+        return change(op, maxSize);
+    }
+
+    @Override
+    public Playlist remove(String id, int index, int count) {
+        Op op = newOp("remove", id);
+        op.setIndex(index);
+        op.setCount(count);
+        return change(op);
+    }
+
+    @Override
+    public Playlist move(String id, int from, int to) {
+        Op op = newOp("move", id);
+        op.setIndex(from);
+        op.setTo(to);
+        return change(op);
+    }
+
+    @Override
+    public long prune(RoaringBitmap ordinals) {
+        if (ordinals.isEmpty()) {
+            return 0;
+        }
+        Op op = newOp("prune", null);
+        op.setOrdinals(ordinals.toArray());
+        long removed;
+        globalLock.writeLock().lock();
+        try {
+            append(op);
+            removed = pruneAll(playlists, ordinals);
+        } finally {
+            globalLock.writeLock().unlock();
+        }
+        maybeCompact();
+        return removed;
+    }
+
+    private Playlist change(Op op) {
+        return change(op, Integer.MAX_VALUE);
+    }
+
+    // Check, log, then apply, under the playlist's monitor so the log order matches what readers saw.
+    // limit caps the tracks of an insert and the owner's playlists of a create.
+    private Playlist change(Op op, int limit) {
+        Playlist result;
+        globalLock.readLock().lock();
+        try {
+            Entry entry = "create".equals(op.getType()) ? null : require(op.getId());
+            if (entry == null) {
+                synchronized (createLock) {
+                    checkOwned(op.getOwner(), limit);
+                    append(op);
+                    result = apply(playlists, op);
+                }
+            } else {
+                synchronized (entry) {
+                    if (entry.deleted) {
+                        throw new NoSuchElementException("Playlist not found: " + op.getId());
+                    }
+                    check(entry, op, limit);
+                    append(op);
+                    result = apply(playlists, op);
+                }
+            }
+        } finally {
+            globalLock.readLock().unlock();
+        }
+        maybeCompact();
+        return result;
+    }
+
+    // Deletes only lower the count, so holding createLock is enough for it to stay within the limit
+    private void checkOwned(String ownerId, int maxPerOwner) {
+        int owned = 0;
+        for (Entry entry : playlists.values()) {
+            if (ownerId.equals(entry.ownerId)) {
+                owned++;
+            }
+        }
+        if (owned >= maxPerOwner) {
+            throw new IllegalStateException("At most " + maxPerOwner + " playlists per user");
+        }
+    }
+
+    // What apply() would refuse, so refused ops never reach the log. Resolves an append to a position.
+    private static void check(Entry entry, Op op, int maxSize) {
+        int size = entry.ordinals.size();
+        switch (op.getType()) {
+            case "insert" -> {
+                if (op.getIndex() == null) {
+                    op.setIndex(size);
+                }
+                if (op.getIndex() < 0 || op.getIndex() > size) {
+                    throw new IllegalArgumentException("Index " + op.getIndex() + " outside 0.." + size);
+                }
+                if ((long) size + op.getOrdinals().length > maxSize) {
+                    throw new IllegalStateException("A playlist holds at most " + maxSize + " tracks");
+                }
+            }
+            case "remove" -> {
+                if (op.getCount() < 0 || op.getIndex() < 0 || (long) op.getIndex() + op.getCount() > size) {
+                    throw new IllegalArgumentException("Range " + op.getIndex() + "+" + op.getCount() + " outside 0.." + size);
+                }
+            }
+            case "move" -> {
+                if (op.getIndex() < 0 || op.getIndex() >= size || op.getTo() < 0 || op.getTo() >= size) {
+                    throw new IllegalArgumentException("Positions " + op.getIndex() + ", " + op.getTo() + " outside 0.." + (size - 1));
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    // Shared by live changes and replay; the caller holds the playlist's monitor
+    private Playlist apply(Map<String, Entry> into, Op op) {
+        if ("create".equals(op.getType())) {
+            Entry entry = new Entry(op.getId(), op.getOwner(), op.getName(), op.getTs(), new ChunkedIntList(chunkSize));
+            into.put(op.getId(), entry);
+            return entry.header();
+        }
+        Entry entry = into.get(op.getId());
+        if (entry == null) {
+            throw new NoSuchElementException("Playlist not found: " + op.getId());
+        }
+        try {
+            switch (op.getType()) {
+                case "rename" -> entry.name = op.getName();
+                case "delete" -> {
+                    entry.deleted = true;
+                    into.remove(op.getId());
+                }
+                case "insert" -> entry.ordinals.insert(op.getIndex(), op.getOrdinals());
+                case "remove" -> entry.ordinals.remove(op.getIndex(), op.getCount());
+                case "move" -> entry.ordinals.move(op.getIndex(), op.getTo());
+                default -> throw new IllegalStateException("Unknown playlist op " + op.getType());
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        entry.updateTime = op.getTs();
+        return entry.header();
+    }
+
+    private static long pruneAll(Map<String, Entry> in, RoaringBitmap ordinals) {
+        long removed = 0;
+        for (Entry entry : in.values()) {
+            synchronized (entry) {
+                removed += entry.ordinals.removeIf(ordinals::contains);
+            }
+        }
+        return removed;
+    }
+
+    private Entry require(String id) {
+        Entry entry = playlists.get(id);
+        if (entry == null) {
+            throw new NoSuchElementException("Playlist not found: " + id);
+        }
+        return entry;
+    }
+
+    private Op newOp(String type, String id) {
+        Op op = new Op();
+        op.setType(type);
+        op.setId(id);
+        op.setTs(System.currentTimeMillis());
+        return op;
+    }
+
+    // One write per line; a failed one is cut off again so later lines don't follow a torn one
+    private void append(Op op) {
+        synchronized (logLock) {
+            if (logChannel == null || !writerLease.isHeld()) {
+                // Closed for shutdown, or another instance writes the log: nothing may change without being logged
+                throw new UncheckedIOException("Failed to save playlist change", new ClosedChannelException());
+            }
+            op.setSeq(seq + 1);
+            long end = -1;
+            try {
+                byte[] json = objectMapper.writeValueAsBytes(op);
+                ByteBuffer line = ByteBuffer.allocate(json.length + 1).put(json).put((byte) '\n').flip();
+                end = logChannel.size();
+                while (line.hasRemaining()) {
+                    logChannel.write(line);
+                }
+                if (fsync) {
+                    logChannel.force(false);
+                }
+            } catch (IOException e) {
+                log.error("Failed to append playlist op {}", op.getSeq(), e);
+                if (end >= 0) {
+                    try {
+                        logChannel.truncate(end);
+                    } catch (IOException ignored) {
+                        // Replay drops a torn last line
+                    }
+                }
+                throw new UncheckedIOException("Failed to save playlist change", e);
+            }
+            seq = op.getSeq();
+            opsSinceSnapshot++;
+        }
+    }
+
+    /**
+     * Push the log to disk, for a shutdown that may not get as far as close().
+     */
+    @Override
+    public void sync() {
+        synchronized (logLock) {
+            if (logChannel == null) {
+                return;
+            }
+            try {
+                logChannel.force(false);
+            } catch (IOException e) {
+                log.warn("Failed to sync playlist log: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void maybeCompact() {
+        boolean due;
+        synchronized (logLock) {
+            due = opsSinceSnapshot >= compactAfterOps;
+        }
+        if (due) {
+            compact(false);
+        }
+    }
+
+    /**
+     * Write every playlist to the snapshot and start an empty log.
+     */
+    private void compact(boolean force) {
+        globalLock.writeLock().lock();
+        try {
+            synchronized (logLock) {
+                if (!force && opsSinceSnapshot < compactAfterOps) {
+                    // Someone else compacted in between
+                    return;
+                }
+                if (!writerLease.isHeld()) {
+                    // The writer may be appending right now, its ops would be lost with the log
+                    return;
+                }
+                Snapshot snapshot = new Snapshot();
+                snapshot.setSeq(seq);
+                for (Entry entry : playlists.values()) {
+                    StoredPlaylist stored = new StoredPlaylist();
+                    stored.setHeader(entry.header());
+                    stored.setOrdinals(entry.ordinals.toArray());
+                    snapshot.getPlaylists().add(stored);
+                }
+                Path target = Path.of(snapshotFilePath);
+                Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+                try {
+                    objectMapper.writeValue(tmp.toFile(), snapshot);
+                    Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    log.error("Failed to write playlist snapshot, keeping the log", e);
+                    return;
+                }
+                closeLog();
+                try {
+                    Files.deleteIfExists(Path.of(logFilePath));
+                } catch (IOException e) {
+                    log.warn("Failed to truncate playlist log: {}", e.getMessage());
+                }
+                openLog();
+                opsSinceSnapshot = 0;
+                log.info("Compacted {} playlists at op {}", snapshot.getPlaylists().size(), seq);
+            }
+        } finally {
+            globalLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return true if the log ended in a partial line that has to be compacted away
+     */
+    private boolean readData(Map<String, Entry> into) {
+        File snapshotFile = new File(snapshotFilePath);
+        snapshotFile.getParentFile().mkdirs();
+        long snapshotSeq = 0;
+        if (snapshotFile.exists()) {
+            try {
+                Snapshot snapshot = objectMapper.readValue(snapshotFile, Snapshot.class);
+                for (StoredPlaylist stored : snapshot.getPlaylists()) {
+                    Playlist h = stored.getHeader();
+                    Entry entry = new Entry(h.getId(), h.getOwnerId(), h.getName(), h.getCreateTime(),
+                            ChunkedIntList.of(stored.getOrdinals(), chunkSize));
+                    entry.updateTime = h.getUpdateTime();
+                    into.put(h.getId(), entry);
+                }
+                snapshotSeq = snapshot.getSeq();
+            } catch (IOException e) {
+                log.error("Failed to load playlist snapshot", e);
+            }
+        }
+        seq = snapshotSeq;
+
+        File logFile = new File(logFilePath);
+        boolean torn = false;
+        int replayed = 0;
+        if (logFile.exists()) {
+            try (BufferedReader reader = Files.newBufferedReader(logFile.toPath(), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    Op op;
+                    try {
+                        op = objectMapper.readValue(line, Op.class);
+                    } catch (IOException e) {
+                        log.warn("Dropping unreadable playlist log line after op {}", seq);
+                        torn = true;
+                        break;
+                    }
+                    if (op.getSeq() <= snapshotSeq) {
+                        continue;
+                    }
+                    try {
+                        if ("prune".equals(op.getType())) {
+                            pruneAll(into, RoaringBitmap.bitmapOf(op.getOrdinals()));
+                        } else {
+                            apply(into, op);
+                        }
+                    } catch (RuntimeException e) {
+                        log.warn("Skipping playlist op {} ({}): {}", op.getSeq(), op.getType(), e.getMessage());
+                    }
+                    seq = op.getSeq();
+                    replayed++;
+                }
+            } catch (IOException e) {
+                log.error("Failed to read playlist log", e);
+            }
+        }
+        opsSinceSnapshot = replayed;
+        log.info("Loaded {} playlists, replayed {} ops.", into.size(), replayed);
+        return torn;
+    }
+
+    private void openLog() {
+        try {
+            logChannel = FileChannel.open(Path.of(logFilePath), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open playlist log " + logFilePath, e);
+        }
+    }
+
+    private void closeLog() {
+        if (logChannel == null) {
+            return;
+        }
+        try {
+            logChannel.force(false);
+            logChannel.close();
+        } catch (IOException e) {
+            log.warn("Failed to close playlist log: {}", e.getMessage());
+        }
+        logChannel = null;
+    }
+
+    private static class Entry {
+        private final String id;
+        private final String ownerId;
+        private final Long createTime;
+        private final ChunkedIntList ordinals;
+        private String name;
+        private Long updateTime;
+        private boolean deleted;
+
+        private Entry(String id, String ownerId, String name, Long createTime, ChunkedIntList ordinals) {
+            this.id = id;
+            this.ownerId = ownerId;
+            this.name = name;
+            this.createTime = createTime;
+            this.updateTime = createTime;
+            this.ordinals = ordinals;
+        }
+
+        private Playlist header() {
+            return new Playlist(id, ownerId, name, createTime, updateTime, ordinals.size());
+        }
+    }
+
+    @Data
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    static class Op {
+        private long seq;
+        private String type;
+        private String id;
+        private Long ts;
+        private String owner;
+        private String name;
+        private Integer index;
+        private Integer count;
+        private Integer to;
+        private int[] ordinals;
+    }
+
+    @Data
+    static class StoredPlaylist {
+        private Playlist header;
+        private int[] ordinals;
+    }
+
+    @Data
+    static class Snapshot {
+        private long seq;
+        private List<StoredPlaylist> playlists = new ArrayList<>();
+    }
+}
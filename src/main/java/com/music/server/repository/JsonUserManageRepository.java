@@ -2,6 +2,8 @@ package com.music.server.repository;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.music.server.config.StartupTracker;
+import com.music.server.config.WriterLease;
 import com.music.server.model.User;
 import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
@@ -11,11 +13,16 @@ import org.springframework.util.CollectionUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 
 @Slf4j
 @Repository
@@ -24,20 +31,60 @@ public class JsonUserManageRepository implements UserManageRepository {
     @Value("${app.music.user-file}")
     private String dataFilePath;
 
+    @Value("${app.startup.background-load}")
+    private boolean backgroundLoad;
+
     private final ObjectMapper objectMapper;
 
+    private final StartupTracker startupTracker;
+
+    private final WriterLease writerLease;
+
+    // Opened once the data file has been read, reads and writes wait for it
+    private final CountDownLatch loaded = new CountDownLatch(1);
+
     private final Map<String, User> userCache = new ConcurrentHashMap<>();
 
-    public JsonUserManageRepository(ObjectMapper objectMapper) {
+    public JsonUserManageRepository(ObjectMapper objectMapper, StartupTracker startupTracker, WriterLease writerLease) {
         this.objectMapper = objectMapper;
+        this.startupTracker = startupTracker;
+        this.writerLease = writerLease;
     }
 
     @PostConstruct
     public void init() {
-        loadData();
+        if (backgroundLoad) {
+            startupTracker.runInBackground("user-catalog", this::loadData);
+        } else {
+            loadData();
+        }
+        writerLease.onAcquired("user-catalog", () -> {
+            awaitLoaded();
+            readData();
+        });
     }
 
     private void loadData() {
+        try {
+            readData();
+        } finally {
+            loaded.countDown();
+        }
+    }
+
+    private void awaitLoaded() {
+        if (loaded.getCount() == 0) {
+            return;
+        }
+        try {
+            loaded.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for data to load", e);
+        }
+    }
+
+    private void readData() {
         File file = new File(dataFilePath);
         if (!file.exists()) {
             log.warn("User data file not found at {}, creating empty DB.", dataFilePath);
@@ -49,7 +96,10 @@ public class JsonUserManageRepository implements UserManageRepository {
 
         try {
             List<User> list = objectMapper.readValue(file, new TypeReference<List<User>>() {});
-            list.forEach(m -> userCache.put(m.getId(), m));
+            Map<String, User> read = new HashMap<>();
+            list.forEach(m -> read.put(m.getId(), m));
+            userCache.putAll(read);
+            userCache.keySet().retainAll(read.keySet());
             log.info("Loaded {} user items.", userCache.size());
         } catch (IOException e) {
             log.error("Failed to load user data", e);
@@ -57,8 +107,16 @@ public class JsonUserManageRepository implements UserManageRepository {
     }
 
     private synchronized void saveData() {
+        if (!writerLease.isHeld()) {
+            log.warn("Not saving user data, another instance is the writer");
+            return;
+        }
         try {
-            objectMapper.writeValue(new File(dataFilePath), new ArrayList<>(userCache.values()));
+            // Temp file and rename, a process killed mid-write leaves the previous file
+            Path target = Path.of(dataFilePath);
+            Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+            objectMapper.writeValue(tmp.toFile(), new ArrayList<>(userCache.values()));
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
         } catch (IOException e) {
             log.error("Failed to save user data", e);
         }
@@ -66,16 +124,19 @@ public class JsonUserManageRepository implements UserManageRepository {
 
     @Override
     public List<User> findAll() {
+        awaitLoaded();
         return new ArrayList<>(userCache.values());
     }
 
     @Override
     public Optional<User> findById(String id) {
+        awaitLoaded();
         return Optional.ofNullable(userCache.get(id));
     }
 
     @Override
     public User save(User user) {
+        awaitLoaded();
         userCache.put(user.getId(), user);
         saveData(); // Simple synchronous write for this requirement
         return user;
@@ -83,12 +144,14 @@ public class JsonUserManageRepository implements UserManageRepository {
 
     @Override
     public void deleteById(String id) {
+        awaitLoaded();
         userCache.remove(id);
         saveData();
     }
 
     @Override
     public User findByUsername(String username) {
+        awaitLoaded();
         return userCache.values().stream().filter(u -> u.getUsername().equals(username)).findFirst().orElse(new User());
     }
 }
@@ -1,13 +1,39 @@
 package com.music.server.repository;
 
+import com.music.server.model.ChangeFeed;
 import com.music.server.model.Music;
+import org.roaringbitmap.RoaringBitmap;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 public interface MusicRepository {
     List<Music> findAll();
+    // Visits every record without copying the catalog
+    void forEach(Consumer<Music> action);
     Optional<Music> findById(String id);
     Music save(Music music);
+    List<Music> saveAll(List<Music> musics);
     void deleteById(String id);
+    // Patches copies of the matching records and commits them together with one flush
+    List<Music> updateWhere(Predicate<Music> filter, Consumer<Music> patch);
+    // Removes the matching records with one flush, returns what was removed
+    List<Music> deleteWhere(Predicate<Music> filter);
     List<Music> search(String keyword);
+    // Catalog generation, moved on by every save and delete
+    long generation();
+    // Tracks behind a set of ordinals matching the keyword (may be null), in ordinal order
+    List<Music> findByOrdinals(RoaringBitmap ordinals, String keyword);
+    // Tracks behind the ordinals in the given order, deleted ones skipped
+    List<Music> findAllByOrdinal(int[] ordinals);
+    // Called with the removed records after every delete, outside any repository lock
+    void onDelete(Consumer<List<Music>> listener);
+    // Ordinals of an artist's tracks (case-insensitive), a copy the caller may modify
+    RoaringBitmap ordinalsByArtist(String artist);
+    // Ordinals of an album's tracks (case-insensitive), whoever the artist, a copy the caller may modify
+    RoaringBitmap ordinalsByAlbum(String album);
+    // Saves and deletes after the given catalog version, at most limit log entries. A version from another
+    // epoch (null: don't check) means resync
+    ChangeFeed changesSince(String epoch, long version, int limit);
 }
@@ -0,0 +1,31 @@
+package com.music.server.repository;
+
+import com.music.server.model.Playlist;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Playlists as ordered track ordinals. Positions out of range throw IllegalArgumentException,
+ * unknown playlists NoSuchElementException, a change that could not be persisted UncheckedIOException.
+ */
+public interface PlaylistRepository {
+    // IllegalStateException when the owner already has maxPerOwner playlists
+    Playlist create(String ownerId, String name, int maxPerOwner);
+    Optional<Playlist> findById(String id);
+    List<Playlist> findByOwner(String ownerId);
+    Playlist rename(String id, String name);
+    void delete(String id);
+    // Up to count ordinals starting at position from
+    int[] ordinals(String id, int from, int count);
+    // The first of the ordinals ends up at index, null appends. IllegalStateException past maxSize
+    Playlist insert(String id, Integer index, int[] ordinals, int maxSize);
+    Playlist remove(String id, int index, int count);
+    Playlist move(String id, int from, int to);
+    // Drops the ordinals from every playlist, returns how many entries went
+    long prune(RoaringBitmap ordinals);
+    // Persist whatever is buffered
+    void sync();
+    void close();
+}
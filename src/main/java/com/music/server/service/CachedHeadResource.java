@@ -0,0 +1,116 @@
+package com.music.server.service;
+
+import org.springframework.core.io.FileSystemResource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * File resource whose first bytes come from a cached buffer. The file itself is only opened once a
+ * reader gets past the cached head, so short and initial range requests never touch the disk.
+ */
+public class CachedHeadResource extends FileSystemResource {
+
+    private final ByteBuffer head;
+
+    public CachedHeadResource(File file, ByteBuffer head) {
+        super(file);
+        this.head = head;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return new HeadFirstInputStream(head.duplicate(), getFile());
+    }
+
+    private static class HeadFirstInputStream extends InputStream {
+        private final ByteBuffer head;
+        private final File file;
+        private final long length;
+        private FileChannel channel;
+        private InputStream tail;
+        // Position in the file the tail starts reading from
+        private long tailPosition;
+
+        HeadFirstInputStream(ByteBuffer head, File file) {
+            this.head = head;
+            this.file = file;
+            this.length = file.length();
+            this.tailPosition = head.limit();
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (head.hasRemaining()) {
+                return head.get() & 0xff;
+            }
+            int b = tail().read();
+            if (b >= 0) {
+                tailPosition++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (head.hasRemaining()) {
+                int n = Math.min(len, head.remaining());
+                head.get(b, off, n);
+                return n;
+            }
+            int n = tail().read(b, off, len);
+            if (n > 0) {
+                tailPosition += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (n <= 0) {
+                return 0;
+            }
+            long skipped = Math.min(n, head.remaining());
+            head.position(head.position() + (int) skipped);
+            long rest = n - skipped;
+            if (rest > 0) {
+                long target = Math.min(length, tailPosition + rest);
+                skipped += target - tailPosition;
+                tailPosition = target;
+                if (channel != null) {
+                    channel.position(target);
+                }
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return head.hasRemaining() ? head.remaining() : (int) Math.min(Integer.MAX_VALUE, length - tailPosition);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+
+        private InputStream tail() throws IOException {
+            if (tail == null) {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                channel.position(tailPosition);
+                tail = Channels.newInputStream(channel);
+            }
+            return tail;
+        }
+    }
+}
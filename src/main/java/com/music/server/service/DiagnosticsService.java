@@ -0,0 +1,357 @@
+package com.music.server.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.consumer.RecordedClass;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingFile;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.*;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * On-demand profiling without attaching tools by hand: one JFR recording at a time written to the
+ * diagnostics dir, a class histogram, and a summary of the hot spots in a finished recording.
+ * <p>
+ * Errors: IllegalArgumentException for bad input, IllegalStateException when a recording is (not)
+ * running, NoSuchElementException for unknown recordings.
+ */
+@Slf4j
+@Service
+public class DiagnosticsService {
+
+    private static final Pattern RECORDING_NAME = Pattern.compile("[A-Za-z0-9._-]+\\.jfr");
+    private static final Pattern HISTOGRAM_LINE = Pattern.compile("\\s*(\\d+):\\s+(\\d+)\\s+(\\d+)\\s+(.+)");
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    @Value("${app.diagnostics.dir}")
+    private String diagnosticsDir;
+
+    @Value("${app.diagnostics.max-duration-seconds}")
+    private long maxDurationSeconds;
+
+    // Older recordings are deleted when a new one starts
+    @Value("${app.diagnostics.max-recordings}")
+    private int maxRecordings;
+
+    // Guarded by this
+    private Recording active;
+    private String activeProfile;
+
+    @PostConstruct
+    public void init() throws IOException {
+        Files.createDirectories(Paths.get(diagnosticsDir));
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (active != null) {
+            active.close();
+        }
+    }
+
+    /**
+     * @param profile JFR configuration name, "default" (low overhead) or "profile" (more detail)
+     */
+    public synchronized Map<String, Object> start(String profile, long durationSeconds) throws IOException {
+        if (isRunning()) {
+            throw new IllegalStateException("Recording " + active.getName() + " already running");
+        }
+        if (durationSeconds <= 0 || durationSeconds > maxDurationSeconds) {
+            throw new IllegalArgumentException("duration must be between 1 and " + maxDurationSeconds + " seconds");
+        }
+        Configuration configuration;
+        try {
+            configuration = Configuration.getConfiguration(profile);
+        } catch (NoSuchFileException | ParseException e) {
+            throw new IllegalArgumentException("Unknown profile " + profile);
+        }
+        pruneRecordings(maxRecordings - 1);
+
+        String name = "recording-" + LocalDateTime.now().format(FILE_TIME) + "-" + profile + ".jfr";
+        Recording recording = new Recording(configuration);
+        recording.setName(name);
+        recording.setToDisk(true);
+        recording.setDuration(Duration.ofSeconds(durationSeconds));
+        // Written when the duration elapses or on stop
+        recording.setDestination(Paths.get(diagnosticsDir, name));
+        recording.start();
+        active = recording;
+        activeProfile = profile;
+        log.info("Started JFR recording {} for {}s", name, durationSeconds);
+        return status();
+    }
+
+    public synchronized Map<String, Object> stop() {
+        if (!isRunning()) {
+            throw new IllegalStateException("No recording running");
+        }
+        String name = active.getName();
+        active.stop();
+        log.info("Stopped JFR recording {}", name);
+        Map<String, Object> status = status();
+        status.put("stopped", name);
+        return status;
+    }
+
+    public synchronized Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        boolean running = isRunning();
+        status.put("running", running);
+        if (running) {
+            status.put("name", active.getName());
+            status.put("profile", activeProfile);
+            status.put("start_time", active.getStartTime().toEpochMilli());
+            status.put("duration_seconds", active.getDuration().getSeconds());
+        }
+        return status;
+    }
+
+    public List<Map<String, Object>> listRecordings() throws IOException {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (Path file : recordingFiles()) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("name", file.getFileName().toString());
+            item.put("size", Files.size(file));
+            item.put("modified", Files.getLastModifiedTime(file).toMillis());
+            result.add(item);
+        }
+        return result;
+    }
+
+    /**
+     * Finished recording by file name, never a path outside the diagnostics dir.
+     */
+    public Path recordingFile(String name) {
+        if (name == null || !RECORDING_NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException("Invalid recording name");
+        }
+        Path file = Paths.get(diagnosticsDir, name);
+        if (!Files.isRegularFile(file)) {
+            throw new NoSuchElementException("Recording not found");
+        }
+        return file;
+    }
+
+    /**
+     * Live objects per class, largest first. Runs a full GC to count only reachable objects.
+     */
+    public Map<String, Object> classHistogram(int limit) {
+        String text;
+        try {
+            text = (String) ManagementFactory.getPlatformMBeanServer().invoke(
+                    new ObjectName("com.sun.management:type=DiagnosticCommand"), "gcClassHistogram",
+                    new Object[]{new String[0]}, new String[]{String[].class.getName()});
+        } catch (JMException e) {
+            throw new IllegalStateException("Class histogram not available: " + e.getMessage(), e);
+        }
+
+        List<Map<String, Object>> classes = new ArrayList<>();
+        long totalInstances = 0;
+        long totalBytes = 0;
+        for (String line : text.split("\n")) {
+            Matcher m = HISTOGRAM_LINE.matcher(line);
+            if (m.matches()) {
+                long instances = Long.parseLong(m.group(2));
+                long bytes = Long.parseLong(m.group(3));
+                totalInstances += instances;
+                totalBytes += bytes;
+                if (classes.size() < limit) {
+                    Map<String, Object> item = new LinkedHashMap<>();
+                    item.put("class", m.group(4).trim());
+                    item.put("instances", instances);
+                    item.put("bytes", bytes);
+                    classes.add(item);
+                }
+            }
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("total_instances", totalInstances);
+        result.put("total_bytes", totalBytes);
+        result.put("classes", classes);
+        return result;
+    }
+
+    /**
+     * Hot methods (execution samples by top frame), allocation sites (sampled bytes) and lock contention
+     * (monitor enters and parks by first application frame) of a finished recording.
+     *
+     * @param name recording file, null for the newest
+     */
+    public Map<String, Object> summarize(String name, int top) throws IOException {
+        Path file;
+        if (name == null) {
+            List<Path> files = recordingFiles();
+            if (files.isEmpty()) {
+                throw new NoSuchElementException("No recordings");
+            }
+            file = files.get(0);
+        } else {
+            file = recordingFile(name);
+        }
+
+        Map<String, Long> hotMethods = new HashMap<>();
+        Map<String, Long> allocationSites = new HashMap<>();
+        Map<String, Contention> contention = new HashMap<>();
+        long samples = 0;
+        // Streams the file, large recordings are never loaded whole
+        try (RecordingFile recording = new RecordingFile(file)) {
+            while (recording.hasMoreEvents()) {
+                RecordedEvent event = recording.readEvent();
+                switch (event.getEventType().getName()) {
+                    case "jdk.ExecutionSample" -> {
+                        samples++;
+                        hotMethods.merge(frame(event.getStackTrace(), false), 1L, Long::sum);
+                    }
+                    case "jdk.ObjectAllocationSample" -> allocationSites.merge(
+                            className(event.getClass("objectClass")) + " at " + frame(event.getStackTrace(), false),
+                            event.getLong("weight"), Long::sum);
+                    case "jdk.JavaMonitorEnter" -> contention.computeIfAbsent(
+                            className(event.getClass("monitorClass")) + " at " + frame(event.getStackTrace(), false),
+                            k -> new Contention()).add(event.getDuration());
+                    case "jdk.ThreadPark" -> {
+                        // Condition waits are idle pool threads, not contention
+                        RecordedClass parked = event.getClass("parkedClass");
+                        if (parked != null && !parked.getName().endsWith("$ConditionObject")) {
+                            contention.computeIfAbsent(parked.getName() + " at " + frame(event.getStackTrace(), true),
+                                    k -> new Contention()).add(event.getDuration());
+                        }
+                    }
+                    default -> {
+                    }
+                }
+            }
+        }
+
+        long totalSamples = samples;
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("recording", file.getFileName().toString());
+        result.put("execution_samples", totalSamples);
+        result.put("hot_methods", topEntries(hotMethods, top).stream().map(e -> {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("method", e.getKey());
+            item.put("samples", e.getValue());
+            item.put("percent", totalSamples == 0 ? 0 : e.getValue() * 100.0 / totalSamples);
+            return item;
+        }).collect(Collectors.toList()));
+        result.put("allocation_sites", topEntries(allocationSites, top).stream().map(e -> {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("site", e.getKey());
+            item.put("bytes", e.getValue());
+            return item;
+        }).collect(Collectors.toList()));
+        result.put("lock_contention", contention.entrySet().stream()
+                .sorted((a, b) -> Long.compare(b.getValue().totalNanos, a.getValue().totalNanos))
+                .limit(top)
+                .map(e -> {
+                    Map<String, Object> item = new LinkedHashMap<>();
+                    item.put("site", e.getKey());
+                    item.put("count", e.getValue().count);
+                    item.put("total_ms", e.getValue().totalNanos / 1e6);
+                    item.put("max_ms", e.getValue().maxNanos / 1e6);
+                    return item;
+                }).collect(Collectors.toList()));
+        return result;
+    }
+
+    // Caller holds the monitor
+    private boolean isRunning() {
+        if (active == null) {
+            return false;
+        }
+        if (active.getState() == RecordingState.RUNNING || active.getState() == RecordingState.DELAYED) {
+            return true;
+        }
+        // Finished by itself when the duration elapsed, the file is already written
+        active.close();
+        active = null;
+        return false;
+    }
+
+    // Newest first, only finished recordings
+    private List<Path> recordingFiles() throws IOException {
+        String running;
+        synchronized (this) {
+            running = isRunning() ? active.getName() : null;
+        }
+        try (Stream<Path> files = Files.list(Paths.get(diagnosticsDir))) {
+            return files.filter(f -> RECORDING_NAME.matcher(f.getFileName().toString()).matches())
+                    .filter(f -> !f.getFileName().toString().equals(running))
+                    .sorted(Comparator.comparing((Path f) -> f.toFile().lastModified()).reversed())
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private void pruneRecordings(int keep) throws IOException {
+        List<Path> files = recordingFiles();
+        for (Path file : files.subList(Math.min(Math.max(keep, 0), files.size()), files.size())) {
+            Files.deleteIfExists(file);
+            log.info("Deleted old JFR recording {}", file.getFileName());
+        }
+    }
+
+    private static List<Map.Entry<String, Long>> topEntries(Map<String, Long> counts, int top) {
+        return counts.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .limit(top)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @param skipJdk skip JDK frames, so a park is attributed to the code that took the lock
+     */
+    private static String frame(RecordedStackTrace stackTrace, boolean skipJdk) {
+        if (stackTrace == null || stackTrace.getFrames().isEmpty()) {
+            return "<unknown>";
+        }
+        RecordedFrame chosen = stackTrace.getFrames().get(0);
+        if (skipJdk) {
+            for (RecordedFrame f : stackTrace.getFrames()) {
+                String type = f.getMethod().getType().getName();
+                if (!type.startsWith("java.") && !type.startsWith("jdk.") && !type.startsWith("sun.")) {
+                    chosen = f;
+                    break;
+                }
+            }
+        }
+        String method = chosen.getMethod().getType().getName() + "." + chosen.getMethod().getName();
+        return chosen.getLineNumber() > 0 ? method + ":" + chosen.getLineNumber() : method;
+    }
+
+    private static String className(RecordedClass recordedClass) {
+        return recordedClass == null ? "<unknown>" : recordedClass.getName();
+    }
+
+    private static class Contention {
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+
+        void add(Duration duration) {
+            long nanos = duration.toNanos();
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+    }
+}
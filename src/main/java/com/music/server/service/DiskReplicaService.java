@@ -0,0 +1,229 @@
+package com.music.server.service;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.music.server.config.WriterLease;
+import com.music.server.model.Music;
+import com.music.server.repository.MusicRepository;
+import com.music.server.storage.MusicStorage;
+import com.music.server.storage.StorageDisk;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Copies the most played tracks to more disks, so their streams spread over several spindles instead of
+ * queueing on one (see {@link MusicStorage#locateForRead}). Copies of tracks that dropped out of the top
+ * are deleted again on the next pass. Copying is rate limited and counts towards disk load like any
+ * stream, so it backs off from busy disks.
+ * <p>
+ * Which tracks have extra copies is kept in memory only; the first pass after a restart finds them again
+ * by looking for tracks with more than one copy, so copies of tracks that dropped out meanwhile go too.
+ */
+@Slf4j
+@Service
+public class DiskReplicaService {
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final MusicRepository musicRepository;
+    private final MusicStorage musicStorage;
+    private final PlayStatsService playStatsService;
+    private final WriterLease writerLease;
+    private final boolean enabled;
+    private final int copies;
+    private final int topTracks;
+    private final long maxBytesPerSecond;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    // Tracks with extra copies
+    private final Set<String> replicated = ConcurrentHashMap.newKeySet();
+    // Whether replicated has been rebuilt from disk since startup, only touched by run()
+    private boolean scanned;
+
+    private final LongAdder created = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder bytesCopied = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private volatile Long lastRun;
+
+    public DiskReplicaService(MusicRepository musicRepository, MusicStorage musicStorage,
+                              PlayStatsService playStatsService, WriterLease writerLease, Environment env) {
+        this.musicRepository = musicRepository;
+        this.musicStorage = musicStorage;
+        this.playStatsService = playStatsService;
+        this.writerLease = writerLease;
+        this.enabled = env.getProperty("app.storage.replicate-popular.enabled", Boolean.class, false);
+        this.copies = env.getProperty("app.storage.replicate-popular.copies", Integer.class, 2);
+        this.topTracks = env.getProperty("app.storage.replicate-popular.top-tracks", Integer.class, 100);
+        this.maxBytesPerSecond = env.getProperty("app.storage.replicate-popular.max-bytes-per-second", Long.class, 52428800L);
+    }
+
+    @Scheduled(fixedDelayString = "${app.storage.replicate-popular.interval-ms:600000}",
+            initialDelayString = "${app.storage.replicate-popular.interval-ms:600000}")
+    public void scheduledRun() {
+        // The writer's copies are not in this instance's set, it would copy them again
+        if (enabled && musicStorage.disks().size() > 1 && writerLease.isHeld()) {
+            run();
+        }
+    }
+
+    public void run() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            if (!scanned) {
+                musicRepository.forEach(music -> {
+                    if (musicStorage.locateAll(music.getFilePath()).size() > 1) {
+                        replicated.add(music.getId());
+                    }
+                });
+                scanned = true;
+                log.info("Disk replicas: found {} tracks with extra copies", replicated.size());
+            }
+            RateLimiter limiter = maxBytesPerSecond > 0 ? RateLimiter.create(maxBytesPerSecond) : null;
+            Set<String> hot = new LinkedHashSet<>();
+            for (PlayStatsService.TrackPlays top : playStatsService.mostPlayed(topTracks)) {
+                hot.add(top.getTrackId());
+            }
+            int added = 0;
+            for (String id : hot) {
+                Optional<Music> music = musicRepository.findById(id);
+                if (music.isPresent()) {
+                    added += replicate(music.get(), limiter);
+                }
+            }
+            int removed = 0;
+            for (String id : new ArrayList<>(replicated)) {
+                if (!hot.contains(id)) {
+                    removed += unreplicate(id);
+                }
+            }
+            lastRun = System.currentTimeMillis();
+            if (added > 0 || removed > 0) {
+                log.info("Disk replicas: {} copies added, {} dropped, {} tracks replicated", added, removed, replicated.size());
+            }
+        } finally {
+            running.set(false);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        List<Map<String, Object>> disks = new ArrayList<>();
+        for (StorageDisk disk : musicStorage.disks()) {
+            disks.add(disk.stats());
+        }
+        Map<String, Object> replication = new LinkedHashMap<>();
+        replication.put("enabled", enabled);
+        replication.put("copies", copies);
+        replication.put("replicated_tracks", replicated.size());
+        replication.put("copies_created", created.sum());
+        replication.put("copies_dropped", dropped.sum());
+        replication.put("bytes_copied", bytesCopied.sum());
+        replication.put("failures", failures.sum());
+        replication.put("last_run", lastRun);
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("disks", disks);
+        stats.put("replication", replication);
+        return stats;
+    }
+
+    private int replicate(Music music, RateLimiter limiter) {
+        List<File> existing = musicStorage.locateAll(music.getFilePath());
+        if (existing.isEmpty()) {
+            // Not on this node
+            return 0;
+        }
+        Set<StorageDisk> holding = new HashSet<>();
+        for (File file : existing) {
+            StorageDisk disk = musicStorage.diskOf(file);
+            if (disk != null) {
+                holding.add(disk);
+            }
+        }
+        int added = 0;
+        while (holding.size() < copies) {
+            StorageDisk target = musicStorage.chooseDisk(holding);
+            if (target == null) {
+                break;
+            }
+            File source = musicStorage.locateForRead(music.getFilePath());
+            try {
+                copy(source, musicStorage.replicaPath(music.getFilePath(), target), musicStorage.diskOf(source), target, limiter);
+                created.increment();
+                added++;
+            } catch (IOException e) {
+                failures.increment();
+                log.warn("Failed to copy {} to {}: {}", source, target.getName(), e.getMessage());
+                break;
+            }
+            holding.add(target);
+        }
+        if (holding.size() > 1) {
+            replicated.add(music.getId());
+        }
+        return added;
+    }
+
+    // Keeps the copy the record points at, or the first one left
+    private int unreplicate(String id) {
+        replicated.remove(id);
+        Optional<Music> music = musicRepository.findById(id);
+        if (music.isEmpty()) {
+            return 0;
+        }
+        File keep = musicStorage.locate(music.get().getFilePath());
+        int removed = 0;
+        for (File copy : musicStorage.locateAll(music.get().getFilePath())) {
+            if (!copy.equals(keep) && copy.delete()) {
+                dropped.increment();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    private void copy(File source, Path target, StorageDisk from, StorageDisk to, RateLimiter limiter) throws IOException {
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            try (InputStream rawIn = Files.newInputStream(source.toPath());
+                 InputStream in = from == null ? rawIn : from.trackRead(rawIn);
+                 OutputStream out = to.trackWrite(Files.newOutputStream(tmp))) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    if (limiter != null) {
+                        limiter.acquire(n);
+                    }
+                    out.write(buffer, 0, n);
+                    bytesCopied.add(n);
+                }
+            }
+            if (Files.size(tmp) != source.length()) {
+                throw new IOException("Copy is " + Files.size(tmp) + " bytes, source " + source.length());
+            }
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
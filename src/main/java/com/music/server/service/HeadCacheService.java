@@ -0,0 +1,267 @@
+package com.music.server.service;
+
+import com.music.server.config.WriterLease;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Off-heap cache of the first bytes of hot tracks and of whole small covers, so the start of a
+ * stream is served from memory while the rest of the file is still being opened.
+ * <p>
+ * Admission is TinyLFU-style: every request bumps a count-min sketch, and a new entry only replaces the
+ * least recently used one if it has been requested more often.
+ */
+@Slf4j
+@Service
+public class HeadCacheService {
+
+    @Value("${app.head-cache.enabled}")
+    private boolean enabled;
+
+    @Value("${app.head-cache.max-bytes}")
+    private long maxBytes;
+
+    @Value("${app.head-cache.head-kb}")
+    private int headKb;
+
+    @Value("${app.head-cache.cover-max-kb}")
+    private int coverMaxKb;
+
+    // Access ordered, guarded by this
+    private final LinkedHashMap<String, ByteBuffer> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long usedBytes;
+
+    private final FrequencySketch sketch = new FrequencySketch(1 << 16);
+    private final Set<String> loading = ConcurrentHashMap.newKeySet();
+    private final ExecutorService loader = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "head-cache-loader");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder admissions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public HeadCacheService(WriterLease writerLease) {
+        // Audio the previous writer replaced under the same id
+        writerLease.onAcquired("head-cache", this::invalidateAll);
+    }
+
+    /**
+     * Returns the resource to serve for the given file, backed by the cached head when there is one.
+     * A miss schedules a background load if the entry would be admitted.
+     */
+    public Resource resolve(String id, File file, boolean isAudio) {
+        if (!enabled) {
+            return new FileSystemResource(file);
+        }
+        String key = (isAudio ? "a:" : "c:") + id;
+        sketch.increment(key);
+
+        ByteBuffer head;
+        synchronized (this) {
+            head = entries.get(key);
+        }
+        if (head != null) {
+            hits.increment();
+            return new CachedHeadResource(file, head.duplicate());
+        }
+        misses.increment();
+
+        long length = file.length();
+        int size;
+        if (isAudio) {
+            size = (int) Math.min(length, headKb * 1024L);
+        } else if (length <= coverMaxKb * 1024L) {
+            size = (int) length;
+        } else {
+            return new FileSystemResource(file);
+        }
+        if (size > 0 && size <= maxBytes && loading.add(key)) {
+            try {
+                loader.execute(() -> load(key, file, size));
+            } catch (RejectedExecutionException e) {
+                loading.remove(key);
+            }
+        }
+        return new FileSystemResource(file);
+    }
+
+    public void invalidate(String id) {
+        synchronized (this) {
+            for (String key : List.of("a:" + id, "c:" + id)) {
+                ByteBuffer removed = entries.remove(key);
+                if (removed != null) {
+                    usedBytes -= removed.capacity();
+                }
+            }
+        }
+    }
+
+    private synchronized void invalidateAll() {
+        entries.clear();
+        usedBytes = 0;
+    }
+
+    public Map<String, Object> stats() {
+        long h = hits.sum();
+        long m = misses.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("hits", h);
+        stats.put("misses", m);
+        stats.put("hit_rate", h + m == 0 ? 0d : (double) h / (h + m));
+        stats.put("admissions", admissions.sum());
+        stats.put("rejections", rejections.sum());
+        stats.put("evictions", evictions.sum());
+        synchronized (this) {
+            stats.put("entries", entries.size());
+            stats.put("used_bytes", usedBytes);
+        }
+        stats.put("max_bytes", maxBytes);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        loader.shutdownNow();
+    }
+
+    private void load(String key, File file, int size) {
+        try {
+            if (!admit(key, size)) {
+                rejections.increment();
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // fill
+                }
+            }
+            buffer.flip();
+            ByteBuffer readOnly = buffer.asReadOnlyBuffer();
+            synchronized (this) {
+                // Re-check, other loads may have filled the space meanwhile
+                if (!evictFor(key, readOnly.capacity())) {
+                    rejections.increment();
+                    return;
+                }
+                entries.put(key, readOnly);
+                usedBytes += readOnly.capacity();
+            }
+            admissions.increment();
+        } catch (IOException e) {
+            log.warn("Failed to load head of {} into cache: {}", file, e.getMessage());
+        } finally {
+            loading.remove(key);
+        }
+    }
+
+    private synchronized boolean admit(String key, int size) {
+        if (usedBytes + size <= maxBytes) {
+            return true;
+        }
+        int candidate = sketch.frequency(key);
+        long freed = 0;
+        // Through the entry set, get() would reorder the access-ordered map mid-iteration
+        for (Map.Entry<String, ByteBuffer> victim : entries.entrySet()) {
+            if (sketch.frequency(victim.getKey()) >= candidate) {
+                return false;
+            }
+            freed += victim.getValue().capacity();
+            if (usedBytes - freed + size <= maxBytes) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Caller holds the lock
+    private boolean evictFor(String key, int size) {
+        int candidate = sketch.frequency(key);
+        Iterator<Map.Entry<String, ByteBuffer>> it = entries.entrySet().iterator();
+        while (usedBytes + size > maxBytes && it.hasNext()) {
+            Map.Entry<String, ByteBuffer> eldest = it.next();
+            if (sketch.frequency(eldest.getKey()) >= candidate) {
+                return false;
+            }
+            usedBytes -= eldest.getValue().capacity();
+            it.remove();
+            evictions.increment();
+        }
+        return usedBytes + size <= maxBytes;
+    }
+
+    /**
+     * 4-row count-min sketch with 4-bit saturating counters stored in bytes. Counters are halved every
+     * {@code 10 * width} increments so frequencies follow the recent workload. Concurrent increments may
+     * occasionally be lost, which only makes the estimate slightly lower.
+     */
+    static class FrequencySketch {
+        private static final int[] SEEDS = {0x97cb3127, 0xb8b2d3a5, 0x2f0a3f4d, 0x5bd1e995};
+
+        private final byte[][] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int width) {
+            this.table = new byte[SEEDS.length][width];
+            this.mask = width - 1;
+            this.sampleSize = width * 10;
+        }
+
+        void increment(String key) {
+            int hash = key.hashCode();
+            for (int i = 0; i < SEEDS.length; i++) {
+                int index = indexOf(hash, i);
+                if (table[i][index] < 15) {
+                    table[i][index]++;
+                }
+            }
+            if (++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        int frequency(String key) {
+            int hash = key.hashCode();
+            int min = Integer.MAX_VALUE;
+            for (int i = 0; i < SEEDS.length; i++) {
+                min = Math.min(min, table[i][indexOf(hash, i)]);
+            }
+            return min;
+        }
+
+        private int indexOf(int hash, int row) {
+            int h = (hash ^ SEEDS[row]) * 0x9e3779b9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        private synchronized void reset() {
+            additions = 0;
+            for (byte[] row : table) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = (byte) (row[i] >> 1);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.music.server.service;
+
+import com.music.server.model.BatchMusicRequest;
+import com.music.server.model.Music;
+import com.music.server.repository.MusicRepository;
+import com.music.server.storage.MusicStorage;
+import com.music.server.utils.WaveformPeaks;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Bulk edits and deletes. Each batch is one repository call, so one catalog write however many
+ * tracks it touches. Files of deleted tracks are removed in the background.
+ * <p>
+ * Errors: IllegalArgumentException for a request that selects nothing or everything by accident.
+ */
+@Slf4j
+@Service
+public class MusicBatchService {
+
+    private static final int MAX_IDS = 10000;
+
+    private final MusicRepository musicRepository;
+    private final MusicStorage musicStorage;
+    private final HeadCacheService headCacheService;
+
+    private final AtomicLong pendingFileDeletes = new AtomicLong();
+    private final List<Consumer<List<Music>>> updateListeners = new CopyOnWriteArrayList<>();
+    private final ExecutorService fileCleanup = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "file-cleanup");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public MusicBatchService(MusicRepository musicRepository, MusicStorage musicStorage, HeadCacheService headCacheService) {
+        this.musicRepository = musicRepository;
+        this.musicStorage = musicStorage;
+        this.headCacheService = headCacheService;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // Files not deleted yet show up as orphans in the next scrub
+        fileCleanup.shutdown();
+    }
+
+    /**
+     * Called with the edited records after every batch update that changed something.
+     */
+    public void onUpdate(Consumer<List<Music>> listener) {
+        updateListeners.add(listener);
+    }
+
+    public List<Music> update(BatchMusicRequest request) {
+        BatchMusicRequest.Fields set = request.getSet();
+        if (set == null || (set.getTitle() == null && set.getArtist() == null && set.getAlbum() == null)) {
+            throw new IllegalArgumentException("Nothing to set");
+        }
+        long now = System.currentTimeMillis();
+        List<Music> updated = musicRepository.updateWhere(selector(request), music -> {
+            boolean changed = false;
+            if (set.getTitle() != null && !set.getTitle().equals(music.getTitle())) {
+                music.setTitle(set.getTitle());
+                changed = true;
+            }
+            if (set.getArtist() != null && !set.getArtist().equals(music.getArtist())) {
+                music.setArtist(set.getArtist());
+                changed = true;
+            }
+            if (set.getAlbum() != null && !set.getAlbum().equals(music.getAlbum())) {
+                music.setAlbum(set.getAlbum());
+                changed = true;
+            }
+            if (changed) {
+                music.setEditedAt(now);
+            }
+        });
+        log.info("Batch updated {} music items.", updated.size());
+        if (!updated.isEmpty()) {
+            for (Consumer<List<Music>> listener : updateListeners) {
+                try {
+                    listener.accept(updated);
+                } catch (RuntimeException e) {
+                    log.error("Update listener failed", e);
+                }
+            }
+        }
+        return updated;
+    }
+
+    public List<Music> delete(BatchMusicRequest request) {
+        List<Music> deleted = musicRepository.deleteWhere(selector(request));
+        for (Music music : deleted) {
+            headCacheService.invalidate(music.getId());
+        }
+        if (!deleted.isEmpty()) {
+            pendingFileDeletes.addAndGet(deleted.size());
+            fileCleanup.execute(() -> deleteFiles(deleted));
+        }
+        log.info("Batch deleted {} music items.", deleted.size());
+        return deleted;
+    }
+
+    public long getPendingFileDeletes() {
+        return pendingFileDeletes.get();
+    }
+
+    private Predicate<Music> selector(BatchMusicRequest request) {
+        List<String> ids = request.getIds();
+        BatchMusicRequest.Fields filter = request.getFilter();
+        boolean hasIds = ids != null && !ids.isEmpty();
+        boolean hasFilter = filter != null && (StringUtils.hasText(filter.getTitle())
+                || StringUtils.hasText(filter.getArtist()) || StringUtils.hasText(filter.getAlbum()));
+        if (hasIds == hasFilter) {
+            throw new IllegalArgumentException("Give either ids or a non-empty filter");
+        }
+        if (hasIds) {
+            if (ids.size() > MAX_IDS) {
+                throw new IllegalArgumentException("At most " + MAX_IDS + " ids per batch");
+            }
+            Set<String> idSet = new HashSet<>(ids);
+            return music -> idSet.contains(music.getId());
+        }
+        return music -> matches(filter.getTitle(), music.getTitle())
+                && matches(filter.getArtist(), music.getArtist())
+                && matches(filter.getAlbum(), music.getAlbum());
+    }
+
+    private static boolean matches(String expected, String actual) {
+        return !StringUtils.hasText(expected) || expected.equalsIgnoreCase(actual);
+    }
+
+    private void deleteFiles(List<Music> deleted) {
+        for (Music music : deleted) {
+            List<File> files = new ArrayList<>();
+            // Audio may have copies on several disks
+            for (File audio : musicStorage.locateAll(music.getFilePath())) {
+                files.add(WaveformPeaks.sidecar(audio.toPath()).toFile());
+                files.add(audio);
+            }
+            File cover = musicStorage.locate(music.getCoverPath());
+            if (cover != null) {
+                files.add(cover);
+            }
+            for (File file : files) {
+                if (!file.delete() && file.exists()) {
+                    log.warn("Failed to delete {}, left for the scrub job", file);
+                }
+            }
+            pendingFileDeletes.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.music.server.service;
+
+import com.music.server.cluster.ReplicationService;
+import com.music.server.config.RequestTrace;
+import com.music.server.model.Music;
+import com.music.server.repository.MusicRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.jaudiotagger.audio.AudioFile;
+import org.jaudiotagger.audio.AudioFileIO;
+import org.jaudiotagger.tag.FieldKey;
+import org.jaudiotagger.tag.Tag;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.nio.file.Path;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Turns an audio file already in its final place into a catalog record: tag metadata first, then
+ * whatever the uploader provided on top. Shared by the single-shot and the chunked upload.
+ */
+@Slf4j
+@Service
+public class MusicIngestService {
+
+    // Album of tracks without one, not an album to play in order
+    public static final String UNKNOWN_ALBUM = "Unknown Album";
+
+    private final MusicRepository musicRepository;
+
+    private final ReplicationService replicationService;
+
+    private final WaveformService waveformService;
+
+    public MusicIngestService(MusicRepository musicRepository, ReplicationService replicationService,
+                              WaveformService waveformService) {
+        this.musicRepository = musicRepository;
+        this.replicationService = replicationService;
+        this.waveformService = waveformService;
+        // Suppress Jaudiotagger logs
+        Logger.getLogger("org.jaudiotagger").setLevel(Level.OFF);
+    }
+
+    public Music ingest(String uuid, Path targetPath, String originalFilename, String extension, String checksum,
+                        String title, String artist, String album) {
+        // Parse Metadata
+        Music music = new Music();
+        music.setId(uuid);
+        music.setFilePath(targetPath.toAbsolutePath().toString());
+        music.setCreateTime(System.currentTimeMillis());
+        music.setFormat(extension.toLowerCase());
+        music.setChecksum(checksum);
+        
+        // Defaults
+        music.setTitle(originalFilename);
+        music.setArtist("Unknown Artist");
+        music.setAlbum(UNKNOWN_ALBUM);
+        music.setDuration(0L);
+
+        // 1. Try to parse from file first to get duration and defaults
+        try (RequestTrace.Span ignored = RequestTrace.start(RequestTrace.Stage.META, extension)) {
+            AudioFile f = AudioFileIO.read(targetPath.toFile());
+            Tag tag = f.getTag();
+            if (tag != null) {
+                String parsedTitle = tag.getFirst(FieldKey.TITLE);
+                if (StringUtils.hasText(parsedTitle)) music.setTitle(parsedTitle);
+                
+                String parsedArtist = tag.getFirst(FieldKey.ARTIST);
+                if (StringUtils.hasText(parsedArtist)) music.setArtist(parsedArtist);
+                
+                String parsedAlbum = tag.getFirst(FieldKey.ALBUM);
+                if (StringUtils.hasText(parsedAlbum)) music.setAlbum(parsedAlbum);
+
+                music.setTrackNumber(parseTrackNumber(tag.getFirst(FieldKey.TRACK)));
+            }
+            music.setDuration((long) f.getAudioHeader().getTrackLength());
+        } catch (Exception e) {
+            log.warn("Failed to parse metadata for {}: {}", originalFilename, e.getMessage());
+        }
+
+        // 2. Override with user provided metadata if present
+        if (StringUtils.hasText(title)) {
+            music.setTitle(title);
+        }
+        if (StringUtils.hasText(artist)) {
+            music.setArtist(artist);
+        }
+        if (StringUtils.hasText(album)) {
+            music.setAlbum(album);
+        }
+
+        musicRepository.save(music);
+        // No-op unless clustered
+        replicationService.replicateAsync(music);
+        waveformService.schedule(music);
+        return music;
+    }
+
+    // "7", "07" or "7/12"
+    private static Integer parseTrackNumber(String track) {
+        if (!StringUtils.hasText(track)) {
+            return null;
+        }
+        String number = track.trim();
+        int slash = number.indexOf('/');
+        if (slash >= 0) {
+            number = number.substring(0, slash).trim();
+        }
+        try {
+            int parsed = Integer.parseInt(number);
+            return parsed > 0 ? parsed : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
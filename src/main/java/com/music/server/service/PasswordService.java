@@ -0,0 +1,234 @@
+package com.music.server.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Salted PBKDF2-HMAC-SHA256 password hashes: {@code pbkdf2-sha256$<iterations>$<salt>$<hash>}.
+ * <p>
+ * Hashing is deliberately slow, so it runs on its own small pool with a bounded queue instead of on
+ * Tomcat threads. A login storm then queues here and gets fast rejections once the queue is full,
+ * while streaming keeps its threads. Callers get RejectedExecutionException when the pool is saturated
+ * or the wait times out.
+ */
+@Slf4j
+@Service
+public class PasswordService {
+
+    private static final String PREFIX = "pbkdf2-sha256$";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    private final int iterations;
+    private final long timeoutMs;
+    private final SecureRandom random = new SecureRandom();
+    private final ThreadPoolExecutor executor;
+    // Verified against when the user does not exist, so both cases take the same time
+    private volatile String dummyHash;
+
+    private final LongAdder hashes = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder rehashed = new LongAdder();
+    private final LongAdder hashNanos = new LongAdder();
+    private final AtomicLong maxHashNanos = new AtomicLong();
+
+    public PasswordService(@Value("${app.auth.password.iterations}") int iterations,
+                           @Value("${app.auth.password.threads}") int threads,
+                           @Value("${app.auth.password.queue-size}") int queueSize,
+                           @Value("${app.auth.password.timeout-ms}") long timeoutMs) {
+        this.iterations = iterations;
+        this.timeoutMs = timeoutMs;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> {
+            Thread t = new Thread(r, "password-hash");
+            t.setDaemon(true);
+            return t;
+        }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Hash a new password with the configured cost.
+     */
+    public String hash(String raw) {
+        return submit(() -> {
+            byte[] salt = new byte[SALT_BYTES];
+            random.nextBytes(salt);
+            return encode(salt, iterations, timed(raw, salt, iterations));
+        });
+    }
+
+    /**
+     * Check a login attempt. The stored value may still be plaintext from before hashing was introduced;
+     * on a match it comes back hashed in {@link Verification#getRehash()}, as does a hash with a lower
+     * cost than configured.
+     *
+     * @param stored null or empty when the user does not exist
+     */
+    public Verification verify(String raw, String stored) {
+        return submit(() -> {
+            if (stored == null || stored.isEmpty()) {
+                matches(raw, parse(dummyHash()));
+                return new Verification(false, null);
+            }
+            if (!stored.startsWith(PREFIX)) {
+                // Legacy plaintext record, burn the same time so it doesn't stand out
+                matches(raw, parse(dummyHash()));
+                boolean ok = MessageDigest.isEqual(raw.getBytes(StandardCharsets.UTF_8), stored.getBytes(StandardCharsets.UTF_8));
+                return new Verification(ok, ok ? rehash(raw) : null);
+            }
+            StoredHash parsed = parse(stored);
+            if (parsed == null) {
+                // Edited by hand or cut off: a failed login, not a server error
+                log.warn("Stored password hash is malformed, failing the check");
+                matches(raw, parse(dummyHash()));
+                return new Verification(false, null);
+            }
+            boolean ok = matches(raw, parsed);
+            return new Verification(ok, ok && parsed.rounds < iterations ? rehash(raw) : null);
+        });
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long done = hashes.sum();
+        stats.put("iterations", iterations);
+        stats.put("threads", executor.getMaximumPoolSize());
+        stats.put("active", executor.getActiveCount());
+        stats.put("queued", executor.getQueue().size());
+        stats.put("queue_capacity", executor.getQueue().size() + executor.getQueue().remainingCapacity());
+        stats.put("hashes", done);
+        stats.put("rejected", rejected.sum());
+        stats.put("timed_out", timedOut.sum());
+        stats.put("rehashed", rehashed.sum());
+        stats.put("avg_hash_ms", done == 0 ? 0 : hashNanos.sum() / 1e6 / done);
+        stats.put("max_hash_ms", maxHashNanos.get() / 1e6);
+        return stats;
+    }
+
+    private <T> T submit(Callable<T> task) {
+        Future<T> future;
+        try {
+            future = executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw e;
+        }
+        try {
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            timedOut.increment();
+            throw new RejectedExecutionException("Password check timed out");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw new RejectedExecutionException("Interrupted");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Password hashing failed", e.getCause());
+        }
+    }
+
+    private String rehash(String raw) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        rehashed.increment();
+        return encode(salt, iterations, timed(raw, salt, iterations));
+    }
+
+    // Computed on first use rather than at startup
+    private String dummyHash() {
+        if (dummyHash == null) {
+            dummyHash = encode(new byte[SALT_BYTES], iterations, pbkdf2("dummy", new byte[SALT_BYTES], iterations));
+        }
+        return dummyHash;
+    }
+
+    private boolean matches(String raw, StoredHash stored) {
+        return MessageDigest.isEqual(stored.hash, timed(raw, stored.salt, stored.rounds));
+    }
+
+    // Null unless it is prefix, positive iteration count, salt and a hash of the right length
+    private static StoredHash parse(String stored) {
+        String[] parts = stored.split("\\$", -1);
+        if (parts.length != 4 || !stored.startsWith(PREFIX)) {
+            return null;
+        }
+        try {
+            int rounds = Integer.parseInt(parts[1]);
+            byte[] salt = Base64.getDecoder().decode(parts[2]);
+            byte[] hash = Base64.getDecoder().decode(parts[3]);
+            if (rounds <= 0 || salt.length == 0 || hash.length != HASH_BITS / 8) {
+                return null;
+            }
+            return new StoredHash(rounds, salt, hash);
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException included
+            return null;
+        }
+    }
+
+    private byte[] timed(String raw, byte[] salt, int rounds) {
+        long start = System.nanoTime();
+        byte[] hash = pbkdf2(raw, salt, rounds);
+        long nanos = System.nanoTime() - start;
+        hashes.increment();
+        hashNanos.add(nanos);
+        maxHashNanos.accumulateAndGet(nanos, Math::max);
+        return hash;
+    }
+
+    private static byte[] pbkdf2(String raw, byte[] salt, int rounds) {
+        PBEKeySpec spec = new PBEKeySpec(raw.toCharArray(), salt, rounds, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static String encode(byte[] salt, int rounds, byte[] hash) {
+        Base64.Encoder b64 = Base64.getEncoder().withoutPadding();
+        return PREFIX + rounds + "$" + b64.encodeToString(salt) + "$" + b64.encodeToString(hash);
+    }
+
+    @AllArgsConstructor
+    private static class StoredHash {
+        private final int rounds;
+        private final byte[] salt;
+        private final byte[] hash;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Verification {
+        private final boolean matched;
+        // New hash to store, null if the stored one is fine
+        private final String rehash;
+    }
+}
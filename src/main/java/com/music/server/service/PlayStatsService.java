@@ -0,0 +1,314 @@
+package com.music.server.service;
+
+import com.music.server.config.StartupTracker;
+import jakarta.annotation.PostConstruct;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.music.server.constants.RedisKeyConstant.*;
+
+/**
+ * Records plays coming from /music/stream and keeps the read side (most played, recently played,
+ * per-user history) precomputed so the query endpoints never sort the catalog.
+ * <p>
+ * Hot path: a {@link LongAdder} per track plus a queue of play events, no locks.
+ * Cold path: {@link #flush()} drains both on a schedule, writes them to Redis in one pipeline
+ * and rebuilds the snapshots.
+ */
+@Slf4j
+@Service
+public class PlayStatsService {
+
+    @Value("${app.play.session-window-seconds}")
+    private long sessionWindowSeconds;
+
+    @Value("${app.play.top-k}")
+    private int topK;
+
+    @Value("${app.play.recent-size}")
+    private int recentSize;
+
+    @Value("${app.play.history-size}")
+    private int historySize;
+
+    @Value("${app.startup.background-load}")
+    private boolean backgroundLoad;
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final StartupTracker startupTracker;
+
+    // Plays not yet flushed, per track
+    private final Map<String, LongAdder> pendingCounts = new ConcurrentHashMap<>();
+    private final Queue<PlayEvent> pendingEvents = new ConcurrentLinkedQueue<>();
+    // Flushed totals, per track
+    private final Map<String, Long> totals = new ConcurrentHashMap<>();
+    // user|track -> last request of the playback
+    private final Map<String, Playback> playbacks = new ConcurrentHashMap<>();
+    // Oldest first, only touched by the flush thread
+    private final LinkedHashSet<String> recent = new LinkedHashSet<>();
+    private final Map<String, List<String>> histories = new ConcurrentHashMap<>();
+
+    private volatile List<TrackPlays> topSnapshot = List.of();
+    private volatile List<String> recentSnapshot = List.of();
+    // Flushing waits for the stored stats, or they would be mixed into a half-loaded state
+    private volatile boolean loaded;
+
+    public PlayStatsService(StringRedisTemplate redisTemplate, StartupTracker startupTracker) {
+        this.redisTemplate = redisTemplate;
+        this.startupTracker = startupTracker;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (backgroundLoad) {
+            startupTracker.runInBackground("play-stats", this::loadStats);
+        } else {
+            loadStats();
+        }
+    }
+
+    private void loadStats() {
+        try {
+            Map<Object, Object> stored = redisTemplate.opsForHash().entries(PLAY_COUNT);
+            stored.forEach((k, v) -> totals.put(k.toString(), Long.parseLong(v.toString())));
+            List<String> storedRecent = redisTemplate.opsForList().range(PLAY_RECENT, 0, recentSize - 1);
+            if (storedRecent != null) {
+                // Redis list is newest first
+                for (int i = storedRecent.size() - 1; i >= 0; i--) {
+                    touchRecent(storedRecent.get(i));
+                }
+            }
+            rebuildSnapshots();
+            log.info("Loaded play counts for {} tracks.", totals.size());
+        } catch (DataAccessException e) {
+            log.error("Failed to load play stats from Redis, starting empty", e);
+        } finally {
+            loaded = true;
+        }
+    }
+
+    /**
+     * Called for every successful /music/stream request. Counts a play for a new playback, or when the client
+     * starts over from byte 0 after having got further; range requests further into the same playback, and
+     * tail probes (bytes=-N) before the real start, only keep it alive.
+     */
+    public void recordStream(String userId, String trackId, String rangeHeader) {
+        long now = System.currentTimeMillis();
+        long start = parseRangeStart(rangeHeader);
+        long window = TimeUnit.SECONDS.toMillis(sessionWindowSeconds);
+        boolean[] counted = new boolean[1];
+        playbacks.compute(userId + "|" + trackId, (k, last) -> {
+            boolean newPlayback = last == null || now - last.lastSeen > window;
+            boolean restarted = last != null && start == 0 && last.progressed;
+            counted[0] = newPlayback || restarted;
+            boolean progressed = start > 0 || (!newPlayback && !restarted && last.progressed);
+            return new Playback(now, progressed);
+        });
+        if (counted[0]) {
+            addPending(trackId, 1);
+            pendingEvents.add(new PlayEvent(userId, trackId));
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.play.flush-interval-ms}")
+    public void flush() {
+        if (!loaded) {
+            return;
+        }
+        Map<String, Long> deltas = new HashMap<>();
+        // Removed before summing, a play counted meanwhile starts a new adder instead of being lost
+        for (String id : pendingCounts.keySet()) {
+            LongAdder count = pendingCounts.remove(id);
+            long d = count == null ? 0 : count.sum();
+            if (d > 0) {
+                deltas.put(id, d);
+            }
+        }
+        List<PlayEvent> events = new ArrayList<>();
+        PlayEvent e;
+        while ((e = pendingEvents.poll()) != null) {
+            events.add(e);
+        }
+        expirePlaybacks();
+        if (deltas.isEmpty() && events.isEmpty()) {
+            return;
+        }
+
+        try {
+            persist(deltas, events);
+        } catch (DataAccessException ex) {
+            log.error("Failed to flush {} play counts to Redis, will retry", deltas.size(), ex);
+            deltas.forEach(this::addPending);
+            pendingEvents.addAll(events);
+            return;
+        }
+
+        deltas.forEach((id, d) -> totals.merge(id, d, Long::sum));
+        Map<String, Deque<String>> touchedHistories = new HashMap<>();
+        for (PlayEvent event : events) {
+            touchRecent(event.trackId);
+            touchedHistories.computeIfAbsent(event.userId, k -> new ArrayDeque<>()).addFirst(event.trackId);
+        }
+        touchedHistories.forEach((userId, newest) -> {
+            List<String> current = histories.get(userId);
+            if (current == null) {
+                return; // not loaded yet, next read fetches it from Redis including this flush
+            }
+            List<String> merged = new ArrayList<>(newest);
+            merged.addAll(current);
+            histories.put(userId, List.copyOf(merged.subList(0, Math.min(historySize, merged.size()))));
+        });
+        rebuildSnapshots();
+    }
+
+    public List<TrackPlays> mostPlayed(int limit) {
+        List<TrackPlays> top = topSnapshot;
+        return top.subList(0, Math.min(Math.max(limit, 0), top.size()));
+    }
+
+    public List<String> recentlyPlayed(int limit) {
+        List<String> snapshot = recentSnapshot;
+        return snapshot.subList(0, Math.min(Math.max(limit, 0), snapshot.size()));
+    }
+
+    public List<String> history(String userId, int limit) {
+        List<String> list = histories.computeIfAbsent(userId, id -> {
+            try {
+                List<String> stored = redisTemplate.opsForList().range(getPlayHistoryRedisKey(id), 0, historySize - 1);
+                return stored == null ? List.of() : List.copyOf(stored);
+            } catch (DataAccessException ex) {
+                log.error("Failed to load play history of {}", id, ex);
+                return null;
+            }
+        });
+        if (list == null) {
+            return List.of();
+        }
+        return list.subList(0, Math.min(Math.max(limit, 0), list.size()));
+    }
+
+    public long playCount(String trackId) {
+        long flushed = totals.getOrDefault(trackId, 0L);
+        LongAdder pending = pendingCounts.get(trackId);
+        return pending == null ? flushed : flushed + pending.sum();
+    }
+
+    // Added inside compute: flush removes the adder under the same bin lock, so an add either happened
+    // before its sum or goes to a new adder for the next flush
+    private void addPending(String trackId, long n) {
+        pendingCounts.compute(trackId, (k, adder) -> {
+            LongAdder counts = adder == null ? new LongAdder() : adder;
+            counts.add(n);
+            return counts;
+        });
+    }
+
+    private void persist(Map<String, Long> deltas, List<PlayEvent> events) {
+        redisTemplate.executePipelined(new SessionCallback<Object>() {
+            // operations is redisTemplate itself, bound to the pipelined connection for this call
+            @Override
+            public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                StringRedisTemplate ops = redisTemplate;
+                deltas.forEach((id, d) -> ops.opsForHash().increment(PLAY_COUNT, id, d));
+                Set<String> users = new HashSet<>();
+                for (PlayEvent event : events) {
+                    ops.opsForList().leftPush(PLAY_RECENT, event.trackId);
+                    ops.opsForList().leftPush(getPlayHistoryRedisKey(event.userId), event.trackId);
+                    users.add(event.userId);
+                }
+                if (!events.isEmpty()) {
+                    ops.opsForList().trim(PLAY_RECENT, 0, recentSize * 4L);
+                }
+                users.forEach(u -> ops.opsForList().trim(getPlayHistoryRedisKey(u), 0, historySize - 1));
+                return null;
+            }
+        });
+    }
+
+    private void touchRecent(String trackId) {
+        recent.remove(trackId);
+        recent.add(trackId);
+        Iterator<String> it = recent.iterator();
+        while (recent.size() > recentSize && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private void rebuildSnapshots() {
+        // Bounded min-heap: O(n log k) over played tracks only
+        PriorityQueue<TrackPlays> heap = new PriorityQueue<>(Comparator.comparingLong(TrackPlays::getPlays));
+        totals.forEach((id, plays) -> {
+            if (heap.size() < topK) {
+                heap.add(new TrackPlays(id, plays));
+            } else if (plays > heap.peek().getPlays()) {
+                heap.poll();
+                heap.add(new TrackPlays(id, plays));
+            }
+        });
+        List<TrackPlays> top = new ArrayList<>(heap);
+        top.sort(Comparator.comparingLong(TrackPlays::getPlays).reversed());
+        topSnapshot = List.copyOf(top);
+
+        List<String> newestFirst = new ArrayList<>(recent);
+        Collections.reverse(newestFirst);
+        recentSnapshot = List.copyOf(newestFirst);
+    }
+
+    private void expirePlaybacks() {
+        long cutoff = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(sessionWindowSeconds);
+        playbacks.values().removeIf(p -> p.lastSeen < cutoff);
+    }
+
+    private static long parseRangeStart(String rangeHeader) {
+        if (!StringUtils.hasText(rangeHeader) || !rangeHeader.startsWith("bytes=")) {
+            return 0;
+        }
+        String spec = rangeHeader.substring(6);
+        int dash = spec.indexOf('-');
+        if (dash <= 0) {
+            return dash == 0 ? -1 : 0; // suffix range "bytes=-N" reads the tail, neither a fresh start nor progress
+        }
+        try {
+            return Long.parseLong(spec.substring(0, dash).trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class TrackPlays {
+        private final String trackId;
+        private final long plays;
+    }
+
+    @AllArgsConstructor
+    private static class Playback {
+        private final long lastSeen;
+        // Since the last counted start, some request began past byte 0
+        private final boolean progressed;
+    }
+
+    @AllArgsConstructor
+    private static class PlayEvent {
+        private final String userId;
+        private final String trackId;
+    }
+}
@@ -0,0 +1,142 @@
+package com.music.server.service;
+
+import com.music.server.model.Music;
+import com.music.server.model.Playlist;
+import com.music.server.repository.MusicRepository;
+import com.music.server.repository.PlaylistRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+
+/**
+ * User playlists on top of PlaylistRepository: ownership, limits, and translating track ids to the
+ * ordinals the playlists store. Tracks deleted from the catalog are pruned from every playlist.
+ * <p>
+ * Someone else's playlist looks the same as a missing one (NoSuchElementException).
+ */
+@Slf4j
+@Service
+public class PlaylistService {
+
+    private static final int MAX_NAME_LENGTH = 200;
+
+    private final PlaylistRepository playlistRepository;
+    private final MusicRepository musicRepository;
+
+    @Value("${app.playlist.max-tracks}")
+    private int maxTracks;
+
+    @Value("${app.playlist.max-per-user}")
+    private int maxPerUser;
+
+    public PlaylistService(PlaylistRepository playlistRepository, MusicRepository musicRepository) {
+        this.playlistRepository = playlistRepository;
+        this.musicRepository = musicRepository;
+    }
+
+    @PostConstruct
+    public void init() {
+        musicRepository.onDelete(deleted -> {
+            RoaringBitmap ordinals = new RoaringBitmap();
+            deleted.stream().filter(m -> m.getOrdinal() != null).forEach(m -> ordinals.add(m.getOrdinal()));
+            long removed = playlistRepository.prune(ordinals);
+            if (removed > 0) {
+                log.info("Pruned {} playlist entries for {} deleted tracks", removed, deleted.size());
+            }
+        });
+    }
+
+    public Playlist create(String userId, String name) {
+        // Counted when the playlist is created, concurrent creates can't overshoot the limit
+        return playlistRepository.create(userId, checkName(name), maxPerUser);
+    }
+
+    public List<Playlist> list(String userId) {
+        return playlistRepository.findByOwner(userId);
+    }
+
+    public Playlist get(String userId, String id) {
+        return playlistRepository.findById(id)
+                .filter(p -> p.getOwnerId().equals(userId))
+                .orElseThrow(() -> new NoSuchElementException("Playlist not found: " + id));
+    }
+
+    /**
+     * Tracks at positions [from, from + count). Tracks deleted but not pruned yet are left out, so a page
+     * can come back short.
+     */
+    public List<Music> tracks(String userId, String id, int from, int count) {
+        get(userId, id);
+        return musicRepository.findAllByOrdinal(playlistRepository.ordinals(id, from, count));
+    }
+
+    public Playlist rename(String userId, String id, String name) {
+        get(userId, id);
+        return playlistRepository.rename(id, checkName(name));
+    }
+
+    public void delete(String userId, String id) {
+        get(userId, id);
+        playlistRepository.delete(id);
+    }
+
+    /**
+     * @param index position of the first added track, null to append
+     */
+    public Playlist addTracks(String userId, String id, List<String> trackIds, Integer index) {
+        get(userId, id);
+        if (trackIds == null || trackIds.isEmpty()) {
+            throw new IllegalArgumentException("No tracks given");
+        }
+        if (trackIds.size() > maxTracks) {
+            throw new IllegalStateException("A playlist holds at most " + maxTracks + " tracks");
+        }
+        int[] ordinals = new int[trackIds.size()];
+        List<String> missing = new ArrayList<>();
+        for (int i = 0; i < ordinals.length; i++) {
+            Optional<Music> music = musicRepository.findById(trackIds.get(i));
+            if (music.isEmpty()) {
+                missing.add(trackIds.get(i));
+            } else {
+                ordinals[i] = music.get().getOrdinal();
+            }
+        }
+        if (!missing.isEmpty()) {
+            throw new IllegalArgumentException("Unknown tracks: " + missing);
+        }
+        // The limit is checked against the size at the time of the insert, concurrent adds can't overshoot it
+        return playlistRepository.insert(id, index, ordinals, maxTracks);
+    }
+
+    public Playlist removeTracks(String userId, String id, int index, int count) {
+        get(userId, id);
+        return playlistRepository.remove(id, index, count);
+    }
+
+    public Playlist move(String userId, String id, Integer from, Integer to) {
+        get(userId, id);
+        if (from == null || to == null) {
+            throw new IllegalArgumentException("from and to are required");
+        }
+        return playlistRepository.move(id, from, to);
+    }
+
+    private static String checkName(String name) {
+        if (!StringUtils.hasText(name)) {
+            throw new IllegalArgumentException("Name is required");
+        }
+        String trimmed = name.trim();
+        if (trimmed.length() > MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException("Name longer than " + MAX_NAME_LENGTH + " characters");
+        }
+        return trimmed;
+    }
+}
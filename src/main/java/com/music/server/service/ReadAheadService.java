@@ -0,0 +1,387 @@
+package com.music.server.service;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.music.server.model.Music;
+import com.music.server.repository.MusicRepository;
+import com.music.server.storage.MusicStorage;
+import com.music.server.storage.StorageDisk;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Album read-ahead: once a stream gets trigger-percent into a track, the start of the next track on the
+ * same album is read in the background, so the transition doesn't wait for a cold open and seek.
+ * <p>
+ * In buffer mode the bytes are kept off-heap and the next stream's first bytes are served from them
+ * (like {@link HeadCacheService}, but admitted without a frequency check and only until ttl-seconds);
+ * in page-cache mode they are read and dropped, leaving them to the OS cache. A prefetch counts as a hit
+ * when that track is streamed before it expires or is evicted.
+ * <p>
+ * Album order: same artist and album, then track number, tracks without one after in upload order. The
+ * track number is only read at upload, tracks uploaded before it was have none.
+ */
+@Slf4j
+@Service
+public class ReadAheadService {
+
+    private static final Comparator<Music> ALBUM_ORDER = Comparator
+            .comparing(Music::getTrackNumber, Comparator.nullsLast(Comparator.naturalOrder()))
+            .thenComparing(Music::getCreateTime, Comparator.nullsLast(Comparator.naturalOrder()))
+            .thenComparing(Music::getId);
+
+    private final MusicRepository musicRepository;
+    private final MusicStorage musicStorage;
+    private final boolean enabled;
+    private final int triggerPercent;
+    private final boolean bufferMode;
+    private final int prefetchBytes;
+    private final long maxBytes;
+    private final long ttlMs;
+    private final int maxDiskQueue;
+    private final RateLimiter limiter;
+    private final ThreadPoolExecutor executor;
+
+    // Insertion ordered, oldest evicted first, guarded by this
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    private long usedBytes;
+    // Tracks whose next track is being looked up or read
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder triggers = new LongAdder();
+    private final LongAdder noNext = new LongAdder();
+    private final LongAdder prefetches = new LongAdder();
+    private final LongAdder prefetchedBytes = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder wasted = new LongAdder();
+    private final LongAdder skippedBusy = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    public ReadAheadService(MusicRepository musicRepository, MusicStorage musicStorage, Environment env) {
+        this.musicRepository = musicRepository;
+        this.musicStorage = musicStorage;
+        this.enabled = env.getProperty("app.read-ahead.enabled", Boolean.class, true);
+        this.triggerPercent = env.getProperty("app.read-ahead.trigger-percent", Integer.class, 50);
+        this.bufferMode = !"page-cache".equalsIgnoreCase(env.getProperty("app.read-ahead.mode", "buffer"));
+        this.prefetchBytes = env.getProperty("app.read-ahead.prefetch-kb", Integer.class, 1024) * 1024;
+        this.maxBytes = env.getProperty("app.read-ahead.max-bytes", Long.class, 134217728L);
+        this.ttlMs = TimeUnit.SECONDS.toMillis(env.getProperty("app.read-ahead.ttl-seconds", Long.class, 900L));
+        this.maxDiskQueue = env.getProperty("app.read-ahead.max-disk-queue", Integer.class, 32);
+        long maxBytesPerSecond = env.getProperty("app.read-ahead.max-bytes-per-second", Long.class, 20971520L);
+        this.limiter = maxBytesPerSecond > 0 ? RateLimiter.create(maxBytesPerSecond) : null;
+        int queueSize = env.getProperty("app.read-ahead.queue-size", Integer.class, 64);
+        this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> {
+            Thread t = new Thread(r, "read-ahead");
+            t.setDaemon(true);
+            return t;
+        }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * The prefetched start of a track about to be streamed, or null. Also counts the hit.
+     */
+    public Resource resolve(String id, File file) {
+        if (!enabled) {
+            return null;
+        }
+        long fileLength = file.length();
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(id);
+            // Expired, or read from audio that has been replaced since: not a hit
+            if (entry != null && (expired(entry, System.currentTimeMillis()) || entry.fileLength != fileLength)) {
+                remove(id);
+                entry = null;
+            }
+            if (entry != null && !entry.hit) {
+                entry.hit = true;
+                hits.increment();
+            }
+        }
+        if (entry == null || entry.head == null) {
+            return null;
+        }
+        return new CachedHeadResource(file, entry.head.duplicate());
+    }
+
+    /**
+     * Wraps the body of a stream so that reading past the trigger point prefetches the next track.
+     */
+    public Resource watch(Music music, File file, Resource resource) {
+        if (!enabled || !StringUtils.hasText(music.getAlbum())
+                || MusicIngestService.UNKNOWN_ALBUM.equals(music.getAlbum())) {
+            return resource;
+        }
+        long triggerAt = file.length() * triggerPercent / 100;
+        return new WatchedResource(file, resource, triggerAt, () -> trigger(music));
+    }
+
+    /**
+     * Without new triggers nothing else drops expired prefetches, their buffers would stay allocated.
+     */
+    @Scheduled(fixedDelayString = "${app.read-ahead.expire-interval-ms:60000}")
+    public synchronized void expire() {
+        expire(System.currentTimeMillis());
+    }
+
+    public Map<String, Object> stats() {
+        expire();
+        long h = hits.sum();
+        long w = wasted.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("mode", bufferMode ? "buffer" : "page-cache");
+        stats.put("triggers", triggers.sum());
+        stats.put("no_next_track", noNext.sum());
+        stats.put("prefetches", prefetches.sum());
+        stats.put("prefetched_bytes", prefetchedBytes.sum());
+        stats.put("hits", h);
+        stats.put("wasted", w);
+        // Over prefetches already decided: streamed, or expired/evicted first
+        stats.put("hit_rate", h + w == 0 ? 0d : (double) h / (h + w));
+        stats.put("skipped_busy_disk", skippedBusy.sum());
+        stats.put("dropped", dropped.sum());
+        synchronized (this) {
+            stats.put("entries", entries.size());
+            stats.put("used_bytes", usedBytes);
+        }
+        stats.put("max_bytes", maxBytes);
+        return stats;
+    }
+
+    private void trigger(Music music) {
+        if (!inFlight.add(music.getId())) {
+            return;
+        }
+        triggers.increment();
+        try {
+            executor.execute(() -> {
+                try {
+                    prefetchNext(music);
+                } finally {
+                    inFlight.remove(music.getId());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(music.getId());
+            dropped.increment();
+        }
+    }
+
+    private void prefetchNext(Music music) {
+        Music next = nextOnAlbum(music);
+        if (next == null) {
+            noNext.increment();
+            return;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Entry existing = entries.get(next.getId());
+            if (existing != null && !expired(existing, now)) {
+                return;
+            }
+            expire(now);
+        }
+        File file = musicStorage.locateForRead(next.getFilePath());
+        if (file == null) {
+            // On another node, it reads ahead for itself when the stream gets there
+            return;
+        }
+        StorageDisk disk = musicStorage.diskOf(file);
+        if (disk != null && disk.getActive() > maxDiskQueue) {
+            skippedBusy.increment();
+            return;
+        }
+        long fileLength = file.length();
+        int size = (int) Math.min(fileLength, prefetchBytes);
+        long reserved = bufferMode ? size : 0;
+        if (size <= 0 || !reserve(reserved)) {
+            return;
+        }
+        try {
+            if (limiter != null) {
+                limiter.acquire(size);
+            }
+            byte[] bytes = new byte[size];
+            try (InputStream raw = Files.newInputStream(file.toPath());
+                 InputStream in = disk == null ? raw : disk.trackRead(raw)) {
+                size = in.readNBytes(bytes, 0, size);
+            }
+            ByteBuffer head = null;
+            if (bufferMode) {
+                head = ByteBuffer.allocateDirect(size).put(bytes, 0, size).flip().asReadOnlyBuffer();
+            }
+            synchronized (this) {
+                // Removed first so it moves to the end, expire() relies on insertion order being age order
+                remove(next.getId());
+                entries.put(next.getId(), new Entry(now, fileLength, head, reserved));
+            }
+            prefetches.increment();
+            prefetchedBytes.add(size);
+        } catch (IOException e) {
+            release(reserved);
+            log.warn("Read-ahead of {} failed: {}", file, e.getMessage());
+        }
+    }
+
+    Music nextOnAlbum(Music current) {
+        // By album alone, a compilation has a different artist on every track
+        List<Music> tracks = new ArrayList<>(musicRepository.findByOrdinals(musicRepository.ordinalsByAlbum(current.getAlbum()), null));
+        tracks.sort(ALBUM_ORDER);
+        for (int i = 0; i < tracks.size() - 1; i++) {
+            if (tracks.get(i).getId().equals(current.getId())) {
+                return tracks.get(i + 1);
+            }
+        }
+        return null;
+    }
+
+    // Room for one buffer, evicting the oldest prefetches
+    private synchronized boolean reserve(long size) {
+        if (size > maxBytes) {
+            return false;
+        }
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (usedBytes + size > maxBytes && it.hasNext()) {
+            Entry eldest = it.next().getValue();
+            it.remove();
+            discard(eldest);
+        }
+        usedBytes += size;
+        return true;
+    }
+
+    private synchronized void release(long reserved) {
+        usedBytes -= reserved;
+    }
+
+    // Caller holds the lock
+    private void expire(long now) {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry eldest = it.next().getValue();
+            if (!expired(eldest, now)) {
+                break;
+            }
+            it.remove();
+            discard(eldest);
+        }
+    }
+
+    // Caller holds the lock
+    private void remove(String id) {
+        Entry entry = entries.remove(id);
+        if (entry != null) {
+            discard(entry);
+        }
+    }
+
+    // Caller holds the lock
+    private void discard(Entry entry) {
+        usedBytes -= entry.reserved;
+        if (!entry.hit) {
+            wasted.increment();
+        }
+    }
+
+    private boolean expired(Entry entry, long now) {
+        return now - entry.createdAt > ttlMs;
+    }
+
+    private static class Entry {
+        private final long createdAt;
+        private final long fileLength;
+        // Null in page-cache mode
+        private final ByteBuffer head;
+        // Budget taken, 0 in page-cache mode
+        private final long reserved;
+        private boolean hit;
+
+        Entry(long createdAt, long fileLength, ByteBuffer head, long reserved) {
+            this.createdAt = createdAt;
+            this.fileLength = fileLength;
+            this.head = head;
+            this.reserved = reserved;
+        }
+    }
+
+    /**
+     * Calls back once when the body read gets past a byte position, skipped bytes of a range count too.
+     */
+    private static class WatchedResource extends FileSystemResource {
+
+        private final Resource delegate;
+        private final long triggerAt;
+        private final Runnable callback;
+
+        WatchedResource(File file, Resource delegate, long triggerAt, Runnable callback) {
+            super(file);
+            this.delegate = delegate;
+            this.triggerAt = triggerAt;
+            this.callback = callback;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return new FilterInputStream(delegate.getInputStream()) {
+                private long position;
+                private boolean fired;
+
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        advance(1);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n > 0) {
+                        advance(n);
+                    }
+                    return n;
+                }
+
+                @Override
+                public long skip(long n) throws IOException {
+                    long skipped = super.skip(n);
+                    // A range starting past the trigger fires on its first byte
+                    position += skipped;
+                    return skipped;
+                }
+
+                private void advance(long n) {
+                    position += n;
+                    if (!fired && position >= triggerAt) {
+                        fired = true;
+                        callback.run();
+                    }
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.music.server.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.music.server.model.Music;
+import com.music.server.repository.MusicRepository;
+import lombok.AllArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keyword search results by normalized keyword. Each entry remembers the catalog generation it was
+ * computed at and is thrown away once any save or delete moved the generation on, so a result is never
+ * staler than the catalog. Concurrent misses on one keyword wait for a single scan.
+ * <p>
+ * Bounded by the total number of cached result rows, a broad keyword weighs as much as its matches.
+ */
+@Service
+public class SearchCacheService {
+
+    private final MusicRepository musicRepository;
+    private final boolean enabled;
+    private final long maxResults;
+    private final Cache<String, Entry> results;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+
+    public SearchCacheService(MusicRepository musicRepository,
+                              @Value("${app.search-cache.enabled}") boolean enabled,
+                              @Value("${app.search-cache.max-results}") long maxResults) {
+        this.musicRepository = musicRepository;
+        this.enabled = enabled;
+        this.maxResults = maxResults;
+        this.results = CacheBuilder.newBuilder()
+                .maximumWeight(maxResults)
+                .<String, Entry>weigher((keyword, entry) -> entry.results.size() + 1)
+                .build();
+    }
+
+    /**
+     * Same matches as {@link MusicRepository#search}, as an unmodifiable list.
+     */
+    public List<Music> search(String keyword) {
+        String key = keyword.trim().toLowerCase();
+        if (!enabled || key.isEmpty()) {
+            return musicRepository.search(key);
+        }
+        long generation = musicRepository.generation();
+        Entry entry = results.getIfPresent(key);
+        if (entry != null && entry.generation >= generation) {
+            hits.increment();
+            return entry.results;
+        }
+        misses.increment();
+        // Also catches an entry a slow load put in after the catalog had moved on
+        while (entry == null || entry.generation < generation) {
+            if (entry != null) {
+                results.asMap().remove(key, entry);
+                invalidations.increment();
+            }
+            try {
+                entry = results.get(key, () -> load(key));
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Search failed for " + key, e.getCause());
+            }
+        }
+        return entry.results;
+    }
+
+    public Map<String, Object> stats() {
+        long h = hits.sum();
+        long m = misses.sum();
+        long l = loads.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("generation", musicRepository.generation());
+        stats.put("hits", h);
+        stats.put("misses", m);
+        stats.put("hit_rate", h + m == 0 ? 0d : (double) h / (h + m));
+        // Misses that waited for another request's scan instead of running their own
+        stats.put("loads", l);
+        stats.put("coalesced", Math.max(0, m - l));
+        stats.put("invalidations", invalidations.sum());
+        stats.put("avg_load_ms", l == 0 ? 0 : loadNanos.sum() / 1e6 / l);
+        stats.put("entries", results.size());
+        stats.put("max_results", maxResults);
+        return stats;
+    }
+
+    private Entry load(String key) {
+        long start = System.nanoTime();
+        // Read before the scan, a save during it leaves the entry marked old
+        long generation = musicRepository.generation();
+        Entry entry = new Entry(generation, List.copyOf(musicRepository.search(key)));
+        loads.increment();
+        loadNanos.add(System.nanoTime() - start);
+        return entry;
+    }
+
+    @AllArgsConstructor
+    private static class Entry {
+        private final long generation;
+        private final List<Music> results;
+    }
+}
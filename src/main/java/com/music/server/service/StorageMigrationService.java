@@ -0,0 +1,193 @@
+package com.music.server.service;
+
+import com.music.server.model.Music;
+import com.music.server.repository.MusicRepository;
+import com.music.server.storage.MusicStorage;
+import com.music.server.utils.WaveformPeaks;
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Online move of existing files into the sharded layout. Files are moved first and records rewritten
+ * per batch afterwards; in between, {@link MusicStorage#locate} finds the file at its new place, so
+ * streams keep working throughout. Open file handles survive the rename.
+ */
+@Slf4j
+@Service
+public class StorageMigrationService {
+
+    @Value("${app.storage-migration.batch-size}")
+    private int batchSize;
+
+    @Value("${app.storage-migration.batch-pause-ms}")
+    private long batchPauseMs;
+
+    private final MusicRepository musicRepository;
+    private final MusicStorage musicStorage;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong moved = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile Long startTime;
+    private volatile Long finishTime;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "storage-migration");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public StorageMigrationService(MusicRepository musicRepository, MusicStorage musicStorage) {
+        this.musicRepository = musicRepository;
+        this.musicStorage = musicStorage;
+    }
+
+    /**
+     * @return false if a migration is already running
+     */
+    public boolean start() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        moved.set(0);
+        skipped.set(0);
+        failed.set(0);
+        startTime = System.currentTimeMillis();
+        finishTime = null;
+        executor.execute(this::migrate);
+        return true;
+    }
+
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("running", running.get());
+        status.put("start_time", startTime);
+        status.put("finish_time", finishTime);
+        status.put("moved", moved.get());
+        status.put("skipped", skipped.get());
+        status.put("failed", failed.get());
+        return status;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void migrate() {
+        try {
+            Map<String, Relocation> batch = new HashMap<>();
+            for (Music music : musicRepository.findAll()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                Relocation relocation = relocate(music);
+                if (relocation == null) {
+                    skipped.incrementAndGet();
+                    continue;
+                }
+                batch.put(music.getId(), relocation);
+                if (batch.size() >= batchSize) {
+                    commit(batch);
+                    Thread.sleep(batchPauseMs);
+                }
+            }
+            commit(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            log.error("Storage migration failed", e);
+        } finally {
+            finishTime = System.currentTimeMillis();
+            running.set(false);
+            log.info("Storage migration finished: {} moved, {} skipped, {} failed.", moved.get(), skipped.get(), failed.get());
+        }
+    }
+
+    /**
+     * Moves the files of one record, returns the old and new paths or null if nothing changed.
+     */
+    private Relocation relocate(Music music) {
+        String filePath = move(music.getFilePath(), true);
+        String coverPath = move(music.getCoverPath(), false);
+        if (Objects.equals(filePath, music.getFilePath()) && Objects.equals(coverPath, music.getCoverPath())) {
+            return null;
+        }
+        return new Relocation(music.getFilePath(), filePath, music.getCoverPath(), coverPath);
+    }
+
+    private String move(String storedPath, boolean isAudio) {
+        if (!StringUtils.hasText(storedPath)) {
+            return storedPath;
+        }
+        Path source = Paths.get(storedPath).toAbsolutePath().normalize();
+        Path target = musicStorage.canonicalPath(storedPath, isAudio);
+        if (source.equals(target)) {
+            return storedPath;
+        }
+        try {
+            if (Files.exists(source)) {
+                Files.createDirectories(target.getParent());
+                // Peaks first, once the audio has moved nothing looks for them at the old place
+                if (isAudio && Files.exists(WaveformPeaks.sidecar(source))) {
+                    moveFile(WaveformPeaks.sidecar(source), WaveformPeaks.sidecar(target));
+                }
+                moveFile(source, target);
+            } else if (!Files.exists(target)) {
+                return storedPath; // dangling, left for the scrub report
+            }
+            return target.toString();
+        } catch (IOException e) {
+            failed.incrementAndGet();
+            log.warn("Failed to move {} to {}: {}", source, target, e.getMessage());
+            return storedPath;
+        }
+    }
+
+    private static void moveFile(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target);
+        }
+    }
+
+    private void commit(Map<String, Relocation> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        // Only the paths, under the repository's lock: edits made since the snapshot was taken stay, records
+        // deleted since are not brought back, and a path someone else changed meanwhile is left alone
+        List<Music> updated = musicRepository.updateWhere(music -> batch.containsKey(music.getId()), music -> {
+            Relocation relocation = batch.get(music.getId());
+            if (Objects.equals(music.getFilePath(), relocation.fromFile)) {
+                music.setFilePath(relocation.toFile);
+            }
+            if (Objects.equals(music.getCoverPath(), relocation.fromCover)) {
+                music.setCoverPath(relocation.toCover);
+            }
+        });
+        moved.addAndGet(updated.size());
+        batch.clear();
+    }
+
+    @AllArgsConstructor
+    private static class Relocation {
+        private final String fromFile;
+        private final String toFile;
+        private final String fromCover;
+        private final String toCover;
+    }
+}
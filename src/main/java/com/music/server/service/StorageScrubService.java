@@ -0,0 +1,294 @@
+package com.music.server.service;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.music.server.config.WriterLease;
+import com.music.server.model.Music;
+import com.music.server.model.ScrubReport;
+import com.music.server.repository.MusicRepository;
+import com.music.server.storage.MusicStorage;
+import com.music.server.utils.ChecksumUtil;
+import com.music.server.utils.WaveformPeaks;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Reconciles the files on disk with the catalog: finds files no record points at (orphans),
+ * records whose file is gone (dangling) and, optionally, files whose content no longer matches
+ * the checksum taken at upload. Checksum reads go through a byte-rate limiter so a scrub never
+ * competes with live streams for disk bandwidth.
+ */
+@Slf4j
+@Service
+public class StorageScrubService {
+
+    @Value("${app.scrub.enabled}")
+    private boolean enabled;
+
+    @Value("${app.scrub.grace-period-minutes}")
+    private long gracePeriodMinutes;
+
+    @Value("${app.scrub.remove-orphans}")
+    private boolean removeOrphans;
+
+    @Value("${app.scrub.verify-checksums}")
+    private boolean verifyChecksums;
+
+    @Value("${app.scrub.max-bytes-per-second}")
+    private long maxBytesPerSecond;
+
+    @Value("${app.scrub.parallelism}")
+    private int parallelism;
+
+    @Value("${app.scrub.report-limit}")
+    private int reportLimit;
+
+    private final MusicRepository musicRepository;
+
+    private final MusicStorage musicStorage;
+
+    private final WriterLease writerLease;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final ExecutorService trigger = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "storage-scrub");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile ScrubReport lastReport;
+
+    public StorageScrubService(MusicRepository musicRepository, MusicStorage musicStorage, WriterLease writerLease) {
+        this.musicRepository = musicRepository;
+        this.musicStorage = musicStorage;
+        this.writerLease = writerLease;
+    }
+
+    @Scheduled(fixedDelayString = "${app.scrub.interval-ms}", initialDelayString = "${app.scrub.interval-ms}")
+    public void scheduledScrub() {
+        if (enabled && writerLease.isHeld()) {
+            scrub(removeOrphans, verifyChecksums);
+        }
+    }
+
+    /**
+     * Start a scrub in the background.
+     *
+     * @return false if one is already running
+     */
+    public boolean trigger(boolean remove, boolean verify) {
+        if (running.get()) {
+            return false;
+        }
+        trigger.execute(() -> scrub(remove, verify));
+        return true;
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    public ScrubReport getLastReport() {
+        return lastReport;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        trigger.shutdownNow();
+    }
+
+    public ScrubReport scrub(boolean remove, boolean verify) {
+        if (!running.compareAndSet(false, true)) {
+            log.info("Storage scrub already running, skipping.");
+            return lastReport;
+        }
+        if (remove && !writerLease.isHeld()) {
+            // Files uploaded to the writer after this instance loaded its catalog look like orphans here
+            log.info("Not the writer instance, scrub only reports orphans.");
+            remove = false;
+        }
+        Run run = new Run(remove, verify);
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        try {
+            List<Music> catalog = musicRepository.findAll();
+            Set<Path> referenced = new HashSet<>();
+            for (Music music : catalog) {
+                addPath(referenced, music.getFilePath(), true);
+                addPath(referenced, music.getCoverPath(), false);
+            }
+
+            // Each top-level entry is walked by its own task, so sharded layouts scrub in parallel
+            List<Path> tops = new ArrayList<>();
+            for (Path rootPath : musicStorage.roots()) {
+                if (!Files.isDirectory(rootPath)) {
+                    continue;
+                }
+                try (Stream<Path> children = Files.list(rootPath)) {
+                    children.forEach(tops::add);
+                }
+            }
+            pool.submit(() -> tops.parallelStream().forEach(top -> scanTree(top, referenced, run))).get();
+
+            RateLimiter limiter = maxBytesPerSecond > 0 ? RateLimiter.create(maxBytesPerSecond) : null;
+            pool.submit(() -> catalog.parallelStream().forEach(music -> checkRecord(music, limiter, run))).get();
+        } catch (IOException | ExecutionException e) {
+            run.error("Scrub aborted: " + e.getMessage());
+            log.error("Storage scrub failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            run.error("Scrub interrupted");
+        } finally {
+            pool.shutdownNow();
+            running.set(false);
+        }
+
+        ScrubReport report = run.toReport();
+        lastReport = report;
+        log.info("Storage scrub done in {}ms: {} files, {} orphans ({} removed), {} dangling, {} corrupt.",
+                report.getFinishTime() - report.getStartTime(), report.getFilesScanned(), report.getOrphanCount(),
+                report.getOrphansRemoved(), report.getDanglingCount(), report.getCorruptCount());
+        return report;
+    }
+
+    private void scanTree(Path top, Set<Path> referenced, Run run) {
+        long cutoff = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(gracePeriodMinutes);
+        try (Stream<Path> files = Files.walk(top)) {
+            files.filter(Files::isRegularFile).forEach(file -> {
+                run.filesScanned.increment();
+                if (referenced.contains(file.toAbsolutePath().normalize()) || isReferencedSidecar(file, referenced)) {
+                    return;
+                }
+                try {
+                    if (Files.getLastModifiedTime(file).toMillis() > cutoff) {
+                        return;
+                    }
+                    run.orphanCount.increment();
+                    run.add(run.orphans, file.toString());
+                    if (run.remove && Files.deleteIfExists(file)) {
+                        run.orphansRemoved.increment();
+                        log.info("Removed orphan file {}", file);
+                    }
+                } catch (IOException e) {
+                    run.error(file + ": " + e.getMessage());
+                }
+            });
+        } catch (IOException | UncheckedIOException e) {
+            run.error(top + ": " + e.getMessage());
+        }
+    }
+
+    // Waveform peaks live as long as their audio file
+    private static boolean isReferencedSidecar(Path file, Set<Path> referenced) {
+        String name = file.getFileName().toString();
+        if (!name.endsWith(WaveformPeaks.EXTENSION)) {
+            return false;
+        }
+        String audioName = name.substring(0, name.length() - WaveformPeaks.EXTENSION.length());
+        return referenced.contains(file.resolveSibling(audioName).toAbsolutePath().normalize());
+    }
+
+    private void checkRecord(Music music, RateLimiter limiter, Run run) {
+        if (!StringUtils.hasText(music.getFilePath())) {
+            return;
+        }
+        File located = musicStorage.locate(music.getFilePath());
+        if (located == null || !located.isFile()) {
+            run.danglingCount.increment();
+            run.add(run.danglingIds, music.getId());
+            return;
+        }
+        Path file = located.toPath();
+        if (!run.verify || !StringUtils.hasText(music.getChecksum())) {
+            return;
+        }
+        try {
+            String actual = ChecksumUtil.checksum(file, limiter);
+            run.bytesVerified.add(Files.size(file));
+            if (!actual.equalsIgnoreCase(music.getChecksum())) {
+                run.corruptCount.increment();
+                run.add(run.corruptIds, music.getId());
+                log.warn("Checksum mismatch for {} ({})", music.getId(), file);
+            }
+        } catch (IOException e) {
+            run.error(file + ": " + e.getMessage());
+        }
+    }
+
+    private void addPath(Set<Path> paths, String path, boolean isAudio) {
+        if (StringUtils.hasText(path)) {
+            paths.add(Paths.get(path).toAbsolutePath().normalize());
+            // A file mid-migration is already at its new place, keep it
+            paths.add(musicStorage.canonicalPath(path, isAudio));
+            // Copies of popular tracks on other disks
+            paths.addAll(musicStorage.candidatePaths(path, isAudio));
+        }
+    }
+
+    /**
+     * Mutable state of one scrub, shared by the worker threads.
+     */
+    private class Run {
+        private final long startTime = System.currentTimeMillis();
+        private final boolean remove;
+        private final boolean verify;
+        private final LongAdder filesScanned = new LongAdder();
+        private final LongAdder bytesVerified = new LongAdder();
+        private final LongAdder orphanCount = new LongAdder();
+        private final LongAdder orphansRemoved = new LongAdder();
+        private final LongAdder danglingCount = new LongAdder();
+        private final LongAdder corruptCount = new LongAdder();
+        private final Queue<String> orphans = new ConcurrentLinkedQueue<>();
+        private final Queue<String> danglingIds = new ConcurrentLinkedQueue<>();
+        private final Queue<String> corruptIds = new ConcurrentLinkedQueue<>();
+        private final Queue<String> errors = new ConcurrentLinkedQueue<>();
+
+        Run(boolean remove, boolean verify) {
+            this.remove = remove;
+            this.verify = verify;
+        }
+
+        void add(Queue<String> list, String value) {
+            // Approximate bound is fine, it only keeps the report small
+            if (list.size() < reportLimit) {
+                list.add(value);
+            }
+        }
+
+        void error(String message) {
+            add(errors, message);
+        }
+
+        ScrubReport toReport() {
+            ScrubReport report = new ScrubReport();
+            report.setStartTime(startTime);
+            report.setFinishTime(System.currentTimeMillis());
+            report.setRemoveOrphans(remove);
+            report.setVerifyChecksums(verify);
+            report.setFilesScanned(filesScanned.sum());
+            report.setBytesVerified(bytesVerified.sum());
+            report.setOrphanCount(orphanCount.sum());
+            report.setOrphansRemoved(orphansRemoved.sum());
+            report.setOrphans(new ArrayList<>(orphans));
+            report.setDanglingCount(danglingCount.sum());
+            report.setDanglingIds(new ArrayList<>(danglingIds));
+            report.setCorruptCount(corruptCount.sum());
+            report.setCorruptIds(new ArrayList<>(corruptIds));
+            report.setErrors(new ArrayList<>(errors));
+            return report;
+        }
+    }
+}
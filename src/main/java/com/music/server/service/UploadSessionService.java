@@ -0,0 +1,402 @@
+package com.music.server.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.music.server.config.RequestTrace;
+import com.music.server.config.WriterLease;
+import com.music.server.model.CreateUploadRequest;
+import com.music.server.model.Music;
+import com.music.server.model.UploadSession;
+import com.music.server.storage.MusicStorage;
+import com.music.server.utils.ChecksumUtil;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Resumable chunked uploads. A session preallocates a part file of the final size; chunks arrive in any
+ * order, possibly in parallel, and are written in place with positional writes straight from the request
+ * stream. Completing the session moves the file into storage and runs the normal ingest.
+ * <p>
+ * Errors: IllegalArgumentException for bad input, NoSuchElementException for unknown sessions,
+ * IllegalStateException when the session is not complete.
+ */
+@Slf4j
+@Service
+public class UploadSessionService {
+
+    private static final int IO_BUFFER = 64 * 1024;
+    // Keeps the received bitmap and the missing list in status responses small
+    private static final int MAX_CHUNKS = 10000;
+
+    @Value("${app.upload.sessions-dir}")
+    private String sessionsDir;
+
+    @Value("${app.upload.chunk-size}")
+    private int defaultChunkSize;
+
+    @Value("${app.upload.max-chunk-size}")
+    private int maxChunkSize;
+
+    @Value("${app.upload.max-size}")
+    private long maxSize;
+
+    @Value("${app.upload.session-ttl-hours}")
+    private long sessionTtlHours;
+
+    private final ObjectMapper objectMapper;
+    private final MusicStorage musicStorage;
+    private final MusicIngestService musicIngestService;
+    private final WriterLease writerLease;
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    public UploadSessionService(ObjectMapper objectMapper, MusicStorage musicStorage, MusicIngestService musicIngestService,
+                                WriterLease writerLease) {
+        this.objectMapper = objectMapper;
+        this.musicStorage = musicStorage;
+        this.musicIngestService = musicIngestService;
+        this.writerLease = writerLease;
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        restore();
+        // Sessions the previous writer created, received chunks for or completed after this instance started
+        writerLease.onAcquired("upload-sessions", () -> {
+            sessions.values().forEach(Session::closeQuietly);
+            sessions.clear();
+            try {
+                restore();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private void restore() throws IOException {
+        Path dir = Files.createDirectories(Paths.get(sessionsDir));
+        try (DirectoryStream<Path> sidecars = Files.newDirectoryStream(dir, "*.json")) {
+            for (Path sidecar : sidecars) {
+                try {
+                    UploadSession meta = objectMapper.readValue(sidecar.toFile(), UploadSession.class);
+                    Path part = partFile(meta.getId());
+                    if (!Files.exists(part)) {
+                        // Unless the writer is completing it right now
+                        if (writerLease.isHeld()) {
+                            Files.deleteIfExists(sidecar);
+                        }
+                        continue;
+                    }
+                    sessions.put(meta.getId(), new Session(meta, FileChannel.open(part, StandardOpenOption.WRITE)));
+                } catch (IOException e) {
+                    log.warn("Failed to restore upload session {}: {}", sidecar, e.getMessage());
+                }
+            }
+        }
+        log.info("Restored {} upload sessions.", sessions.size());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sessions.values().forEach(Session::closeQuietly);
+    }
+
+    public UploadSession create(String ownerId, CreateUploadRequest request) throws IOException {
+        if (request == null || !StringUtils.hasText(request.getFilename()) || request.getSize() == null || request.getSize() <= 0) {
+            throw new IllegalArgumentException("filename and size are required");
+        }
+        if (request.getSize() > maxSize) {
+            throw new IllegalArgumentException("File too large, max " + maxSize + " bytes");
+        }
+        int chunkSize = request.getChunkSize() == null ? defaultChunkSize : request.getChunkSize();
+        if (chunkSize <= 0 || chunkSize > maxChunkSize) {
+            throw new IllegalArgumentException("chunkSize must be between 1 and " + maxChunkSize);
+        }
+        long chunkCount = (request.getSize() + chunkSize - 1) / chunkSize;
+        if (chunkCount > MAX_CHUNKS) {
+            throw new IllegalArgumentException("chunkSize too small, at most " + MAX_CHUNKS + " chunks per upload");
+        }
+        String filename = StringUtils.cleanPath(request.getFilename());
+        String extension = StringUtils.getFilenameExtension(filename);
+        if (extension == null) extension = "mp3";
+
+        UploadSession meta = new UploadSession();
+        meta.setId(UUID.randomUUID().toString());
+        meta.setOwnerId(ownerId);
+        meta.setFilename(filename);
+        meta.setExtension(extension);
+        meta.setSize(request.getSize());
+        meta.setChunkSize(chunkSize);
+        meta.setChunkCount((int) chunkCount);
+        meta.setTitle(request.getTitle());
+        meta.setArtist(request.getArtist());
+        meta.setAlbum(request.getAlbum());
+        meta.setCreateTime(System.currentTimeMillis());
+        meta.setUpdateTime(meta.getCreateTime());
+        meta.setReceived(new long[0]);
+
+        Path part = partFile(meta.getId());
+        try (RandomAccessFile raf = new RandomAccessFile(part.toFile(), "rw")) {
+            raf.setLength(meta.getSize());
+        }
+        Session session = new Session(meta, FileChannel.open(part, StandardOpenOption.WRITE));
+        session.persist();
+        sessions.put(meta.getId(), session);
+        return session.snapshot();
+    }
+
+    /**
+     * Write one chunk from the request body. Re-sending a chunk overwrites it, so clients can simply retry.
+     */
+    public UploadSession writeChunk(String ownerId, String uploadId, int index, InputStream body) throws IOException {
+        Session session = find(ownerId, uploadId);
+        UploadSession meta = session.meta;
+        if (index < 0 || index >= meta.getChunkCount()) {
+            throw new IllegalArgumentException("Chunk index out of range 0.." + (meta.getChunkCount() - 1));
+        }
+        long position = (long) index * meta.getChunkSize();
+        long expected = Math.min(meta.getChunkSize(), meta.getSize() - position);
+
+        session.lock.readLock().lock();
+        try (RequestTrace.Span ignored = RequestTrace.start(RequestTrace.Stage.FILE, "chunk")) {
+            if (session.completed) {
+                throw new IllegalStateException("Upload already completed");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER);
+            long written = 0;
+            int n;
+            while ((n = body.read(buffer.array(), 0, buffer.capacity())) > 0) {
+                if (written + n > expected) {
+                    throw new IllegalArgumentException("Chunk " + index + " larger than " + expected + " bytes");
+                }
+                buffer.position(0).limit(n);
+                while (buffer.hasRemaining()) {
+                    written += session.channel.write(buffer, position + written);
+                }
+                buffer.clear();
+            }
+            if (written != expected) {
+                throw new IllegalArgumentException("Chunk " + index + " has " + written + " bytes, expected " + expected);
+            }
+            // On disk before the sidecar says so, or a crash resumes with a chunk that was never written
+            session.channel.force(false);
+            session.markReceived(index);
+        } finally {
+            session.lock.readLock().unlock();
+        }
+        return session.snapshot();
+    }
+
+    public UploadSession get(String ownerId, String uploadId) {
+        return find(ownerId, uploadId).snapshot();
+    }
+
+    public List<Integer> missingChunks(UploadSession meta) {
+        BitSet received = BitSet.valueOf(meta.getReceived());
+        List<Integer> missing = new ArrayList<>();
+        for (int i = received.nextClearBit(0); i < meta.getChunkCount(); i = received.nextClearBit(i + 1)) {
+            missing.add(i);
+        }
+        return missing;
+    }
+
+    /**
+     * Finish the upload: the part file becomes the track and is ingested under the upload id. If that
+     * fails the part file is put back and the session stays open, so the client can call complete again.
+     */
+    public Music complete(String ownerId, String uploadId) throws IOException {
+        Session session = find(ownerId, uploadId);
+        session.lock.writeLock().lock();
+        try {
+            if (session.completed) {
+                throw new IllegalStateException("Upload already completed");
+            }
+            int missing = session.meta.getChunkCount() - session.cardinality();
+            if (missing > 0) {
+                throw new IllegalStateException(missing + " chunks missing");
+            }
+            session.completed = true;
+            session.channel.force(true);
+            session.closeQuietly();
+
+            UploadSession meta = session.meta;
+            Path target = musicStorage.newAudioPath(meta.getId(), meta.getExtension());
+            try {
+                move(partFile(meta.getId()), target);
+                Music music = musicIngestService.ingest(meta.getId(), target, meta.getFilename(), meta.getExtension(),
+                        ChecksumUtil.checksum(target, null), meta.getTitle(), meta.getArtist(), meta.getAlbum());
+                discard(session);
+                return music;
+            } catch (IOException | RuntimeException e) {
+                reopen(session, target);
+                throw e;
+            }
+        } finally {
+            session.lock.writeLock().unlock();
+        }
+    }
+
+    public void abort(String ownerId, String uploadId) {
+        Session session = find(ownerId, uploadId);
+        session.lock.writeLock().lock();
+        try {
+            session.completed = true;
+            session.closeQuietly();
+            discard(session);
+        } finally {
+            session.lock.writeLock().unlock();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.upload.expire-interval-ms}")
+    public void expireSessions() {
+        if (!writerLease.isHeld()) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(sessionTtlHours);
+        for (Session session : sessions.values()) {
+            if (session.meta.getUpdateTime() < cutoff && session.lock.writeLock().tryLock()) {
+                try {
+                    log.info("Expiring idle upload session {}", session.meta.getId());
+                    session.completed = true;
+                    session.closeQuietly();
+                    discard(session);
+                } finally {
+                    session.lock.writeLock().unlock();
+                }
+            }
+        }
+    }
+
+    private Session find(String ownerId, String uploadId) {
+        Session session = sessions.get(uploadId);
+        if (session == null || !session.meta.getOwnerId().equals(ownerId)) {
+            throw new NoSuchElementException("Upload session not found");
+        }
+        return session;
+    }
+
+    // Undo a failed complete: the file goes back to the part file, or the record-less copy would be an orphan
+    private void reopen(Session session, Path target) {
+        String id = session.meta.getId();
+        Path part = partFile(id);
+        try {
+            if (Files.exists(target)) {
+                move(target, part);
+            }
+            session.channel = FileChannel.open(part, StandardOpenOption.WRITE);
+            session.completed = false;
+        } catch (IOException e) {
+            log.error("Failed to reopen upload session {} after a failed complete, discarding it", id, e);
+            FileUtils.deleteQuietly(target.toFile());
+            discard(session);
+        }
+    }
+
+    private void discard(Session session) {
+        String id = session.meta.getId();
+        sessions.remove(id);
+        FileUtils.deleteQuietly(partFile(id).toFile());
+        FileUtils.deleteQuietly(sidecarFile(id).toFile());
+    }
+
+    private Path partFile(String id) {
+        return Paths.get(sessionsDir, id + ".part");
+    }
+
+    private Path sidecarFile(String id) {
+        return Paths.get(sessionsDir, id + ".json");
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private class Session {
+        private final UploadSession meta;
+        private final BitSet received;
+        // Replaced when a failed complete reopens the part file, under the write lock
+        private FileChannel channel;
+        // Chunk writes share it, complete/abort take it exclusively
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private volatile boolean completed;
+
+        Session(UploadSession meta, FileChannel channel) {
+            this.meta = meta;
+            this.received = BitSet.valueOf(meta.getReceived() == null ? new long[0] : meta.getReceived());
+            this.channel = channel;
+        }
+
+        void markReceived(int index) throws IOException {
+            synchronized (this) {
+                received.set(index);
+                meta.setUpdateTime(System.currentTimeMillis());
+            }
+            persist();
+        }
+
+        synchronized int cardinality() {
+            return received.cardinality();
+        }
+
+        synchronized UploadSession snapshot() {
+            UploadSession copy = new UploadSession();
+            copy.setId(meta.getId());
+            copy.setOwnerId(meta.getOwnerId());
+            copy.setFilename(meta.getFilename());
+            copy.setExtension(meta.getExtension());
+            copy.setSize(meta.getSize());
+            copy.setChunkSize(meta.getChunkSize());
+            copy.setChunkCount(meta.getChunkCount());
+            copy.setTitle(meta.getTitle());
+            copy.setArtist(meta.getArtist());
+            copy.setAlbum(meta.getAlbum());
+            copy.setCreateTime(meta.getCreateTime());
+            copy.setUpdateTime(meta.getUpdateTime());
+            copy.setReceived(received.toLongArray());
+            return copy;
+        }
+
+        /**
+         * Sidecar is replaced atomically, a crash leaves the previous version.
+         */
+        void persist() throws IOException {
+            UploadSession snapshot = snapshot();
+            synchronized (this) {
+                Path tmp = Paths.get(sessionsDir, meta.getId() + ".json.tmp");
+                objectMapper.writeValue(tmp.toFile(), snapshot);
+                move(tmp, sidecarFile(meta.getId()));
+            }
+        }
+
+        void closeQuietly() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Failed to close upload part {}: {}", meta.getId(), e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.music.server.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.Striped;
+import com.music.server.model.Music;
+import com.music.server.repository.MusicRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import static com.music.server.constants.RedisKeyConstant.getUserTrackIdsRedisKey;
+
+/**
+ * Per-user track sets (favorites, library). Redis holds them as sets of track ids, which mean the same
+ * on every node; each node keeps hot users' sets as compressed bitmaps over its own track ordinals, so
+ * intersecting with an artist or another set is still a bitmap AND.
+ * <p>
+ * Cached bitmaps are reloaded after cache-ttl-seconds to pick up changes made through other nodes and
+ * tracks replicated here since.
+ */
+@Slf4j
+@Service
+public class UserTrackSetService {
+
+    public static final String FAVORITES = "favorites";
+    public static final String LIBRARY = "library";
+    public static final List<String> KINDS = List.of(FAVORITES, LIBRARY);
+
+    private final StringRedisTemplate redisTemplate;
+    private final MusicRepository musicRepository;
+
+    // Hot users' bitmaps, read and mutated under the key's stripe
+    private final Cache<String, RoaringBitmap> bitmaps;
+    // Not the bitmap's own monitor: eviction mid-update would let a reloaded copy be written concurrently
+    private final Striped<Lock> locks = Striped.lock(256);
+
+    public UserTrackSetService(StringRedisTemplate redisTemplate, MusicRepository musicRepository,
+                               @Value("${app.user-tracks.cache-size}") long cacheSize,
+                               @Value("${app.user-tracks.cache-ttl-seconds:60}") long cacheTtlSeconds) {
+        this.redisTemplate = redisTemplate;
+        this.musicRepository = musicRepository;
+        this.bitmaps = CacheBuilder.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(cacheTtlSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * Snapshot of the user's set as local ordinals, the caller may modify it.
+     */
+    public RoaringBitmap get(String userId, String kind) {
+        Lock lock = lock(userId, kind);
+        try {
+            return bitmap(userId, kind).clone();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return false if the track was already in the set
+     */
+    public boolean add(String userId, String kind, Music music) {
+        Lock lock = lock(userId, kind);
+        try {
+            RoaringBitmap bitmap = bitmap(userId, kind);
+            Long added = redisTemplate.opsForSet().add(getUserTrackIdsRedisKey(kind, userId), music.getId());
+            bitmap.add(music.getOrdinal());
+            return added != null && added > 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return false if the track was not in the set
+     */
+    public boolean remove(String userId, String kind, Music music) {
+        Lock lock = lock(userId, kind);
+        try {
+            RoaringBitmap bitmap = bitmap(userId, kind);
+            Long removed = redisTemplate.opsForSet().remove(getUserTrackIdsRedisKey(kind, userId), music.getId());
+            bitmap.remove(music.getOrdinal());
+            return removed != null && removed > 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int count(String userId, String kind) {
+        Lock lock = lock(userId, kind);
+        try {
+            return bitmap(userId, kind).getCardinality();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Lock lock(String userId, String kind) {
+        if (!KINDS.contains(kind)) {
+            throw new IllegalArgumentException("Unknown track set " + kind);
+        }
+        Lock lock = locks.get(getUserTrackIdsRedisKey(kind, userId));
+        lock.lock();
+        return lock;
+    }
+
+    // Caller holds the key's stripe, so a load and the changes after it see one instance
+    private RoaringBitmap bitmap(String userId, String kind) {
+        String key = getUserTrackIdsRedisKey(kind, userId);
+        try {
+            return bitmaps.get(key, () -> load(userId, kind));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to load " + key, e.getCause());
+        }
+    }
+
+    private RoaringBitmap load(String userId, String kind) {
+        Set<String> ids = redisTemplate.opsForSet().members(getUserTrackIdsRedisKey(kind, userId));
+        RoaringBitmap bitmap = new RoaringBitmap();
+        for (String id : ids == null ? Set.<String>of() : ids) {
+            // Tracks deleted since, or not replicated to this node yet, are left out
+            musicRepository.findById(id).ifPresent(music -> bitmap.add(music.getOrdinal()));
+        }
+        bitmap.runOptimize();
+        return bitmap;
+    }
+}
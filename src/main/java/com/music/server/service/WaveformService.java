@@ -0,0 +1,323 @@
+package com.music.server.service;
+
+import com.music.server.model.Music;
+import com.music.server.repository.MusicRepository;
+import com.music.server.storage.MusicStorage;
+import com.music.server.utils.WaveformPeaks;
+import jakarta.annotation.PreDestroy;
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.Header;
+import javazoom.jl.decoder.JavaLayerException;
+import javazoom.jl.decoder.SampleBuffer;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Computes waveform peaks once per track so players can draw a seek bar without downloading the audio.
+ * New uploads are queued right after ingest, tracks from before are backfilled once the instance is up.
+ * Decoding is pure Java (JLayer for MP3, javax.sound for PCM containers) on a small low-priority pool with
+ * a bounded queue; a full queue drops the work, and the next request for that waveform queues it again.
+ */
+@Slf4j
+@Service
+public class WaveformService {
+
+    public static final int MIN_POINTS = 64;
+    public static final int DEFAULT_POINTS = 1024;
+
+    private static final Set<String> MP3 = Set.of("mp3");
+    private static final Set<String> PCM = Set.of("wav", "aiff", "aif", "aifc", "au");
+    // Longer recordings only get peaks for their start
+    private static final long MAX_SECONDS = TimeUnit.HOURS.toSeconds(6);
+    private static final int PCM_BUFFER_FRAMES = 4096;
+
+    public enum State {
+        READY, PENDING, UNAVAILABLE
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Waveform {
+        private final State state;
+        // Encoded peaks when READY
+        private final byte[] data;
+        // Points in data, fewer than requested if the stored peaks are coarser
+        private final int pointCount;
+    }
+
+    private final MusicRepository musicRepository;
+    private final MusicStorage musicStorage;
+    private final boolean enabled;
+    private final int points;
+    private final boolean backfill;
+    private final int queueSize;
+    private final ThreadPoolExecutor executor;
+
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    // Decoding failed, not retried until restart
+    private final Set<String> failedIds = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder computed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder unsupported = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder computeNanos = new LongAdder();
+
+    public WaveformService(MusicRepository musicRepository, MusicStorage musicStorage, Environment env) {
+        this.musicRepository = musicRepository;
+        this.musicStorage = musicStorage;
+        this.enabled = env.getProperty("app.waveform.enabled", Boolean.class, true);
+        this.points = env.getProperty("app.waveform.points", Integer.class, 4096);
+        this.backfill = env.getProperty("app.waveform.backfill", Boolean.class, true);
+        this.queueSize = env.getProperty("app.waveform.queue-size", Integer.class, 10000);
+        int threads = env.getProperty("app.waveform.threads", Integer.class, 1);
+        if (Integer.bitCount(points) != 1 || points < MIN_POINTS) {
+            throw new IllegalStateException("app.waveform.points must be a power of two, at least " + MIN_POINTS);
+        }
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> {
+            Thread t = new Thread(r, "waveform");
+            t.setDaemon(true);
+            // Decoding is CPU heavy, streams come first
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public static boolean isSupported(String format) {
+        String lower = format == null ? "" : format.toLowerCase();
+        return MP3.contains(lower) || PCM.contains(lower);
+    }
+
+    /**
+     * Queue the peaks of a track unless they exist, are being computed or can't be computed.
+     */
+    public void schedule(Music music) {
+        if (!enabled || failedIds.contains(music.getId()) || inFlight.contains(music.getId())) {
+            return;
+        }
+        if (!isSupported(music.getFormat())) {
+            unsupported.increment();
+            return;
+        }
+        if (!inFlight.add(music.getId())) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    compute(music);
+                } finally {
+                    inFlight.remove(music.getId());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(music.getId());
+            dropped.increment();
+        }
+    }
+
+    /**
+     * The peaks of a local audio file at the given resolution. Missing peaks are queued and PENDING
+     * returned, so a client can retry.
+     *
+     * @param pointCount a power of two between {@link #MIN_POINTS} and app.waveform.points
+     */
+    public Waveform find(Music music, File audioFile, int pointCount) throws IOException {
+        if (Integer.bitCount(pointCount) != 1 || pointCount < MIN_POINTS || pointCount > points) {
+            throw new IllegalArgumentException("points must be a power of two between " + MIN_POINTS + " and " + points);
+        }
+        if (!enabled || !isSupported(music.getFormat()) || failedIds.contains(music.getId())) {
+            return new Waveform(State.UNAVAILABLE, null, 0);
+        }
+        Path sidecar = WaveformPeaks.sidecar(audioFile.toPath());
+        WaveformPeaks peaks;
+        try {
+            peaks = WaveformPeaks.decode(Files.readAllBytes(sidecar));
+        } catch (NoSuchFileException | IllegalArgumentException e) {
+            if (e instanceof IllegalArgumentException) {
+                log.warn("Recomputing waveform of {}: {}", music.getId(), e.getMessage());
+                Files.deleteIfExists(sidecar);
+            }
+            schedule(music);
+            return new Waveform(failedIds.contains(music.getId()) ? State.UNAVAILABLE : State.PENDING, null, 0);
+        }
+        // Stored with fewer points before app.waveform.points was raised
+        int count = Math.min(pointCount, peaks.getPointCount());
+        return new Waveform(State.READY, peaks.downsample(count).encode(), count);
+    }
+
+    public Map<String, Object> stats() {
+        long done = computed.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("computed", done);
+        stats.put("failed", failed.sum());
+        stats.put("unsupported", unsupported.sum());
+        stats.put("queued", executor.getQueue().size());
+        stats.put("in_flight", inFlight.size());
+        stats.put("dropped", dropped.sum());
+        stats.put("avg_ms", done == 0 ? 0d : computeNanos.sum() / 1e6 / done);
+        return stats;
+    }
+
+    /**
+     * Peaks for tracks uploaded before this existed, or whose computation was dropped or cut short by a
+     * restart. Waits whenever the queue is half full, so uploads always find room.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (!enabled || !backfill) {
+            return;
+        }
+        Thread thread = new Thread(this::backfill, "waveform-backfill");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    private void backfill() {
+        int queued = 0;
+        try {
+            for (Music music : musicRepository.findAll()) {
+                if (!isSupported(music.getFormat())) {
+                    continue;
+                }
+                File file = musicStorage.locate(music.getFilePath());
+                // Not on this node, or already done
+                if (file == null || Files.exists(WaveformPeaks.sidecar(file.toPath()))) {
+                    continue;
+                }
+                while (executor.getQueue().size() > queueSize / 2) {
+                    Thread.sleep(500);
+                }
+                schedule(music);
+                queued++;
+            }
+            if (queued > 0) {
+                log.info("Queued waveform backfill for {} tracks", queued);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            log.warn("Waveform backfill stopped: {}", e.getMessage());
+        }
+    }
+
+    private void compute(Music music) {
+        File file = musicStorage.locate(music.getFilePath());
+        if (file == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        WaveformPeaks peaks;
+        try {
+            WaveformPeaks.Accumulator accumulator = new WaveformPeaks.Accumulator(MAX_SECONDS);
+            if (MP3.contains(music.getFormat().toLowerCase())) {
+                decodeMp3(file.toPath(), accumulator);
+            } else {
+                decodePcm(file, accumulator);
+            }
+            peaks = accumulator.finish(points);
+        } catch (IOException | JavaLayerException | UnsupportedAudioFileException | RuntimeException e) {
+            // JLayer throws anything from ArrayIndexOutOfBounds on corrupt frames
+            markFailed(music, e.toString());
+            return;
+        }
+        if (peaks == null) {
+            markFailed(music, "no audio decoded");
+            return;
+        }
+        try {
+            writeAtomically(WaveformPeaks.sidecar(file.toPath()), peaks.encode());
+            computed.increment();
+            computeNanos.add(System.nanoTime() - start);
+        } catch (IOException e) {
+            // Deleted or moved meanwhile, the backfill or the next request tries again
+            log.warn("Failed to store waveform of {}: {}", music.getId(), e.getMessage());
+        }
+    }
+
+    private void markFailed(Music music, String reason) {
+        failed.increment();
+        failedIds.add(music.getId());
+        log.debug("No waveform for {} ({}): {}", music.getId(), music.getFormat(), reason);
+    }
+
+    private static void decodeMp3(Path path, WaveformPeaks.Accumulator accumulator) throws IOException, JavaLayerException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(path), 64 * 1024)) {
+            Bitstream bitstream = new Bitstream(in);
+            Decoder decoder = new Decoder();
+            Header header;
+            while (!accumulator.isFull() && (header = bitstream.readFrame()) != null) {
+                SampleBuffer output = (SampleBuffer) decoder.decodeFrame(header, bitstream);
+                accumulator.setSampleRate(output.getSampleFrequency());
+                accumulator.add(output.getBuffer(), output.getBufferLength(), output.getChannelCount());
+                bitstream.closeFrame();
+            }
+        }
+    }
+
+    private static void decodePcm(File file, WaveformPeaks.Accumulator accumulator)
+            throws IOException, UnsupportedAudioFileException {
+        try (AudioInputStream source = AudioSystem.getAudioInputStream(file)) {
+            AudioFormat format = source.getFormat();
+            AudioFormat pcm = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, format.getSampleRate(), 16,
+                    format.getChannels(), format.getChannels() * 2, format.getSampleRate(), false);
+            try (AudioInputStream in = AudioSystem.getAudioInputStream(pcm, source)) {
+                int channels = pcm.getChannels();
+                byte[] bytes = new byte[PCM_BUFFER_FRAMES * pcm.getFrameSize()];
+                short[] samples = new short[PCM_BUFFER_FRAMES * channels];
+                accumulator.setSampleRate(Math.round(pcm.getSampleRate()));
+                int read;
+                while (!accumulator.isFull() && (read = in.readNBytes(bytes, 0, bytes.length)) > 0) {
+                    int count = read / 2;
+                    for (int i = 0; i < count; i++) {
+                        samples[i] = (short) ((bytes[i * 2] & 0xff) | (bytes[i * 2 + 1] << 8));
+                    }
+                    accumulator.add(samples, count, channels);
+                }
+            }
+        }
+    }
+
+    private static void writeAtomically(Path target, byte[] data) throws IOException {
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.write(tmp, data);
+        try {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.music.server.storage;
+
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A file resource whose reads count towards the load of its disk, from the moment the body is opened
+ * until it is closed. Reading is left to the wrapped resource, which may serve part of it from memory.
+ */
+public class DiskReadResource extends FileSystemResource {
+
+    private final Resource delegate;
+    private final StorageDisk disk;
+
+    public DiskReadResource(File file, Resource delegate, StorageDisk disk) {
+        super(file);
+        this.delegate = delegate;
+        this.disk = disk;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return disk.trackRead(delegate.getInputStream());
+    }
+}
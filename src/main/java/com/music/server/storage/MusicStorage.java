@@ -0,0 +1,81 @@
+package com.music.server.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Where audio and cover files live on disk. Music.filePath / coverPath keep the absolute path
+ * returned by {@link #newAudioPath} / {@link #newCoverPath}. Audio may be spread over several disks,
+ * and popular tracks may have copies on more than one; a copy lives at the same relative place under
+ * its disk's root.
+ */
+public interface MusicStorage {
+
+    /**
+     * Path for a new audio file, on the disk with the fewest open streams, then the most free space.
+     * Parent directories are created.
+     *
+     * @throws IOException also when no disk has enough space left
+     */
+    Path newAudioPath(String id, String extension) throws IOException;
+
+    /**
+     * Path for a new cover file, parent directories are created.
+     */
+    Path newCoverPath(String id, String extension) throws IOException;
+
+    /**
+     * The file behind a stored path, or null if it is gone. Also finds files that were moved to
+     * their canonical location but whose record was not rewritten yet.
+     */
+    File locate(String storedPath);
+
+    /**
+     * Where a stored file belongs in the current layout.
+     */
+    Path canonicalPath(String storedPath, boolean isAudio);
+
+    /**
+     * The copy to stream from: of all disks holding the file, the one with the fewest open streams.
+     * Null if there is no copy.
+     */
+    File locateForRead(String storedPath);
+
+    /**
+     * Every existing copy of a stored file.
+     */
+    List<File> locateAll(String storedPath);
+
+    /**
+     * Every place a copy of a stored file may live in the current layout, whether it exists or not.
+     */
+    List<Path> candidatePaths(String storedPath, boolean isAudio);
+
+    /**
+     * Root directories of all files, audio disks first, then covers.
+     */
+    List<Path> roots();
+
+    /**
+     * The audio disks, the one of app.music.files-dir first.
+     */
+    List<StorageDisk> disks();
+
+    /**
+     * The audio disk a file lives on, or null.
+     */
+    StorageDisk diskOf(File file);
+
+    /**
+     * The disk new audio goes to, see {@link #newAudioPath}. Null if none outside exclude has space.
+     */
+    StorageDisk chooseDisk(Set<StorageDisk> exclude);
+
+    /**
+     * Where a copy of a stored file goes on another disk, parent directories are created.
+     */
+    Path replicaPath(String storedPath, StorageDisk disk) throws IOException;
+}
@@ -0,0 +1,254 @@
+package com.music.server.storage;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Two-level hex sharding: {@code <root>/ab/cd/abcd1234-....mp3}, so no directory holds more than
+ * 1/65536 of the files.
+ * <p>
+ * Audio roots are app.music.files-dir plus app.storage.extra-files-dirs, one per disk (JBOD). A new file
+ * goes to the disk with the fewest open streams, ties broken by free space, so idle disks fill evenly
+ * and busy ones are left alone. Covers stay in app.music.covers-dir.
+ */
+@Slf4j
+@Component
+public class ShardedMusicStorage implements MusicStorage {
+
+    @Value("${app.music.files-dir}")
+    private String filesDir;
+
+    @Value("${app.music.covers-dir}")
+    private String coversDir;
+
+    @Value("${app.storage.extra-files-dirs:}")
+    private List<String> extraFilesDirs;
+
+    @Value("${app.storage.min-free-bytes:1073741824}")
+    private long minFreeBytes;
+
+    private List<StorageDisk> disks;
+    private List<Path> roots;
+
+    @PostConstruct
+    public void init() {
+        Set<Path> audioRoots = new LinkedHashSet<>();
+        audioRoots.add(normalize(Paths.get(filesDir)));
+        for (String dir : extraFilesDirs) {
+            if (StringUtils.hasText(dir)) {
+                audioRoots.add(normalize(Paths.get(dir.trim())));
+            }
+        }
+        List<StorageDisk> list = new ArrayList<>();
+        for (Path root : audioRoots) {
+            list.add(new StorageDisk("disk" + list.size(), root));
+        }
+        disks = List.copyOf(list);
+        List<Path> all = new ArrayList<>(audioRoots);
+        all.add(normalize(Paths.get(coversDir)));
+        roots = List.copyOf(all);
+        if (disks.size() > 1) {
+            log.info("Audio striped over {} disks: {}", disks.size(), audioRoots);
+        }
+    }
+
+    @Override
+    public Path newAudioPath(String id, String extension) throws IOException {
+        StorageDisk disk = chooseDisk(Set.of());
+        if (disk == null) {
+            throw new IOException("No disk has " + minFreeBytes + " bytes free");
+        }
+        return create(disk.getRoot(), id + "." + extension);
+    }
+
+    @Override
+    public Path newCoverPath(String id, String extension) throws IOException {
+        return create(Paths.get(coversDir), id + "." + extension);
+    }
+
+    @Override
+    public File locate(String storedPath) {
+        if (!StringUtils.hasText(storedPath)) {
+            return null;
+        }
+        File file = new File(storedPath);
+        if (file.exists()) {
+            return file;
+        }
+        // Moved by the layout migration, record not rewritten yet, or only a copy on another disk is left
+        for (Path root : roots) {
+            File moved = shardedPath(root, file.getName()).toFile();
+            if (moved.exists()) {
+                return moved;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public File locateForRead(String storedPath) {
+        if (disks.size() == 1) {
+            return locate(storedPath);
+        }
+        File best = null;
+        int bestActive = Integer.MAX_VALUE;
+        for (File copy : locateAll(storedPath)) {
+            StorageDisk disk = diskOf(copy);
+            int active = disk == null ? 0 : disk.getActive();
+            if (active < bestActive) {
+                best = copy;
+                bestActive = active;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public List<File> locateAll(String storedPath) {
+        if (!StringUtils.hasText(storedPath)) {
+            return List.of();
+        }
+        List<File> copies = new ArrayList<>();
+        for (Path path : candidatePaths(storedPath, true)) {
+            File file = path.toFile();
+            if (file.exists()) {
+                copies.add(file);
+            }
+        }
+        return copies;
+    }
+
+    @Override
+    public List<Path> candidatePaths(String storedPath, boolean isAudio) {
+        Set<Path> paths = new LinkedHashSet<>();
+        Path stored = normalize(Paths.get(storedPath));
+        paths.add(stored);
+        String filename = stored.getFileName().toString();
+        if (isAudio) {
+            for (StorageDisk disk : disks) {
+                paths.add(shardedPath(disk.getRoot(), filename));
+            }
+        } else {
+            paths.add(shardedPath(Paths.get(coversDir), filename));
+        }
+        return new ArrayList<>(paths);
+    }
+
+    @Override
+    public Path canonicalPath(String storedPath, boolean isAudio) {
+        Path stored = normalize(Paths.get(storedPath));
+        // Stays on its disk, the migration only reshards
+        Path root = Paths.get(isAudio ? filesDir : coversDir);
+        if (isAudio) {
+            StorageDisk disk = diskOf(stored.toFile());
+            if (disk != null) {
+                root = disk.getRoot();
+            }
+        }
+        return shardedPath(root, stored.getFileName().toString());
+    }
+
+    @Override
+    public List<Path> roots() {
+        return roots;
+    }
+
+    @Override
+    public List<StorageDisk> disks() {
+        return disks;
+    }
+
+    @Override
+    public StorageDisk diskOf(File file) {
+        Path path = normalize(file.toPath());
+        StorageDisk match = null;
+        for (StorageDisk disk : disks) {
+            // Longest root wins, in case one disk is mounted below another's root
+            if (path.startsWith(disk.getRoot())
+                    && (match == null || disk.getRoot().getNameCount() > match.getRoot().getNameCount())) {
+                match = disk;
+            }
+        }
+        return match;
+    }
+
+    @Override
+    public StorageDisk chooseDisk(Set<StorageDisk> exclude) {
+        StorageDisk best = null;
+        int bestActive = Integer.MAX_VALUE;
+        long bestFree = -1;
+        for (StorageDisk disk : disks) {
+            if (exclude.contains(disk)) {
+                continue;
+            }
+            long free = disk.usableSpace();
+            if (free < minFreeBytes) {
+                continue;
+            }
+            int active = disk.getActive();
+            if (active < bestActive || (active == bestActive && free > bestFree)) {
+                best = disk;
+                bestActive = active;
+                bestFree = free;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public Path replicaPath(String storedPath, StorageDisk disk) throws IOException {
+        return create(disk.getRoot(), Paths.get(storedPath).getFileName().toString());
+    }
+
+    @Scheduled(fixedRateString = "${app.storage.sample-interval-ms:5000}")
+    public void sampleDisks() {
+        for (StorageDisk disk : disks) {
+            disk.sample();
+        }
+    }
+
+    private Path create(Path root, String filename) throws IOException {
+        Path path = shardedPath(root, filename);
+        Files.createDirectories(path.getParent());
+        return path;
+    }
+
+    private static Path normalize(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+    static Path shardedPath(Path root, String filename) {
+        String prefix = shardPrefix(filename);
+        return root.resolve(prefix.substring(0, 2)).resolve(prefix.substring(2, 4)).resolve(filename)
+                .toAbsolutePath().normalize();
+    }
+
+    private static String shardPrefix(String filename) {
+        String lower = filename.toLowerCase();
+        if (lower.length() >= 4 && isHex(lower.substring(0, 4))) {
+            return lower.substring(0, 4);
+        }
+        // Not a UUID file name, shard by hash instead
+        return String.format("%04x", filename.hashCode() & 0xffff);
+    }
+
+    private static boolean isHex(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.digit(s.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
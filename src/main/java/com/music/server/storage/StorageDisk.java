@@ -0,0 +1,171 @@
+package com.music.server.storage;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One audio root, normally a mount point of its own, and the I/O going through it. Queue depth is the
+ * number of streams open on it right now; a stream counts from open to close, so a client reading slowly
+ * keeps its slot the whole time, which is what ties up the disk's read-ahead and seeks too.
+ */
+public class StorageDisk {
+
+    private final String name;
+    private final Path root;
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    // Throughput over the last sample interval, see sample()
+    private long lastSampleNanos = System.nanoTime();
+    private long lastBytesRead;
+    private long lastBytesWritten;
+    private volatile double readBytesPerSecond;
+    private volatile double writeBytesPerSecond;
+    private volatile int maxActive;
+    private final AtomicInteger peakActive = new AtomicInteger();
+
+    StorageDisk(String name, Path root) {
+        this.name = name;
+        this.root = root;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public int getActive() {
+        return active.get();
+    }
+
+    /**
+     * Bytes left for this process on the disk's file store, 0 if it can't be read.
+     */
+    public long usableSpace() {
+        try {
+            return Files.getFileStore(root).getUsableSpace();
+        } catch (IOException e) {
+            errors.increment();
+            return 0;
+        }
+    }
+
+    public InputStream trackRead(InputStream in) {
+        begin();
+        reads.increment();
+        return new FilterInputStream(in) {
+            private final AtomicBoolean closed = new AtomicBoolean();
+
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    bytesRead.increment();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    bytesRead.add(n);
+                }
+                return n;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed.compareAndSet(false, true)) {
+                    active.decrementAndGet();
+                }
+                super.close();
+            }
+        };
+    }
+
+    public OutputStream trackWrite(OutputStream out) {
+        begin();
+        writes.increment();
+        return new FilterOutputStream(out) {
+            private final AtomicBoolean closed = new AtomicBoolean();
+
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                bytesWritten.increment();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                bytesWritten.add(len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed.compareAndSet(false, true)) {
+                    active.decrementAndGet();
+                }
+                super.close();
+            }
+        };
+    }
+
+    private void begin() {
+        int now = active.incrementAndGet();
+        peakActive.accumulateAndGet(now, Math::max);
+    }
+
+    /**
+     * Roll the throughput window, called on a fixed schedule.
+     */
+    synchronized void sample() {
+        long now = System.nanoTime();
+        double seconds = (now - lastSampleNanos) / 1e9;
+        long read = bytesRead.sum();
+        long written = bytesWritten.sum();
+        if (seconds > 0) {
+            readBytesPerSecond = (read - lastBytesRead) / seconds;
+            writeBytesPerSecond = (written - lastBytesWritten) / seconds;
+        }
+        lastSampleNanos = now;
+        lastBytesRead = read;
+        lastBytesWritten = written;
+        maxActive = peakActive.getAndSet(active.get());
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("name", name);
+        stats.put("root", root.toString());
+        stats.put("usable_bytes", usableSpace());
+        stats.put("queue_depth", active.get());
+        stats.put("max_queue_depth", maxActive);
+        stats.put("reads", reads.sum());
+        stats.put("writes", writes.sum());
+        stats.put("bytes_read", bytesRead.sum());
+        stats.put("bytes_written", bytesWritten.sum());
+        stats.put("read_bytes_per_second", Math.round(readBytesPerSecond));
+        stats.put("write_bytes_per_second", Math.round(writeBytesPerSecond));
+        stats.put("errors", errors.sum());
+        return stats;
+    }
+}
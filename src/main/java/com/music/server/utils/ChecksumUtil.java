@@ -0,0 +1,65 @@
+package com.music.server.utils;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+public class ChecksumUtil {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private ChecksumUtil() {
+        // Private constructor to prevent instantiation
+    }
+
+    /**
+     * New SHA-256 digest, the algorithm used for Music.checksum
+     *
+     * @return MessageDigest
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Hex encode a finished digest
+     *
+     * @param digest The digest
+     * @return Lowercase hex string
+     */
+    public static String toHex(MessageDigest digest) {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Checksum a file, optionally throttled
+     *
+     * @param path    File to read
+     * @param limiter Permits are bytes, null for unthrottled
+     * @return Lowercase hex SHA-256
+     */
+    public static String checksum(Path path, RateLimiter limiter) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(path)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                if (limiter != null) {
+                    limiter.acquire(n);
+                }
+                digest.update(buffer, 0, n);
+            }
+        }
+        return toHex(digest);
+    }
+}
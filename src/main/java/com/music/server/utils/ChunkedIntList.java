@@ -0,0 +1,250 @@
+package com.music.server.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * List of ints kept in fixed-capacity chunks. Inserting, removing or moving touches one or two chunks
+ * instead of shifting the whole array, and no value is boxed. Finding a position walks the chunk sizes,
+ * which for 100k values in chunks of 512 is a couple hundred additions.
+ * <p>
+ * Not thread-safe.
+ */
+public class ChunkedIntList {
+
+    private final int chunkCapacity;
+    private final List<Chunk> chunks = new ArrayList<>();
+    private int size;
+
+    public ChunkedIntList(int chunkCapacity) {
+        if (chunkCapacity < 2) {
+            throw new IllegalArgumentException("chunkCapacity must be at least 2");
+        }
+        this.chunkCapacity = chunkCapacity;
+    }
+
+    public static ChunkedIntList of(int[] values, int chunkCapacity) {
+        ChunkedIntList list = new ChunkedIntList(chunkCapacity);
+        list.insert(0, values);
+        return list;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int get(int index) {
+        checkIndex(index, size);
+        for (Chunk chunk : chunks) {
+            if (index < chunk.size) {
+                return chunk.values[index];
+            }
+            index -= chunk.size;
+        }
+        throw new IllegalStateException("Chunk sizes out of sync");
+    }
+
+    /**
+     * Insert values so the first of them ends up at index, index == size appends.
+     */
+    public void insert(int index, int[] values) {
+        checkIndex(index, size + 1);
+        if (values.length == 0) {
+            return;
+        }
+        int at = locate(index);
+        int offset = index - startOf(at);
+        Chunk target = at < chunks.size() ? chunks.get(at) : null;
+        if (target != null && target.size + values.length <= chunkCapacity) {
+            // Common case, fits where it goes
+            System.arraycopy(target.values, offset, target.values, offset + values.length, target.size - offset);
+            System.arraycopy(values, 0, target.values, offset, values.length);
+            target.size += values.length;
+        } else {
+            if (target == null && at > 0 && chunks.get(at - 1).size + values.length <= chunkCapacity) {
+                // Appending to a last chunk with room
+                Chunk last = chunks.get(at - 1);
+                System.arraycopy(values, 0, last.values, last.size, values.length);
+                last.size += values.length;
+                size += values.length;
+                return;
+            }
+            // Split the target at the offset and put full chunks in between
+            List<Chunk> replacement = new ArrayList<>();
+            if (target != null && offset > 0) {
+                replacement.add(new Chunk(Arrays.copyOf(target.values, chunkCapacity), offset));
+            }
+            for (int from = 0; from < values.length; from += chunkCapacity) {
+                int n = Math.min(chunkCapacity, values.length - from);
+                int[] part = new int[chunkCapacity];
+                System.arraycopy(values, from, part, 0, n);
+                replacement.add(new Chunk(part, n));
+            }
+            if (target != null && offset < target.size) {
+                int[] rest = new int[chunkCapacity];
+                System.arraycopy(target.values, offset, rest, 0, target.size - offset);
+                replacement.add(new Chunk(rest, target.size - offset));
+            }
+            if (target != null) {
+                chunks.remove(at);
+            }
+            chunks.addAll(at, replacement);
+            mergeAround(at + replacement.size() - 1);
+            mergeAround(at - 1);
+        }
+        size += values.length;
+    }
+
+    /**
+     * Remove count values starting at index.
+     */
+    public void remove(int index, int count) {
+        if (count < 0 || index < 0 || index + count > size) {
+            throw new IndexOutOfBoundsException("Range " + index + "+" + count + " outside 0.." + size);
+        }
+        if (count == 0) {
+            return;
+        }
+        int at = locate(index);
+        int offset = index - startOf(at);
+        int left = count;
+        int i = at;
+        while (left > 0) {
+            Chunk chunk = chunks.get(i);
+            int n = Math.min(left, chunk.size - offset);
+            System.arraycopy(chunk.values, offset + n, chunk.values, offset, chunk.size - offset - n);
+            chunk.size -= n;
+            left -= n;
+            if (chunk.size == 0) {
+                chunks.remove(i);
+            } else {
+                i++;
+            }
+            offset = 0;
+        }
+        size -= count;
+        mergeAround(Math.min(at, chunks.size() - 1));
+        mergeAround(at - 1);
+    }
+
+    /**
+     * Move one value so that it ends up at index to.
+     */
+    public void move(int from, int to) {
+        checkIndex(from, size);
+        checkIndex(to, size);
+        if (from == to) {
+            return;
+        }
+        int value = get(from);
+        remove(from, 1);
+        insert(to, new int[]{value});
+    }
+
+    /**
+     * @return how many values were removed
+     */
+    public int removeIf(IntPredicate filter) {
+        int removed = 0;
+        for (int i = 0; i < chunks.size(); ) {
+            Chunk chunk = chunks.get(i);
+            int kept = 0;
+            for (int j = 0; j < chunk.size; j++) {
+                if (!filter.test(chunk.values[j])) {
+                    chunk.values[kept++] = chunk.values[j];
+                }
+            }
+            removed += chunk.size - kept;
+            chunk.size = kept;
+            if (kept == 0) {
+                chunks.remove(i);
+            } else {
+                i++;
+            }
+        }
+        if (removed > 0) {
+            size -= removed;
+            for (int i = chunks.size() - 2; i >= 0; i--) {
+                mergeAround(i);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Copy of up to count values starting at from.
+     */
+    public int[] toArray(int from, int count) {
+        checkIndex(from, size + 1);
+        int n = Math.max(0, Math.min(count, size - from));
+        int[] out = new int[n];
+        int at = locate(from);
+        int offset = from - startOf(at);
+        int written = 0;
+        for (int i = at; written < n; i++) {
+            Chunk chunk = chunks.get(i);
+            int take = Math.min(n - written, chunk.size - offset);
+            System.arraycopy(chunk.values, offset, out, written, take);
+            written += take;
+            offset = 0;
+        }
+        return out;
+    }
+
+    public int[] toArray() {
+        return toArray(0, size);
+    }
+
+    // Chunk holding index, chunks.size() for index == size
+    private int locate(int index) {
+        int start = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            int end = start + chunks.get(i).size;
+            if (index < end) {
+                return i;
+            }
+            start = end;
+        }
+        return chunks.size();
+    }
+
+    private int startOf(int chunkIndex) {
+        int start = 0;
+        for (int i = 0; i < chunkIndex; i++) {
+            start += chunks.get(i).size;
+        }
+        return start;
+    }
+
+    // Fold chunk i+1 into chunk i when both fit in one, keeps removals from leaving a trail of tiny chunks
+    private void mergeAround(int i) {
+        if (i < 0 || i + 1 >= chunks.size()) {
+            return;
+        }
+        Chunk a = chunks.get(i);
+        Chunk b = chunks.get(i + 1);
+        if (a.size + b.size <= chunkCapacity) {
+            System.arraycopy(b.values, 0, a.values, a.size, b.size);
+            a.size += b.size;
+            chunks.remove(i + 1);
+        }
+    }
+
+    private static void checkIndex(int index, int bound) {
+        if (index < 0 || index >= bound) {
+            throw new IndexOutOfBoundsException("Index " + index + " outside 0.." + (bound - 1));
+        }
+    }
+
+    private static class Chunk {
+        private final int[] values;
+        private int size;
+
+        private Chunk(int[] values, int size) {
+            this.values = values;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.music.server.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Min/max peaks of a track for drawing a seek bar, stored next to the audio file as {@code <file>.peaks}.
+ * <p>
+ * Layout, big-endian: magic "WFPK", u16 version, u16 original peak amplitude (0..32767), u32 duration in
+ * ms, u32 point count, then one signed byte min and one max per point. Points are normalized so the
+ * loudest one reaches 127; the original peak says how loud that was. The point count is a power of two,
+ * lower resolutions are derived by merging neighbours.
+ */
+public class WaveformPeaks {
+
+    public static final String EXTENSION = ".peaks";
+    public static final int VERSION = 1;
+
+    private static final int MAGIC = 0x5746504b; // WFPK
+    private static final int HEADER_BYTES = 16;
+
+    private final int peak;
+    private final long durationMs;
+    // min, max per point
+    private final byte[] points;
+
+    private WaveformPeaks(int peak, long durationMs, byte[] points) {
+        this.peak = peak;
+        this.durationMs = durationMs;
+        this.points = points;
+    }
+
+    public static Path sidecar(Path audioFile) {
+        return audioFile.resolveSibling(audioFile.getFileName() + EXTENSION);
+    }
+
+    public int getPointCount() {
+        return points.length / 2;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    public byte[] encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + points.length);
+        buffer.putInt(MAGIC);
+        buffer.putShort((short) VERSION);
+        buffer.putShort((short) peak);
+        buffer.putInt((int) Math.min(durationMs, Integer.MAX_VALUE));
+        buffer.putInt(getPointCount());
+        buffer.put(points);
+        return buffer.array();
+    }
+
+    public static WaveformPeaks decode(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (data.length < HEADER_BYTES || buffer.getInt() != MAGIC || buffer.getShort() != VERSION) {
+            throw new IllegalArgumentException("Not a version " + VERSION + " peaks file");
+        }
+        int peak = buffer.getShort();
+        long durationMs = buffer.getInt() & 0xffffffffL;
+        int count = buffer.getInt();
+        if (count <= 0 || buffer.remaining() != count * 2) {
+            throw new IllegalArgumentException("Truncated peaks file");
+        }
+        byte[] points = new byte[count * 2];
+        buffer.get(points);
+        return new WaveformPeaks(peak, durationMs, points);
+    }
+
+    /**
+     * Merge neighbouring points down to {@code count}, a power of two not above the current count.
+     */
+    public WaveformPeaks downsample(int count) {
+        int current = getPointCount();
+        if (count == current) {
+            return this;
+        }
+        if (Integer.bitCount(count) != 1 || count > current) {
+            throw new IllegalArgumentException("Can't downsample " + current + " points to " + count);
+        }
+        int factor = current / count;
+        byte[] merged = new byte[count * 2];
+        for (int i = 0; i < count; i++) {
+            byte min = Byte.MAX_VALUE;
+            byte max = Byte.MIN_VALUE;
+            for (int j = i * factor; j < (i + 1) * factor; j++) {
+                min = (byte) Math.min(min, points[j * 2]);
+                max = (byte) Math.max(max, points[j * 2 + 1]);
+            }
+            merged[i * 2] = min;
+            merged[i * 2 + 1] = max;
+        }
+        return new WaveformPeaks(peak, durationMs, merged);
+    }
+
+    /**
+     * Collects min/max of 16-bit PCM while a track is decoded, in blocks of frames over all channels.
+     * Memory stays bounded for any length: when the blocks run out, neighbours are merged and the block
+     * length doubles.
+     * <p>
+     * Not thread-safe.
+     */
+    public static class Accumulator {
+
+        private static final int MAX_BLOCKS = 1 << 16;
+
+        private final long maxSeconds;
+        private short[] mins = new short[1024];
+        private short[] maxs = new short[1024];
+        private int blocks;
+        private int blockFrames = 256;
+        private int framesInBlock;
+        private short blockMin = Short.MAX_VALUE;
+        private short blockMax = Short.MIN_VALUE;
+        private long frames;
+        private int sampleRate;
+
+        /**
+         * @param maxSeconds Decoding stops being useful past this, see {@link #isFull()}
+         */
+        public Accumulator(long maxSeconds) {
+            this.maxSeconds = maxSeconds;
+        }
+
+        public void setSampleRate(int sampleRate) {
+            this.sampleRate = sampleRate;
+        }
+
+        public boolean isFull() {
+            return sampleRate > 0 && frames >= maxSeconds * sampleRate;
+        }
+
+        /**
+         * @param samples Interleaved samples
+         * @param length  Number of samples used, all channels together
+         */
+        public void add(short[] samples, int length, int channels) {
+            for (int i = 0; i + channels <= length; i += channels) {
+                for (int c = 0; c < channels; c++) {
+                    short s = samples[i + c];
+                    if (s < blockMin) {
+                        blockMin = s;
+                    }
+                    if (s > blockMax) {
+                        blockMax = s;
+                    }
+                }
+                frames++;
+                if (++framesInBlock == blockFrames) {
+                    closeBlock();
+                }
+            }
+        }
+
+        /**
+         * @return null if nothing was decoded
+         */
+        public WaveformPeaks finish(int pointCount) {
+            if (framesInBlock > 0) {
+                closeBlock();
+            }
+            if (blocks == 0 || sampleRate <= 0) {
+                return null;
+            }
+            int peak = 0;
+            for (int i = 0; i < blocks; i++) {
+                peak = Math.max(peak, Math.max(Math.abs((int) mins[i]), Math.abs((int) maxs[i])));
+            }
+            peak = Math.min(peak, Short.MAX_VALUE);
+            double scale = peak == 0 ? 0 : 127.0 / peak;
+            // Short tracks repeat blocks, long ones merge several per point
+            byte[] points = new byte[pointCount * 2];
+            for (int i = 0; i < pointCount; i++) {
+                int from = (int) ((long) i * blocks / pointCount);
+                int to = Math.max(from + 1, (int) ((long) (i + 1) * blocks / pointCount));
+                int min = Short.MAX_VALUE;
+                int max = Short.MIN_VALUE;
+                for (int b = from; b < to; b++) {
+                    min = Math.min(min, mins[b]);
+                    max = Math.max(max, maxs[b]);
+                }
+                points[i * 2] = (byte) Math.max(-127, Math.round(min * scale));
+                points[i * 2 + 1] = (byte) Math.min(127, Math.round(max * scale));
+            }
+            return new WaveformPeaks(peak, frames * 1000 / sampleRate, points);
+        }
+
+        private void closeBlock() {
+            if (blocks == MAX_BLOCKS) {
+                for (int i = 0; i < blocks / 2; i++) {
+                    mins[i] = (short) Math.min(mins[i * 2], mins[i * 2 + 1]);
+                    maxs[i] = (short) Math.max(maxs[i * 2], maxs[i * 2 + 1]);
+                }
+                blocks /= 2;
+                blockFrames *= 2;
+            }
+            if (blocks == mins.length) {
+                mins = Arrays.copyOf(mins, blocks * 2);
+                maxs = Arrays.copyOf(maxs, blocks * 2);
+            }
+            mins[blocks] = blockMin;
+            maxs[blocks] = blockMax;
+            blocks++;
+            framesInBlock = 0;
+            blockMin = Short.MAX_VALUE;
+            blockMax = Short.MIN_VALUE;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.music.server.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AuthInterceptorTest {
+
+    private static final String USER_JSON = "{\"id\":\"u1\",\"username\":\"alice\",\"roles\":[\"ROLE_USER\"]}";
+    private static final String ADMIN_JSON = "{\"id\":\"u2\",\"username\":\"root\",\"roles\":[\"ROLE_ADMIN\"]}";
+    private static final String WARMUP_JSON = "{\"id\":\"jit-warmup\",\"username\":\"jit-warmup\",\"roles\":[\"ROLE_USER\"]}";
+
+    private StringRedisTemplate redisTemplate;
+    private AuthInterceptor interceptor;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        redisTemplate = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> ops = mock(ValueOperations.class);
+        when(redisTemplate.opsForValue()).thenReturn(ops);
+        when(ops.get("auth:token:user")).thenReturn(USER_JSON);
+        when(ops.get("auth:token:admin")).thenReturn(ADMIN_JSON);
+        when(ops.get("auth:token:warmup")).thenReturn(WARMUP_JSON);
+        interceptor = new AuthInterceptor(redisTemplate, new ObjectMapper());
+        ReflectionTestUtils.setField(interceptor, "tokenTtlDays", 7);
+    }
+
+    @Test
+    void userIsRefusedAdminRoutes() throws Exception {
+        assertFalse(allowed("user", "/api/v1/music/batch/delete"));
+        assertFalse(allowed("user", "/api/v1/diagnostics/heap"));
+    }
+
+    @Test
+    void userIsRefusedAdminRoutesWithPathParameters() throws Exception {
+        assertFalse(allowed("user", "/api/v1/music/batch/delete;x=1"));
+        assertFalse(allowed("user", "/api/v1/music/batch;x=1/delete"));
+        assertFalse(allowed("user", "/api/v1/storage/scrub;jsessionid=abc"));
+    }
+
+    @Test
+    void userIsRefusedPercentEncodedAdminRoutes() throws Exception {
+        assertFalse(allowed("user", "/api/v1/music/batch/%64elete"));
+        assertFalse(allowed("user", "/api/v1/catalog/%69mport"));
+        assertFalse(allowed("user", "/api/v1/cluster//rebalance"));
+    }
+
+    @Test
+    void userReachesOtherRoutes() throws Exception {
+        assertTrue(allowed("user", "/api/v1/music/list"));
+    }
+
+    @Test
+    void adminReachesAdminRoutes() throws Exception {
+        assertTrue(allowed("admin", "/api/v1/music/batch/%64elete"));
+        assertTrue(allowed("admin", "/api/v1/storage/migrate;x=1"));
+    }
+
+    @Test
+    void userTokenExpirySlides() throws Exception {
+        assertTrue(allowed("user", "/api/v1/music/list"));
+        verify(redisTemplate).expire("auth:token:user", 7, TimeUnit.DAYS);
+    }
+
+    @Test
+    void warmupTokenExpiryDoesNotSlide() throws Exception {
+        assertTrue(allowed("warmup", "/api/v1/music/list"));
+        verify(redisTemplate, never()).expire(anyString(), anyLong(), any(TimeUnit.class));
+    }
+
+    private boolean allowed(String token, String uri) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", uri);
+        request.setContextPath("/api/v1");
+        request.addHeader("Authorization", "Bearer " + token);
+        return interceptor.preHandle(request, new MockHttpServletResponse(), new Object());
+    }
+}
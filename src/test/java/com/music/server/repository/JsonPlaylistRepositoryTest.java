@@ -0,0 +1,163 @@
+package com.music.server.repository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.music.server.config.WriterLease;
+import com.music.server.model.Playlist;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class JsonPlaylistRepositoryTest {
+
+    @TempDir
+    Path dir;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<JsonPlaylistRepository> opened = new ArrayList<>();
+    private Path snapshotFile;
+    private Path logFile;
+
+    @BeforeEach
+    void setUp() {
+        snapshotFile = dir.resolve("db/playlists.json");
+        logFile = dir.resolve("db/playlists.log");
+    }
+
+    @AfterEach
+    void tearDown() {
+        opened.forEach(JsonPlaylistRepository::close);
+    }
+
+    @Test
+    void replaySkipsOpsAlreadyInTheSnapshot() throws Exception {
+        JsonPlaylistRepository repository = open(1000);
+        String id = repository.create("u1", "mix", 10).getId();
+        repository.insert(id, null, new int[]{1, 2, 3, 4, 5}, 100);
+        repository.move(id, 0, 4);
+        repository.remove(id, 1, 2);
+        repository.close();
+        byte[] logBeforeSnapshot = Files.readAllBytes(logFile);
+
+        // The next op makes it compact: snapshot at seq 5, log emptied
+        repository = open(1);
+        repository.insert(id, 0, new int[]{9}, 100);
+        repository.close();
+        assertEquals(0, Files.size(logFile));
+
+        // As if it crashed before emptying the log, and a sixth op was logged on top
+        Files.write(logFile, logBeforeSnapshot);
+        Files.write(logFile, opLine(insertOp(5, id, 0, new int[]{9})), StandardOpenOption.APPEND);
+        JsonPlaylistRepository.Op remove = op(6, "remove", id);
+        remove.setIndex(0);
+        remove.setCount(1);
+        Files.write(logFile, opLine(remove), StandardOpenOption.APPEND);
+
+        repository = open(1000);
+        assertArrayEquals(new int[]{2, 5, 1}, repository.ordinals(id, 0, 100));
+        assertEquals(3, repository.findById(id).orElseThrow().getSize());
+        // Numbering goes on after the last replayed op, so a restart replays the next one exactly once
+        repository.insert(id, null, new int[]{7}, 100);
+        repository.close();
+        repository = open(1000);
+        assertArrayEquals(new int[]{2, 5, 1, 7}, repository.ordinals(id, 0, 100));
+    }
+
+    @Test
+    void tornLastLineIsDroppedAndCompactedAway() throws Exception {
+        JsonPlaylistRepository repository = open(1000);
+        String id = repository.create("u1", "mix", 10).getId();
+        repository.insert(id, null, new int[]{1, 2, 3}, 100);
+        repository.close();
+        byte[] torn = Arrays.copyOf(opLine(insertOp(3, id, 0, new int[]{7, 8})), 20);
+        Files.write(logFile, torn, StandardOpenOption.APPEND);
+
+        repository = open(1000);
+        assertArrayEquals(new int[]{1, 2, 3}, repository.ordinals(id, 0, 100));
+        // Compacted at startup, so the next op doesn't land behind the partial line
+        assertEquals(0, Files.size(logFile));
+        JsonPlaylistRepository.Snapshot snapshot = objectMapper.readValue(snapshotFile.toFile(), JsonPlaylistRepository.Snapshot.class);
+        assertEquals(2, snapshot.getSeq());
+
+        repository.insert(id, null, new int[]{4}, 100);
+        repository.close();
+        repository = open(1000);
+        assertArrayEquals(new int[]{1, 2, 3, 4}, repository.ordinals(id, 0, 100));
+    }
+
+    @Test
+    void createCountsTheOwnersPlaylists() {
+        JsonPlaylistRepository repository = open(1000);
+        repository.create("u1", "a", 2);
+        Playlist second = repository.create("u1", "b", 2);
+        assertThrows(IllegalStateException.class, () -> repository.create("u1", "c", 2));
+        repository.create("u2", "a", 2);
+        repository.delete(second.getId());
+        repository.create("u1", "c", 2);
+        assertEquals(2, repository.findByOwner("u1").size());
+    }
+
+    @Test
+    void refusedChangesAreNotLogged() throws Exception {
+        JsonPlaylistRepository repository = open(1000);
+        String id = repository.create("u1", "mix", 10).getId();
+        repository.insert(id, null, new int[]{1, 2}, 2);
+        long size = Files.size(logFile);
+        assertThrows(IllegalStateException.class, () -> repository.insert(id, null, new int[]{3}, 2));
+        assertThrows(IllegalArgumentException.class, () -> repository.move(id, 0, 2));
+        assertEquals(size, Files.size(logFile));
+        assertFalse(repository.findById("missing").isPresent());
+        assertTrue(repository.findById(id).isPresent());
+    }
+
+    private JsonPlaylistRepository open(int compactAfterOps) {
+        WriterLease writerLease = mock(WriterLease.class);
+        when(writerLease.isHeld()).thenReturn(true);
+        JsonPlaylistRepository repository = new JsonPlaylistRepository(objectMapper, writerLease);
+        ReflectionTestUtils.setField(repository, "snapshotFilePath", snapshotFile.toString());
+        ReflectionTestUtils.setField(repository, "logFilePath", logFile.toString());
+        ReflectionTestUtils.setField(repository, "chunkSize", 2);
+        ReflectionTestUtils.setField(repository, "compactAfterOps", compactAfterOps);
+        ReflectionTestUtils.setField(repository, "fsync", false);
+        repository.init();
+        opened.add(repository);
+        return repository;
+    }
+
+    private static JsonPlaylistRepository.Op op(long seq, String type, String id) {
+        JsonPlaylistRepository.Op op = new JsonPlaylistRepository.Op();
+        op.setSeq(seq);
+        op.setType(type);
+        op.setId(id);
+        op.setTs(System.currentTimeMillis());
+        return op;
+    }
+
+    private static JsonPlaylistRepository.Op insertOp(long seq, String id, int index, int[] ordinals) {
+        JsonPlaylistRepository.Op op = op(seq, "insert", id);
+        op.setIndex(index);
+        op.setOrdinals(ordinals);
+        return op;
+    }
+
+    private byte[] opLine(JsonPlaylistRepository.Op op) throws Exception {
+        return (objectMapper.writeValueAsString(op) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,165 @@
+package com.music.server.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ChunkedIntListTest {
+
+    private static final int CAPACITY = 4;
+
+    @Test
+    void insertAcrossChunkBoundaries() {
+        int[] model = range(0, 10);
+        ChunkedIntList list = ChunkedIntList.of(model, CAPACITY);
+        // At a boundary, inside a full chunk, more than a chunk at once, at both ends
+        model = check(list, model, 4, range(100, 1));
+        model = check(list, model, 6, range(200, 3));
+        model = check(list, model, 2, range(300, 9));
+        model = check(list, model, 0, range(400, 5));
+        check(list, model, model.length, range(500, 6));
+    }
+
+    @Test
+    void removeAcrossChunkBoundaries() {
+        int[] model = range(0, 30);
+        ChunkedIntList list = ChunkedIntList.of(model, CAPACITY);
+        model = checkRemove(list, model, 3, 2);
+        model = checkRemove(list, model, 4, 9);
+        model = checkRemove(list, model, 0, 4);
+        model = checkRemove(list, model, model.length - 5, 5);
+        checkRemove(list, model, 0, model.length);
+    }
+
+    @Test
+    void moveAcrossChunkBoundaries() {
+        int[] model = range(0, 17);
+        ChunkedIntList list = ChunkedIntList.of(model, CAPACITY);
+        int[][] moves = {{0, 16}, {16, 0}, {3, 4}, {4, 3}, {7, 12}, {15, 1}, {8, 8}};
+        for (int[] move : moves) {
+            list.move(move[0], move[1]);
+            model = moved(model, move[0], move[1]);
+            assertArrayEquals(model, list.toArray(), "move " + move[0] + " -> " + move[1]);
+        }
+    }
+
+    @Test
+    void removeIfEmptiesWholeChunks() {
+        int[] model = range(0, 25);
+        ChunkedIntList list = ChunkedIntList.of(model, CAPACITY);
+        // 4..11 fills chunks 1 and 2 completely
+        assertEquals(8, list.removeIf(v -> v >= 4 && v < 12));
+        model = IntStream.of(model).filter(v -> v < 4 || v >= 12).toArray();
+        assertArrayEquals(model, list.toArray());
+        int[] even = IntStream.of(model).filter(v -> v % 2 == 0).toArray();
+        assertEquals(model.length - even.length, list.removeIf(v -> v % 2 == 1));
+        model = even;
+        assertArrayEquals(model, list.toArray());
+        assertEquals(0, list.removeIf(v -> v < 0));
+        assertEquals(model.length, list.removeIf(v -> true));
+        assertEquals(0, list.size());
+    }
+
+    @Test
+    void randomOperationsMatchAnArray() {
+        Random random = new Random(42);
+        for (int capacity : new int[]{2, 3, 8}) {
+            ChunkedIntList list = new ChunkedIntList(capacity);
+            int[] model = new int[0];
+            int next = 0;
+            for (int step = 0; step < 3000; step++) {
+                int op = random.nextInt(4);
+                if (op == 0 || model.length == 0) {
+                    int[] values = range(next, 1 + random.nextInt(capacity * 3));
+                    next += values.length;
+                    int index = random.nextInt(model.length + 1);
+                    list.insert(index, values);
+                    model = inserted(model, index, values);
+                } else if (op == 1) {
+                    int index = random.nextInt(model.length);
+                    int count = random.nextInt(Math.min(model.length - index, capacity * 3) + 1);
+                    list.remove(index, count);
+                    model = removed(model, index, count);
+                } else if (op == 2) {
+                    int from = random.nextInt(model.length);
+                    int to = random.nextInt(model.length);
+                    list.move(from, to);
+                    model = moved(model, from, to);
+                } else {
+                    int mod = 5 + random.nextInt(10);
+                    int[] kept = IntStream.of(model).filter(v -> v % mod != 0).toArray();
+                    assertEquals(model.length - kept.length, list.removeIf(v -> v % mod == 0));
+                    model = kept;
+                }
+                assertEquals(model.length, list.size());
+                assertArrayEquals(model, list.toArray(), "capacity " + capacity + ", step " + step);
+            }
+        }
+    }
+
+    @Test
+    void readsAcrossChunkBoundaries() {
+        int[] model = range(0, 13);
+        ChunkedIntList list = ChunkedIntList.of(model, CAPACITY);
+        for (int i = 0; i < model.length; i++) {
+            assertEquals(model[i], list.get(i));
+        }
+        assertArrayEquals(Arrays.copyOfRange(model, 3, 10), list.toArray(3, 7));
+        assertArrayEquals(Arrays.copyOfRange(model, 11, 13), list.toArray(11, 100));
+        assertArrayEquals(new int[0], list.toArray(13, 5));
+    }
+
+    @Test
+    void refusesPositionsOutOfRange() {
+        ChunkedIntList list = ChunkedIntList.of(range(0, 5), CAPACITY);
+        assertThrows(IndexOutOfBoundsException.class, () -> list.get(5));
+        assertThrows(IndexOutOfBoundsException.class, () -> list.insert(6, new int[]{1}));
+        assertThrows(IndexOutOfBoundsException.class, () -> list.remove(3, 3));
+        assertThrows(IndexOutOfBoundsException.class, () -> list.move(0, 5));
+        assertArrayEquals(range(0, 5), list.toArray());
+    }
+
+    private static int[] check(ChunkedIntList list, int[] model, int index, int[] values) {
+        list.insert(index, values);
+        int[] expected = inserted(model, index, values);
+        assertArrayEquals(expected, list.toArray(), "insert " + values.length + " at " + index);
+        return expected;
+    }
+
+    private static int[] checkRemove(ChunkedIntList list, int[] model, int index, int count) {
+        list.remove(index, count);
+        int[] expected = removed(model, index, count);
+        assertArrayEquals(expected, list.toArray(), "remove " + count + " at " + index);
+        return expected;
+    }
+
+    private static int[] range(int from, int count) {
+        return IntStream.range(from, from + count).toArray();
+    }
+
+    private static int[] inserted(int[] model, int index, int[] values) {
+        int[] out = new int[model.length + values.length];
+        System.arraycopy(model, 0, out, 0, index);
+        System.arraycopy(values, 0, out, index, values.length);
+        System.arraycopy(model, index, out, index + values.length, model.length - index);
+        return out;
+    }
+
+    private static int[] removed(int[] model, int index, int count) {
+        int[] out = new int[model.length - count];
+        System.arraycopy(model, 0, out, 0, index);
+        System.arraycopy(model, index + count, out, index, model.length - index - count);
+        return out;
+    }
+
+    private static int[] moved(int[] model, int from, int to) {
+        int value = model[from];
+        return inserted(removed(model, from, 1), to, new int[]{value});
+    }
+}